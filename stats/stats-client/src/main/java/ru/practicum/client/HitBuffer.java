@@ -0,0 +1,221 @@
+package ru.practicum.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import ru.practicum.dto.HitDto;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ограниченный неблокирующий буфер запросов статистики. Вызывающий поток только кладёт запрос в буфер,
+ * фоновый поток отправляет их пакетами по batchSize или раз в flushInterval. При переполнении запрос
+ * отбрасывается по политике overflowPolicy, при недоступности сервера пакет повторяется через retryDelay,
+ * пока новые запросы копятся в буфере. Если сервер принял только часть пакета (недоступен один из шардов),
+ * повторяется только непринятая часть. Отброшенные запросы считаются в метрике stats.client.hits.dropped.
+ * <p>
+ * Одинаковые запросы (app, uri, ip, секунда), ещё не отправленные на сервер, сворачиваются в один HitDto
+ * с числом запросов в hits, поэтому capacity и batchSize - это число различных запросов.
+ */
+@Slf4j
+public class HitBuffer {
+
+    private final int capacity;
+    private final int batchSize;
+    private final Duration flushInterval;
+    private final Duration retryDelay;
+    private final OverflowPolicy overflowPolicy;
+    private final Sender sender;
+
+    // Число запросов по каждому ожидающему отправки ключу
+    private final Map<HitKey, Integer> pending = new ConcurrentHashMap<>();
+    // Ключи pending в порядке появления, каждый ровно один раз
+    private final Queue<HitKey> queue = new ConcurrentLinkedQueue<>();
+    // Размер очереди: ConcurrentLinkedQueue.size() проходит всю очередь
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final Counter sent;
+    private final Counter droppedOverflow;
+    private final Counter droppedFailed;
+    private final Counter droppedRejected;
+
+    private volatile boolean running;
+    private volatile Thread thread;
+
+    public HitBuffer(int capacity, int batchSize, Duration flushInterval, Duration retryDelay,
+                     OverflowPolicy overflowPolicy, Sender sender, MeterRegistry registry) {
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.retryDelay = retryDelay;
+        this.overflowPolicy = overflowPolicy;
+        this.sender = sender;
+        this.sent = registry.counter("stats.client.hits.sent");
+        this.droppedOverflow = registry.counter("stats.client.hits.dropped", "reason", "overflow");
+        this.droppedFailed = registry.counter("stats.client.hits.dropped", "reason", "failed");
+        this.droppedRejected = registry.counter("stats.client.hits.dropped", "reason", "rejected");
+        Gauge.builder("stats.client.queue.size", size, AtomicInteger::get).register(registry);
+    }
+
+    /**
+     * @return false, если запрос отброшен из-за переполнения
+     */
+    public boolean offer(HitDto hit) {
+        HitKey key = HitKey.of(hit);
+        // Такой же запрос уже ждёт отправки: достаточно увеличить его счётчик
+        if (pending.computeIfPresent(key, (k, hits) -> hits + hit.getHits()) != null) {
+            return true;
+        }
+        if (size.incrementAndGet() > capacity) {
+            HitKey oldest = overflowPolicy == OverflowPolicy.DROP_OLDEST ? queue.poll() : null;
+            if (oldest == null) {
+                size.decrementAndGet();
+                droppedOverflow.increment(hit.getHits());
+                return false;
+            }
+            size.decrementAndGet();
+            Integer dropped = pending.remove(oldest);
+            droppedOverflow.increment(dropped == null ? 0 : dropped);
+        }
+        if (pending.merge(key, hit.getHits(), Integer::sum) == hit.getHits()) {
+            queue.offer(key);
+            if (size.get() >= batchSize) {
+                LockSupport.unpark(thread);
+            }
+        } else {
+            // Ключ успел добавить другой поток, место в очереди не понадобилось
+            size.decrementAndGet();
+        }
+        return true;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = Thread.ofPlatform().name("stats-client-sender").daemon().start(this::run);
+    }
+
+    /**
+     * Останавливает отправку: то, что осталось в очереди, отправляется одной попыткой не дольше timeout.
+     */
+    public synchronized void stop(Duration timeout) {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            log.warn("Запросы статистики не отправлены за {}, в очереди осталось {}", timeout, size.get());
+            thread.interrupt();
+        }
+    }
+
+    private void run() {
+        List<HitDto> batch = List.of();
+        while (running) {
+            if (batch.isEmpty()) {
+                if (size.get() < batchSize) {
+                    LockSupport.parkNanos(this, flushInterval.toNanos());
+                }
+                batch = poll();
+            }
+            if (!batch.isEmpty()) {
+                batch = send(batch);
+                if (!batch.isEmpty()) {
+                    LockSupport.parkNanos(this, retryDelay.toNanos());
+                }
+            }
+        }
+        // Завершение: остаток отправляется без повторов
+        if (batch.isEmpty()) {
+            batch = poll();
+        }
+        while (!batch.isEmpty() && !Thread.currentThread().isInterrupted()) {
+            droppedFailed.increment(send(batch).stream().mapToLong(HitDto::getHits).sum());
+            batch = poll();
+        }
+        droppedFailed.increment(batch.stream().mapToLong(HitDto::getHits).sum()
+                + pending.values().stream().mapToLong(Integer::longValue).sum());
+    }
+
+    private List<HitDto> poll() {
+        List<HitDto> batch = new ArrayList<>(Math.min(batchSize, Math.max(size.get(), 1)));
+        HitKey key;
+        while (batch.size() < batchSize && (key = queue.poll()) != null) {
+            size.decrementAndGet();
+            Integer hits = pending.remove(key);
+            if (hits != null) {
+                batch.add(new HitDto(key.app(), key.uri(), key.ip(), key.second(), hits));
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * @return запросы пакета, которые нужно отправить повторно
+     */
+    private List<HitDto> send(List<HitDto> batch) {
+        try {
+            Result result = sender.send(batch);
+            if (result == null) {
+                return batch;
+            }
+            sent.increment(result.accepted());
+            droppedRejected.increment(result.rejected());
+            return result.failed();
+        } catch (RuntimeException e) {
+            log.warn("Ошибка отправки пакета из {} запросов статистики: {}", batch.size(), e.getMessage());
+            return batch;
+        }
+    }
+
+    public enum OverflowPolicy {
+        // Отбрасывать новый запрос
+        DROP_NEWEST,
+        // Вытеснять самый старый запрос в очереди
+        DROP_OLDEST
+    }
+
+    private record HitKey(String app, String uri, String ip, LocalDateTime second) {
+        static HitKey of(HitDto hit) {
+            return new HitKey(hit.getApp(), hit.getUri(), hit.getIp(),
+                    hit.getTimestamp().truncatedTo(ChronoUnit.SECONDS));
+        }
+    }
+
+    /**
+     * Отправка пакета; null - сервер недоступен, пакет нужно повторить.
+     */
+    @FunctionalInterface
+    public interface Sender {
+        Result send(List<HitDto> batch);
+    }
+
+    /**
+     * Число принятых и отклонённых сервером запросов с учётом hits и запросы, которые не дошли до сервера
+     * и должны быть отправлены повторно.
+     */
+    public record Result(long accepted, long rejected, List<HitDto> failed) {
+        public Result(long accepted, long rejected) {
+            this(accepted, rejected, List.of());
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package ru.practicum.client;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClient;
+import ru.practicum.client.exception.StatsServerUnavailable;
+
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.net.http.HttpConnectTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Распределение запросов между экземплярами сервера статистики.
+ * Экземпляр выбирается "из двух случайных": из двух случайно взятых доступных экземпляров берётся тот,
+ * у которого меньше (выполняющихся запросов + 1) * скользящее среднее времени ответа.
+ * Экземпляр, к которому не удалось подключиться или который ответил 5xx, исключается на evictionTime;
+ * если исключены все, запросы идут по всем. Если соединение не установлено, запрос повторяется на другом
+ * экземпляре: сервер его не получал, поэтому повтор не создаст дублей.
+ */
+@Slf4j
+public class InstanceBalancer {
+
+    // Вес нового замера в скользящем среднем времени ответа
+    private static final double LATENCY_WEIGHT = 0.2;
+    // Оценка времени ответа экземпляра, к которому ещё не было запросов
+    private static final long MIN_LATENCY_NANOS = 1_000_000;
+
+    private final Duration evictionTime;
+
+    private volatile List<Instance> instances = List.of();
+
+    public InstanceBalancer(Duration evictionTime) {
+        this.evictionTime = evictionTime;
+    }
+
+    /**
+     * Заменяет список экземпляров; статистика уже известных экземпляров сохраняется.
+     *
+     * @param clients url экземпляра - клиент для него
+     */
+    public synchronized void update(Map<String, RestClient> clients) {
+        Map<String, Instance> known = new HashMap<>();
+        instances.forEach(instance -> known.put(instance.url, instance));
+        List<Instance> updated = new ArrayList<>(clients.size());
+        clients.forEach((url, client) -> updated.add(known.containsKey(url)
+                ? known.get(url)
+                : new Instance(url, client)));
+        updated.sort(Comparator.comparing(instance -> instance.url));
+        instances = List.copyOf(updated);
+    }
+
+    public <T> T execute(Function<RestClient, T> request) {
+        List<Instance> candidates = new ArrayList<>(instances);
+        if (candidates.isEmpty()) {
+            throw new StatsServerUnavailable("Нет доступных экземпляров сервиса статистики", null);
+        }
+        while (true) {
+            Instance instance = choose(candidates);
+            instance.inFlight.incrementAndGet();
+            long started = System.nanoTime();
+            try {
+                T result = request.apply(instance.client);
+                instance.recordLatency(System.nanoTime() - started);
+                return result;
+            } catch (ResourceAccessException e) {
+                evict(instance, e);
+                candidates.remove(instance);
+                if (!isNotConnected(e) || candidates.isEmpty()) {
+                    throw e;
+                }
+            } catch (HttpServerErrorException e) {
+                evict(instance, e);
+                throw e;
+            } finally {
+                instance.inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    private Instance choose(List<Instance> candidates) {
+        long now = System.nanoTime();
+        List<Instance> available = candidates.stream()
+                .filter(instance -> instance.evictedUntil - now <= 0)
+                .toList();
+        if (available.isEmpty()) {
+            available = candidates;
+        }
+        if (available.size() == 1) {
+            return available.getFirst();
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(available.size());
+        int second = random.nextInt(available.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        Instance left = available.get(first);
+        Instance right = available.get(second);
+        return left.load() <= right.load() ? left : right;
+    }
+
+    private void evict(Instance instance, RuntimeException e) {
+        instance.evictedUntil = System.nanoTime() + evictionTime.toNanos();
+        log.warn("Экземпляр сервера статистики {} исключён на {}: {}", instance.url, evictionTime, e.getMessage());
+    }
+
+    private static boolean isNotConnected(ResourceAccessException e) {
+        Throwable cause = e.getCause();
+        return cause instanceof ConnectException
+                || cause instanceof HttpConnectTimeoutException
+                || cause instanceof UnknownHostException;
+    }
+
+    private static final class Instance {
+        private final String url;
+        private final RestClient client;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        // Скользящее среднее времени ответа; гонки при обновлении лишь немного искажают оценку
+        private volatile double latencyNanos;
+        private volatile long evictedUntil = System.nanoTime();
+
+        private Instance(String url, RestClient client) {
+            this.url = url;
+            this.client = client;
+        }
+
+        private void recordLatency(long nanos) {
+            latencyNanos = latencyNanos == 0 ? nanos : latencyNanos + LATENCY_WEIGHT * (nanos - latencyNanos);
+        }
+
+        private double load() {
+            return (inFlight.get() + 1) * Math.max(latencyNanos, MIN_LATENCY_NANOS);
+        }
+    }
+}
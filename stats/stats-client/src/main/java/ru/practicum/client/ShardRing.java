@@ -0,0 +1,62 @@
+package ru.practicum.client;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Кольцо согласованного хэширования узлов сервера статистики.
+ * Каждый узел занимает несколько виртуальных точек, поэтому нагрузка распределяется равномерно,
+ * а при добавлении узла на него переезжает лишь около 1/N пар app/uri.
+ * Узлы - постоянные идентификаторы шардов, а не адреса экземпляров: перезапуск не меняет распределение.
+ */
+public class ShardRing {
+
+    private static final int VIRTUAL_NODES = 128;
+
+    private final NavigableMap<Long, String> ring = new TreeMap<>();
+    private final List<String> nodes;
+
+    public ShardRing(Collection<String> nodes) {
+        this.nodes = nodes.stream().distinct().sorted().toList();
+        for (String node : this.nodes) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    public boolean isEmpty() {
+        return nodes.isEmpty();
+    }
+
+    /**
+     * Узел, на который отправляются запросы пары app/uri.
+     */
+    public String nodeFor(String app, String uri) {
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(app + "\n" + uri));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                hash = (hash << 8) | (digest[i] & 0xff);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+}
@@ -1,11 +1,15 @@
 package ru.practicum.client;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import jakarta.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.client.ServiceInstance;
 import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.context.SmartLifecycle;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -18,53 +22,288 @@ import org.springframework.web.client.RestClient;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.util.UriComponentsBuilder;
 import ru.practicum.client.exception.StatsServerUnavailable;
+import ru.practicum.dto.BulkHitResultDto;
 import ru.practicum.dto.HitDto;
+import ru.practicum.dto.HitRejectionDto;
 import ru.practicum.dto.StatsDto;
+import ru.practicum.dto.StatsSketchDto;
+import ru.practicum.dto.sketch.HyperLogLog;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
 
+/**
+ * Клиент сервера статистики. По умолчанию hit не ждёт ответа сервера: запрос кладётся в ограниченный буфер
+ * и отправляется пакетом через /hits фоновым потоком (см. HitBuffer). При остановке приложения буфер
+ * дописывается на сервер после остановки веб-сервера, но не дольше shutdown-timeout.
+ */
 @Component
 @Slf4j
-public class StatClient {
+public class StatClient implements SmartLifecycle {
+    // Метка в метаданных экземпляра сервера: часть ответов он даёт из собственной памяти
+    // (см. LocalStateMetadata на сервере)
+    private static final String LOCAL_STATE = "stats-local-state";
+    // Постоянный идентификатор шарда в метаданных экземпляра (см. ShardMetadata на сервере)
+    private static final String SHARD_ID = "stats-shard-id";
+
     private final DiscoveryClient discoveryClient;
-    private RestClient restClient;
+    private final StatsHttpTransport transport;
     private final String serverId;
+    // Каждый шард сервера статистики хранит свою часть пар app/uri в собственной БД
+    private final boolean sharded;
+    private final Duration refreshInterval;
+
+    // Клиенты экземпляров и кольцо шардов одним снимком; без шардирования запросы распределяет balancer
+    private volatile Instances instances = new Instances(Map.of(), Map.of(), null);
+    private final InstanceBalancer balancer;
+    private volatile long instancesRefreshedAt;
+    // Предупреждение о нескольких экземплярах с состоянием в памяти уже выведено для этого состава
+    private boolean localStateWarned;
+
+    // null - hit отправляется синхронно
+    private final HitBuffer hitBuffer;
+    private final Duration shutdownTimeout;
+    private volatile boolean running;
+
+    // null - кэш ответов /stats выключен
+    private final StatsQueryCache statsCache;
+    // Наибольшее число uris в одном запросе /stats
+    private final int uriChunkSize;
+    // Части длинного списка uris, запрашиваемые одновременно (по всем вызовам getStats): не больше,
+    // чем соединений с одним экземпляром в пуле, иначе лишние запросы лишь ждут соединения
+    private final Semaphore chunkPermits;
 
     @Autowired
-    public StatClient(@Value("${stats-server.name}") String serverId, DiscoveryClient discoveryClient) {
+    public StatClient(@Value("${stats-server.name}") String serverId,
+                      @Value("${stats-server.sharding.enabled:false}") boolean sharded,
+                      @Value("${stats-server.discovery.refresh-interval:30s}") Duration refreshInterval,
+                      @Value("${stats-server.balancer.eviction-time:30s}") Duration evictionTime,
+                      @Value("${stats-server.client.async.enabled:true}") boolean async,
+                      @Value("${stats-server.client.async.queue-capacity:10000}") int queueCapacity,
+                      @Value("${stats-server.client.async.batch-size:500}") int batchSize,
+                      @Value("${stats-server.client.async.flush-interval:1s}") Duration flushInterval,
+                      @Value("${stats-server.client.async.retry-delay:5s}") Duration retryDelay,
+                      @Value("${stats-server.client.async.shutdown-timeout:5s}") Duration shutdownTimeout,
+                      @Value("${stats-server.client.async.overflow-policy:DROP_NEWEST}")
+                      HitBuffer.OverflowPolicy overflowPolicy,
+                      @Value("${stats-server.client.cache.enabled:true}") boolean cacheEnabled,
+                      @Value("${stats-server.client.cache.ttl:1s}") Duration cacheTtl,
+                      @Value("${stats-server.client.cache.max-entries:1000}") int cacheMaxEntries,
+                      @Value("${stats-server.client.uri-chunk-size:100}") int uriChunkSize,
+                      DiscoveryClient discoveryClient,
+                      StatsHttpTransport transport,
+                      ObjectProvider<MeterRegistry> meterRegistry) {
         this.discoveryClient = discoveryClient;
+        this.transport = transport;
         this.serverId = serverId;
+        this.sharded = sharded;
+        this.refreshInterval = refreshInterval;
+        this.balancer = new InstanceBalancer(evictionTime);
+        this.shutdownTimeout = shutdownTimeout;
+        this.uriChunkSize = uriChunkSize;
+        this.chunkPermits = new Semaphore(transport.getMaxConnectionsPerRoute());
+        MeterRegistry registry = meterRegistry.getIfAvailable(SimpleMeterRegistry::new);
+        this.hitBuffer = async
+                ? new HitBuffer(queueCapacity, batchSize, flushInterval, retryDelay, overflowPolicy, this::sendBatch,
+                registry)
+                : null;
+        this.statsCache = cacheEnabled ? new StatsQueryCache(cacheTtl, cacheMaxEntries, registry) : null;
+    }
+
+    @Override
+    public void start() {
+        if (hitBuffer != null) {
+            hitBuffer.start();
+        }
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        if (hitBuffer != null) {
+            hitBuffer.stop(shutdownTimeout);
+        }
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
     }
 
-    public ResponseEntity<Void> hit(@Valid HitDto hitDto) { //Сохранение информации о том, что на uri конкретного сервиса был отправлен запрос пользователем с ip
+    @Override
+    public int getPhase() {
+        // Останавливается после веб-сервера, чтобы последние запросы успели попасть в буфер
+        return DEFAULT_PHASE - 4096;
+    }
+
+    /**
+     * Сохранение информации о том, что на uri конкретного сервиса был отправлен запрос пользователем с ip.
+     * В асинхронном режиме возвращает 202, если запрос принят в буфер, и 503, если отброшен из-за переполнения.
+     */
+    public ResponseEntity<Void> hit(@Valid HitDto hitDto) {
+        if (hitBuffer != null) {
+            return hitBuffer.offer(hitDto)
+                    ? ResponseEntity.status(HttpStatus.ACCEPTED).build()
+                    : ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
         try {
-            initializeStatsClient(serverId);
-            ResponseEntity<Void> response = restClient.post()
+            Function<RestClient, ResponseEntity<Void>> request = client -> client.post()
                     .uri("/hit")
                     .contentType(MediaType.APPLICATION_JSON)
                     .body(hitDto)
                     .retrieve()
                     .toBodilessEntity();
+            ResponseEntity<Void> response = sharded
+                    ? request.apply(refreshShards().clientFor(hitDto.getApp(), hitDto.getUri()))
+                    : execute(request);
             log.info("Сохранение статистики для {}", hitDto);
             return response;
-        } catch (RestClientException e) {
+        } catch (RestClientException | StatsServerUnavailable e) {
             log.error("Ошибка выполнения запроса post сервером статистики для запроса {} : {}, трассировка:", hitDto, e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
 
-    public ResponseEntity<List<StatsDto>> getStats(String start, String end, List<String> uris, boolean unique) { // Получение статистики по посещениям.
+    /**
+     * При шардировании повторять нужно только запросы, отправленные на недоступные узлы:
+     * остальные узлы их уже приняли.
+     */
+    private HitBuffer.Result sendBatch(List<HitDto> hits) {
+        BulkHitResultDto result;
+        List<HitDto> failed = List.of();
+        if (sharded) {
+            ShardedHits sent = hitAllSharded(hits);
+            if (sent == null) {
+                return null;
+            }
+            result = sent.result();
+            failed = sent.failed().stream().map(hits::get).toList();
+        } else {
+            ResponseEntity<BulkHitResultDto> response = hitAll(hits);
+            result = response.getBody();
+            if (!response.getStatusCode().is2xxSuccessful() || result == null) {
+                return null;
+            }
+        }
+        if (!result.getRejected().isEmpty()) {
+            log.warn("Сервер статистики отклонил {} запросов из пакета: {}", result.getRejected().size(),
+                    result.getRejected());
+        }
+        long total = hits.stream().mapToLong(HitDto::getHits).sum();
+        long rejected = result.getRejected().stream().mapToLong(rejection -> hits.get(rejection.getIndex()).getHits())
+                .sum();
+        long notSent = failed.stream().mapToLong(HitDto::getHits).sum();
+        return new HitBuffer.Result(total - rejected - notSent, rejected, failed);
+    }
+
+    /**
+     * Сохранение пакета запросов за один HTTP-вызов. При шардировании пакет делится по узлам;
+     * если хотя бы один узел недоступен, возвращается 500, хотя остальные узлы свою часть уже сохранили.
+     */
+    public ResponseEntity<BulkHitResultDto> hitAll(List<HitDto> hits) {
+        if (sharded) {
+            ShardedHits sent = hitAllSharded(hits);
+            return sent == null || !sent.failed().isEmpty()
+                    ? ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build()
+                    : ResponseEntity.ok(sent.result());
+        }
         try {
-            initializeStatsClient(serverId);
-            ResponseEntity<List<StatsDto>> response = restClient.get()
+            ResponseEntity<BulkHitResultDto> response = execute(client -> client.post()
+                    .uri("/hits")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(hits)
+                    .retrieve()
+                    .toEntity(BulkHitResultDto.class));
+            log.info("Сохранение статистики для пакета из {} запросов", hits.size());
+            return response;
+        } catch (RestClientException | StatsServerUnavailable e) {
+            log.error("Ошибка выполнения пакетного запроса post сервером статистики для {} запросов: {}, трассировка:",
+                    hits.size(), e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Получение статистики по посещениям. Одинаковые запросы в пределах TTL кэша отвечаются из памяти,
+     * а одновременные одинаковые запросы уходят на сервер один раз.
+     */
+    public ResponseEntity<List<StatsDto>> getStats(String start, String end, List<String> uris, boolean unique) {
+        StatsQueryCache.Query query = new StatsQueryCache.Query(start, end, uris, unique);
+        return statsCache == null ? loadStats(query) : statsCache.get(query, () -> loadStats(query));
+    }
+
+    /**
+     * Длинный список uris делится на части по uriChunkSize, которые запрашиваются параллельно,
+     * но не больше chunkPermits одновременно.
+     * Шаблоны uri из разных частей могут совпасть с одним и тем же uri: такая пара app/uri берётся один раз.
+     */
+    private ResponseEntity<List<StatsDto>> loadStats(StatsQueryCache.Query query) {
+        List<String> uris = query.uris();
+        if (uris.size() <= uriChunkSize) {
+            return fetchStats(query.start(), query.end(), uris, query.unique());
+        }
+        List<Future<ResponseEntity<List<StatsDto>>>> responses = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int from = 0; from < uris.size(); from += uriChunkSize) {
+                List<String> chunk = uris.subList(from, Math.min(from + uriChunkSize, uris.size()));
+                responses.add(executor.submit(() -> {
+                    chunkPermits.acquire();
+                    try {
+                        return fetchStats(query.start(), query.end(), chunk, query.unique());
+                    } finally {
+                        chunkPermits.release();
+                    }
+                }));
+            }
+        }
+        Map<List<String>, StatsDto> merged = new LinkedHashMap<>();
+        try {
+            for (Future<ResponseEntity<List<StatsDto>>> future : responses) {
+                ResponseEntity<List<StatsDto>> response = future.get();
+                if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
+                    return response;
+                }
+                response.getBody().forEach(dto -> merged.putIfAbsent(List.of(dto.getApp(), dto.getUri()), dto));
+            }
+        } catch (ExecutionException e) {
+            log.error("Ошибка выполнения запроса GET по частям списка uris: {}, трассировка:", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Collections.emptyList());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Collections.emptyList());
+        }
+        log.info("Запрос GET по {} uris выполнен {} частями", uris.size(), responses.size());
+        return ResponseEntity.ok(merged.values().stream()
+                .sorted(Comparator.comparing(StatsDto::getHits).reversed())
+                .toList());
+    }
+
+    private ResponseEntity<List<StatsDto>> fetchStats(String start, String end, List<String> uris, boolean unique) {
+        if (sharded) {
+            return getStatsSharded(start, end, uris, unique);
+        }
+        try {
+            ResponseEntity<List<StatsDto>> response = execute(client -> client.get()
                     .uri(buildStatsUri(start, end, uris, unique))
                     .retrieve()
-                    .toEntity(new ParameterizedTypeReference<>() {
-                    });
+                    .toEntity(new ParameterizedTypeReference<List<StatsDto>>() {
+                    }));
             log.info("Выполнен запрос GET с параметрами start={}, end={}, uris={}, unique={}:", start, end, uris, unique);
             return response;
-        } catch (RestClientException e) {
+        } catch (RestClientException | StatsServerUnavailable e) {
             log.error("Ошибка выполнения запроса GET на сервер статистики с параметрами start={}, " +
                             "end={}, uris={}, unique={}: {}, трассировка:", start, end, uris, unique,
                     e.getMessage(), e);
@@ -72,32 +311,294 @@ public class StatClient {
         }
     }
 
-    private String buildStatsUri(String start, String end, List<String> uris, Boolean unique) {
-        UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromPath("/stats")
+    /**
+     * Пакет делится по узлам кольца; номера отклонённых запросов в ответах узлов
+     * переводятся обратно в номера исходного пакета. Части пакета для узлов, которые не ответили,
+     * возвращаются в failed; null - пакет не отправлен ни на один узел.
+     */
+    private ShardedHits hitAllSharded(List<HitDto> hits) {
+        Map<String, List<Integer>> indexesByNode = new LinkedHashMap<>();
+        try {
+            Instances shards = refreshShards();
+            for (int i = 0; i < hits.size(); i++) {
+                String node = shards.ring().nodeFor(hits.get(i).getApp(), hits.get(i).getUri());
+                indexesByNode.computeIfAbsent(node, key -> new ArrayList<>()).add(i);
+            }
+            Map<String, Future<BulkHitResultDto>> responses = new HashMap<>();
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                indexesByNode.forEach((node, indexes) -> responses.put(node, executor.submit(() ->
+                        shards.shards().get(node).post()
+                                .uri("/hits")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .body(indexes.stream().map(hits::get).toList())
+                                .retrieve()
+                                .body(BulkHitResultDto.class))));
+            }
+            BulkHitResultDto result = new BulkHitResultDto();
+            List<Integer> failed = new ArrayList<>();
+            for (Map.Entry<String, Future<BulkHitResultDto>> entry : responses.entrySet()) {
+                List<Integer> indexes = indexesByNode.get(entry.getKey());
+                BulkHitResultDto part;
+                try {
+                    part = entry.getValue().get();
+                } catch (ExecutionException e) {
+                    log.error("Ошибка выполнения пакетного запроса post узлом статистики {} для {} запросов: {}",
+                            entry.getKey(), indexes.size(), e.getCause().getMessage(), e.getCause());
+                    failed.addAll(indexes);
+                    continue;
+                }
+                if (part == null) {
+                    failed.addAll(indexes);
+                    continue;
+                }
+                result.setAccepted(result.getAccepted() + part.getAccepted());
+                for (HitRejectionDto rejection : part.getRejected()) {
+                    result.getRejected().add(new HitRejectionDto(indexes.get(rejection.getIndex()),
+                            rejection.getErrors()));
+                }
+            }
+            result.getRejected().sort(Comparator.comparing(HitRejectionDto::getIndex));
+            failed.sort(Comparator.naturalOrder());
+            log.info("Сохранение статистики для пакета из {} запросов на {} узлах, не отправлено {}", hits.size(),
+                    indexesByNode.size(), failed.size());
+            return new ShardedHits(result, failed);
+        } catch (StatsServerUnavailable e) {
+            log.error("Ошибка выполнения пакетного запроса post серверами статистики для {} запросов: {}, трассировка:",
+                    hits.size(), e.getMessage(), e);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Запрос /stats рассылается на все узлы параллельно. Счётчики запросов по одной паре app/uri складываются.
+     * Уникальные IP складывать нельзя: если пара встретилась на нескольких узлах (после смены состава кольца),
+     * у этих узлов запрашиваются скетчи HyperLogLog, и число уникальных IP оценивается по их объединению.
+     */
+    private ResponseEntity<List<StatsDto>> getStatsSharded(String start, String end, List<String> uris, boolean unique) {
+        try {
+            Instances shards = refreshShards();
+            Map<String, List<StatsDto>> responses = fanOut(shards, buildStatsUri(start, end, uris, unique),
+                    new ParameterizedTypeReference<>() {
+                    });
+
+            Map<List<String>, Long> totals = new LinkedHashMap<>();
+            Map<List<String>, List<String>> nodesByKey = new HashMap<>();
+            responses.forEach((node, stats) -> {
+                for (StatsDto dto : stats) {
+                    List<String> key = List.of(dto.getApp(), dto.getUri());
+                    totals.merge(key, dto.getHits(), Long::sum);
+                    nodesByKey.computeIfAbsent(key, k -> new ArrayList<>()).add(node);
+                }
+            });
+            if (unique) {
+                mergeSketches(shards, start, end, nodesByKey, totals);
+            }
+
+            List<StatsDto> result = totals.entrySet().stream()
+                    .map(entry -> new StatsDto(entry.getKey().get(0), entry.getKey().get(1), entry.getValue()))
+                    .sorted(Comparator.comparing(StatsDto::getHits).reversed())
+                    .toList();
+            log.info("Выполнен запрос GET на {} узлов с параметрами start={}, end={}, uris={}, unique={}:",
+                    responses.size(), start, end, uris, unique);
+            return ResponseEntity.ok(result);
+        } catch (RestClientException | StatsServerUnavailable | ExecutionException e) {
+            log.error("Ошибка выполнения запроса GET на серверы статистики с параметрами start={}, " +
+                            "end={}, uris={}, unique={}: {}, трассировка:", start, end, uris, unique,
+                    e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Collections.emptyList());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Collections.emptyList());
+        }
+    }
+
+    private void mergeSketches(Instances shards, String start, String end, Map<List<String>, List<String>> nodesByKey,
+                               Map<List<String>, Long> totals) throws ExecutionException, InterruptedException {
+        List<String> splitUris = nodesByKey.entrySet().stream()
+                .filter(entry -> entry.getValue().size() > 1)
+                .map(entry -> entry.getKey().get(1))
+                .distinct()
+                .toList();
+        if (splitUris.isEmpty()) {
+            return;
+        }
+        String sketchesUri = UriComponentsBuilder.fromPath("/stats/sketches")
                 .queryParam("start", start.replace(" ", "T"))
                 .queryParam("end", end.replace(" ", "T"))
-                .queryParam("uris", uris)
-                .queryParam("unique", unique);
-        return uriBuilder.toUriString();
+                .queryParam("uris", splitUris)
+                .toUriString();
+        Map<List<String>, HyperLogLog> merged = new HashMap<>();
+        fanOut(shards, sketchesUri, new ParameterizedTypeReference<List<StatsSketchDto>>() {
+        }).values().forEach(sketches -> {
+            for (StatsSketchDto dto : sketches) {
+                List<String> key = List.of(dto.getApp(), dto.getUri());
+                if (nodesByKey.getOrDefault(key, List.of()).size() > 1) {
+                    HyperLogLog sketch = HyperLogLog.fromBytes(dto.getSketch());
+                    merged.merge(key, sketch, HyperLogLog::union);
+                }
+            }
+        });
+        merged.forEach((key, sketch) -> totals.put(key, sketch.estimate()));
+    }
+
+    private <T> Map<String, T> fanOut(Instances shards, String uri, ParameterizedTypeReference<T> type)
+            throws ExecutionException, InterruptedException {
+        Map<String, Future<T>> futures = new HashMap<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (String node : shards.ring().getNodes()) {
+                RestClient client = shards.shards().get(node);
+                futures.put(node, executor.submit(() -> client.get().uri(uri).retrieve().body(type)));
+            }
+        }
+        Map<String, T> responses = new HashMap<>();
+        for (Map.Entry<String, Future<T>> entry : futures.entrySet()) {
+            responses.put(entry.getKey(), entry.getValue().get());
+        }
+        return responses;
+    }
+
+    private Instances refreshShards() {
+        refreshInstances();
+        Instances shards = instances;
+        if (shards.ring().isEmpty()) {
+            throw new StatsServerUnavailable("Ни один экземпляр сервиса статистики " + serverId
+                    + " не публикует " + SHARD_ID, null);
+        }
+        return shards;
+    }
+
+    private <T> T execute(Function<RestClient, T> request) {
+        refreshInstances();
+        return balancer.execute(request);
     }
 
-    private synchronized void initializeStatsClient(String serviceId) {
-        if (restClient == null) {
-            restClient = RestClient.create(makeURI(serviceId));
+    /**
+     * Список экземпляров перечитывается из discovery не чаще раза в refreshInterval; если discovery недоступен,
+     * остаётся прежний. При шардировании по нему строится кольцо, иначе обновляется балансировщик.
+     */
+    private void refreshInstances() {
+        if (isRefreshed(System.currentTimeMillis())) {
+            return;
         }
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (isRefreshed(now)) {
+                return;
+            }
+            List<ServiceInstance> instances;
+            if (instancesRefreshedAt == 0) {
+                log.info("Получаем адреса сервера статистики");
+                instances = createRetryTemplate().execute(cxt -> getInstances(serverId));
+            } else {
+                try {
+                    instances = getInstances(serverId);
+                } catch (StatsServerUnavailable e) {
+                    log.warn("Не удалось обновить список экземпляров сервера статистики, используется прежний: {}",
+                            e.getMessage());
+                    instancesRefreshedAt = now;
+                    return;
+                }
+            }
+            Map<String, RestClient> known = this.instances.clients();
+            Map<String, RestClient> clients = new HashMap<>();
+            for (ServiceInstance instance : instances) {
+                String url = "http://" + instance.getHost() + ":" + instance.getPort();
+                clients.put(url, known.containsKey(url) ? known.get(url) : transport.create(url));
+            }
+            if (!clients.keySet().equals(known.keySet())) {
+                log.info("Экземпляры сервера статистики: {}", clients.keySet().stream().sorted().toList());
+            }
+            Map<String, RestClient> shards = Map.of();
+            if (sharded) {
+                shards = shardClients(instances, clients);
+            } else {
+                balancer.update(clients);
+            }
+            warnLocalState(instances);
+            // Кольцо и клиенты публикуются вместе: узел из кольца всегда найдётся среди клиентов шардов
+            this.instances = new Instances(Map.copyOf(clients), shards,
+                    sharded ? new ShardRing(shards.keySet()) : null);
+            instancesRefreshedAt = now;
+        }
+    }
+
+    /**
+     * Клиенты шардов по идентификатору шарда из метаданных. Адрес экземпляра для кольца не годится: с
+     * server.port: 0 он меняется при каждом перезапуске, и пары app/uri переезжали бы на другие узлы.
+     * Экземпляры без идентификатора в кольцо не входят. Если у шарда несколько экземпляров (у них общая БД),
+     * запросы идут на первый по адресу.
+     */
+    private Map<String, RestClient> shardClients(List<ServiceInstance> instances, Map<String, RestClient> clients) {
+        Map<String, String> urls = new HashMap<>();
+        List<String> unassigned = new ArrayList<>();
+        for (ServiceInstance instance : instances) {
+            String url = "http://" + instance.getHost() + ":" + instance.getPort();
+            String shardId = instance.getMetadata().get(SHARD_ID);
+            if (shardId == null || shardId.isBlank()) {
+                unassigned.add(url);
+                continue;
+            }
+            urls.merge(shardId, url, (first, second) -> first.compareTo(second) <= 0 ? first : second);
+        }
+        if (!unassigned.isEmpty()) {
+            log.warn("Экземпляры сервера статистики {} не публикуют {} и не получают запросов при шардировании",
+                    unassigned.stream().sorted().toList(), SHARD_ID);
+        }
+        Map<String, RestClient> shards = new HashMap<>();
+        urls.forEach((shardId, url) -> shards.put(shardId, clients.get(url)));
+        return Map.copyOf(shards);
+    }
+
+    /**
+     * Запросы по-прежнему распределяются между всеми экземплярами: закрепление за одним экземпляром не делает
+     * состояние в памяти согласованным и переезжает при его исключении. Поэтому о такой конфигурации
+     * только предупреждаем - возможности из метки нужно выключить, если экземпляров больше одного.
+     */
+    private void warnLocalState(List<ServiceInstance> instances) {
+        List<String> local = instances.stream()
+                .filter(instance -> instance.getMetadata().containsKey(LOCAL_STATE))
+                .map(instance -> instance.getHost() + ":" + instance.getPort() + " ("
+                        + instance.getMetadata().get(LOCAL_STATE) + ")")
+                .sorted()
+                .toList();
+        boolean conflict = instances.size() > 1 && !local.isEmpty();
+        if (conflict && !localStateWarned) {
+            log.warn("Экземпляров сервера статистики несколько, но {} отвечают из собственной памяти: " +
+                    "такие ответы учитывают только запросы, принятые этим экземпляром", local);
+        }
+        localStateWarned = conflict;
+    }
+
+    private boolean isRefreshed(long now) {
+        return instancesRefreshedAt != 0 && now - instancesRefreshedAt < refreshInterval.toMillis();
     }
 
-    private ServiceInstance getInstance(String serviceId) {
+    private List<ServiceInstance> getInstances(String serviceId) {
+        List<ServiceInstance> instances;
         try {
-            return discoveryClient
-                    .getInstances(serviceId)
-                    .getFirst();
+            instances = discoveryClient.getInstances(serviceId);
         } catch (Exception exception) {
             throw new StatsServerUnavailable(
                     "Ошибка обнаружения адреса сервиса статистики с id: " + serviceId,
                     exception
             );
         }
+        if (instances.isEmpty()) {
+            throw new StatsServerUnavailable("Нет доступных экземпляров сервиса статистики с id: " + serviceId, null);
+        }
+        return instances;
+    }
+
+    private String buildStatsUri(String start, String end, List<String> uris, Boolean unique) {
+        UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromPath("/stats")
+                .queryParam("start", start.replace(" ", "T"))
+                .queryParam("end", end.replace(" ", "T"))
+                .queryParam("uris", uris)
+                .queryParam("unique", unique);
+        return uriBuilder.toUriString();
     }
 
     private RetryTemplate createRetryTemplate() {
@@ -114,9 +615,19 @@ public class StatClient {
         return retryTemplate;
     }
 
-    private String makeURI(String serviceId) {
-        log.info("Получаем url stats-client");
-        ServiceInstance instance = createRetryTemplate().execute(cxt -> getInstance(serviceId));
-        return "http://" + instance.getHost() + ":" + instance.getPort();
+    /**
+     * Клиенты экземпляров по url, клиенты шардов и кольцо по идентификаторам шардов; без шардирования
+     * shards пуст, а ring - null.
+     */
+    private record Instances(Map<String, RestClient> clients, Map<String, RestClient> shards, ShardRing ring) {
+        RestClient clientFor(String app, String uri) {
+            return shards.get(ring.nodeFor(app, uri));
+        }
+    }
+
+    /**
+     * Итог пакета по узлам кольца: ответ принявших узлов и номера запросов, не доставленных на свои узлы.
+     */
+    private record ShardedHits(BulkHitResultDto result, List<Integer> failed) {
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,114 @@
+package ru.practicum.client;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+/**
+ * HTTP-транспорт клиента статистики: одна фабрика запросов и один пул соединений на все экземпляры сервера.
+ * APACHE - Apache HttpClient 5: ограниченный пул, keep-alive не дольше keepAlive с проверкой простаивавших
+ * соединений, таймауты и распаковка ответов gzip. JDK - java.net.http.HttpClient с HTTP/2: запросы к одному
+ * экземпляру мультиплексируются в одном соединении, размер пула и сжатие не настраиваются.
+ */
+@Slf4j
+@Component
+public class StatsHttpTransport implements DisposableBean {
+
+    private final ClientHttpRequestFactory requestFactory;
+    private final AutoCloseable httpClient;
+    // Сколько запросов к одному экземпляру имеет смысл выполнять одновременно
+    private final int maxConnectionsPerRoute;
+
+    public StatsHttpTransport(@Value("${stats-server.transport.type:APACHE}") Type type,
+                              @Value("${stats-server.transport.max-connections:200}") int maxConnections,
+                              @Value("${stats-server.transport.max-connections-per-route:50}") int maxPerRoute,
+                              @Value("${stats-server.transport.connect-timeout:2s}") Duration connectTimeout,
+                              @Value("${stats-server.transport.read-timeout:10s}") Duration readTimeout,
+                              @Value("${stats-server.transport.keep-alive:30s}") Duration keepAlive,
+                              @Value("${stats-server.transport.compression:true}") boolean compression) {
+        this.maxConnectionsPerRoute = maxPerRoute;
+        if (type == Type.JDK) {
+            HttpClient client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_2)
+                    .connectTimeout(connectTimeout)
+                    .build();
+            JdkClientHttpRequestFactory factory = new JdkClientHttpRequestFactory(client);
+            factory.setReadTimeout(readTimeout);
+            requestFactory = factory;
+            httpClient = client;
+        } else {
+            CloseableHttpClient client = apacheClient(maxConnections, maxPerRoute, connectTimeout, readTimeout,
+                    keepAlive, compression);
+            requestFactory = new HttpComponentsClientHttpRequestFactory(client);
+            httpClient = client;
+        }
+        log.info("Транспорт клиента статистики: {}", type);
+    }
+
+    public RestClient create(String baseUrl) {
+        return RestClient.builder()
+                .baseUrl(baseUrl)
+                .requestFactory(requestFactory)
+                .build();
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        httpClient.close();
+    }
+
+    static CloseableHttpClient apacheClient(int maxConnections, int maxPerRoute, Duration connectTimeout,
+                                            Duration readTimeout, Duration keepAlive, boolean compression) {
+        TimeValue keepAliveTime = TimeValue.of(keepAlive);
+        HttpClientBuilder builder = HttpClients.custom()
+                .setConnectionManager(PoolingHttpClientConnectionManagerBuilder.create()
+                        .setMaxConnTotal(maxConnections)
+                        .setMaxConnPerRoute(maxPerRoute)
+                        .setDefaultConnectionConfig(ConnectionConfig.custom()
+                                .setConnectTimeout(Timeout.of(connectTimeout))
+                                .setSocketTimeout(Timeout.of(readTimeout))
+                                // Соединение, простоявшее дольше секунды, проверяется перед использованием:
+                                // сервер мог закрыть его раньше нашего keepAlive
+                                .setValidateAfterInactivity(TimeValue.ofSeconds(1))
+                                .build())
+                        .build())
+                // Не держать соединение дольше keepAlive, даже если сервер разрешает больше
+                .setKeepAliveStrategy((response, context) -> keepAliveTime)
+                .evictIdleConnections(keepAliveTime)
+                .evictExpiredConnections()
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        // Ожидание свободного соединения в исчерпанном пуле
+                        .setConnectionRequestTimeout(Timeout.of(connectTimeout))
+                        .setResponseTimeout(Timeout.of(readTimeout))
+                        .build());
+        if (!compression) {
+            builder.disableContentCompression();
+        }
+        return builder.build();
+    }
+
+    public enum Type {
+        APACHE,
+        JDK
+    }
+}
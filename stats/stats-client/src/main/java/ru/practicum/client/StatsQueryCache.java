@@ -0,0 +1,108 @@
+package ru.practicum.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.http.ResponseEntity;
+import ru.practicum.dto.StatsDto;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Ближний кэш ответов /stats с коротким TTL. Одинаковые запросы, пришедшие, пока первый ещё выполняется,
+ * не уходят на сервер, а ждут его ответа. Кэшируются только успешные ответы; вызывающие получают копии DTO,
+ * поэтому изменение результата не портит кэш.
+ */
+public class StatsQueryCache {
+
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final Map<Query, Entry> entries;
+    private final Map<Query, CompletableFuture<ResponseEntity<List<StatsDto>>>> inFlight = new ConcurrentHashMap<>();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter coalesced;
+
+    public StatsQueryCache(Duration ttl, int maxEntries, MeterRegistry registry) {
+        this.ttlNanos = ttl.toNanos();
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Query, Entry> eldest) {
+                return size() > StatsQueryCache.this.maxEntries;
+            }
+        };
+        this.hits = registry.counter("stats.client.stats.requests", "result", "hit");
+        this.misses = registry.counter("stats.client.stats.requests", "result", "miss");
+        this.coalesced = registry.counter("stats.client.stats.requests", "result", "coalesced");
+    }
+
+    public ResponseEntity<List<StatsDto>> get(Query query, Supplier<ResponseEntity<List<StatsDto>>> loader) {
+        Entry cached;
+        synchronized (entries) {
+            cached = entries.get(query);
+        }
+        if (cached != null && cached.expiresAt - System.nanoTime() > 0) {
+            hits.increment();
+            return copy(cached.response);
+        }
+        CompletableFuture<ResponseEntity<List<StatsDto>>> created = new CompletableFuture<>();
+        CompletableFuture<ResponseEntity<List<StatsDto>>> running = inFlight.putIfAbsent(query, created);
+        if (running != null) {
+            coalesced.increment();
+            try {
+                return copy(running.join());
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+        misses.increment();
+        try {
+            ResponseEntity<List<StatsDto>> response = loader.get();
+            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
+                response = ResponseEntity.status(response.getStatusCode()).headers(response.getHeaders())
+                        .body(List.copyOf(response.getBody()));
+                synchronized (entries) {
+                    entries.put(query, new Entry(response, System.nanoTime() + ttlNanos));
+                }
+            }
+            created.complete(response);
+            return copy(response);
+        } catch (RuntimeException e) {
+            created.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(query, created);
+        }
+    }
+
+    private static ResponseEntity<List<StatsDto>> copy(ResponseEntity<List<StatsDto>> response) {
+        if (response.getBody() == null) {
+            return response;
+        }
+        return ResponseEntity.status(response.getStatusCode()).headers(response.getHeaders()).body(
+                response.getBody().stream()
+                        .map(dto -> new StatsDto(dto.getApp(), dto.getUri(), dto.getHits()))
+                        .toList());
+    }
+
+    /**
+     * Параметры запроса /stats; порядок и повторы uris на результат не влияют.
+     */
+    public record Query(String start, String end, List<String> uris, boolean unique) {
+        public Query {
+            uris = uris == null ? List.of() : uris.stream().filter(Objects::nonNull).distinct().sorted().toList();
+        }
+    }
+
+    private record Entry(ResponseEntity<List<StatsDto>> response, long expiresAt) {
+    }
+}
@@ -0,0 +1,122 @@
+package ru.practicum.client;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import ru.practicum.dto.HitDto;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HitBufferTest {
+
+    private static final Duration LONG = Duration.ofMinutes(1);
+    private static final Duration SHORT = Duration.ofMillis(10);
+    private static final Duration STOP_TIMEOUT = Duration.ofSeconds(5);
+    private static final LocalDateTime TIME = LocalDateTime.of(2024, 1, 1, 12, 0, 0);
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private final List<List<HitDto>> sent = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    public void testSameHitsWithinSecondAreCoalesced() {
+        HitBuffer buffer = new HitBuffer(100, 100, LONG, LONG, HitBuffer.OverflowPolicy.DROP_NEWEST,
+                this::accept, registry);
+        buffer.start();
+
+        assertTrue(buffer.offer(hit("/events/1", TIME)));
+        assertTrue(buffer.offer(hit("/events/1", TIME.plusNanos(500_000_000))));
+        assertTrue(buffer.offer(new HitDto("ewm-main-service", "/events/1", "192.168.0.1", TIME, 3)));
+        assertTrue(buffer.offer(hit("/events/1", TIME.plusSeconds(1))));
+        assertTrue(buffer.offer(hit("/events/2", TIME)));
+        buffer.stop(STOP_TIMEOUT);
+
+        assertEquals(1, sent.size());
+        assertEquals(List.of("/events/1 " + TIME + " 5", "/events/1 " + TIME.plusSeconds(1) + " 1",
+                "/events/2 " + TIME + " 1"), describe(sent.getFirst()));
+        assertEquals(7, registry.counter("stats.client.hits.sent").count());
+    }
+
+    @Test
+    public void testDropNewestOnOverflow() {
+        HitBuffer buffer = new HitBuffer(2, 100, LONG, LONG, HitBuffer.OverflowPolicy.DROP_NEWEST,
+                this::accept, registry);
+        buffer.start();
+
+        assertTrue(buffer.offer(hit("/events/1", TIME)));
+        assertTrue(buffer.offer(hit("/events/2", TIME)));
+        assertFalse(buffer.offer(hit("/events/3", TIME)));
+        // Повтор уже ожидающего запроса места не занимает
+        assertTrue(buffer.offer(hit("/events/1", TIME)));
+        buffer.stop(STOP_TIMEOUT);
+
+        assertEquals(List.of("/events/1 " + TIME + " 2", "/events/2 " + TIME + " 1"), describe(sent.getFirst()));
+        assertEquals(1, registry.counter("stats.client.hits.dropped", "reason", "overflow").count());
+    }
+
+    @Test
+    public void testDropOldestOnOverflow() {
+        HitBuffer buffer = new HitBuffer(2, 100, LONG, LONG, HitBuffer.OverflowPolicy.DROP_OLDEST,
+                this::accept, registry);
+        buffer.start();
+
+        assertTrue(buffer.offer(hit("/events/1", TIME)));
+        assertTrue(buffer.offer(hit("/events/1", TIME)));
+        assertTrue(buffer.offer(hit("/events/2", TIME)));
+        assertTrue(buffer.offer(hit("/events/3", TIME)));
+        buffer.stop(STOP_TIMEOUT);
+
+        assertEquals(List.of("/events/2 " + TIME + " 1", "/events/3 " + TIME + " 1"), describe(sent.getFirst()));
+        assertEquals(2, registry.counter("stats.client.hits.dropped", "reason", "overflow").count());
+    }
+
+    @Test
+    public void testOnlyFailedPartOfBatchIsRetried() throws InterruptedException {
+        HitBuffer buffer = new HitBuffer(100, 2, LONG, SHORT, HitBuffer.OverflowPolicy.DROP_NEWEST, batch -> {
+            sent.add(batch);
+            // Первый раз узел, которому достался /events/2, недоступен
+            List<HitDto> failed = sent.size() == 1
+                    ? batch.stream().filter(hit -> hit.getUri().equals("/events/2")).toList()
+                    : List.of();
+            return new HitBuffer.Result(batch.size() - failed.size(), 0, failed);
+        }, registry);
+        buffer.start();
+
+        buffer.offer(hit("/events/1", TIME));
+        buffer.offer(hit("/events/2", TIME));
+        long deadline = System.nanoTime() + STOP_TIMEOUT.toNanos();
+        while (sent.size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        buffer.stop(STOP_TIMEOUT);
+
+        assertEquals(2, sent.size());
+        assertEquals(List.of("/events/1 " + TIME + " 1", "/events/2 " + TIME + " 1"), describe(sent.get(0)));
+        assertEquals(List.of("/events/2 " + TIME + " 1"), describe(sent.get(1)));
+        assertEquals(2, registry.counter("stats.client.hits.sent").count());
+    }
+
+    private HitBuffer.Result accept(List<HitDto> batch) {
+        sent.add(batch);
+        return new HitBuffer.Result(batch.stream().mapToLong(HitDto::getHits).sum(), 0);
+    }
+
+    private static HitDto hit(String uri, LocalDateTime timestamp) {
+        return new HitDto("ewm-main-service", uri, "192.168.0.1", timestamp);
+    }
+
+    private static List<String> describe(List<HitDto> batch) {
+        return batch.stream()
+                .map(hit -> hit.getUri() + " " + hit.getTimestamp() + " " + hit.getHits())
+                .sorted()
+                .collect(Collectors.toList());
+    }
+}
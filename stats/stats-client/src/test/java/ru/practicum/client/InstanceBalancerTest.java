@@ -0,0 +1,61 @@
+package ru.practicum.client;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestClient;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class InstanceBalancerTest {
+
+    private final RestClient first = RestClient.create("http://stats-1");
+    private final RestClient second = RestClient.create("http://stats-2");
+    private final RestClient third = RestClient.create("http://stats-3");
+    private final Map<String, RestClient> clients = Map.of("http://stats-2", second, "http://stats-1", first,
+            "http://stats-3", third);
+
+    @Test
+    public void testSpreadsRequests() {
+        InstanceBalancer balancer = new InstanceBalancer(Duration.ofSeconds(30));
+        balancer.update(clients);
+
+        assertEquals(Set.of(first, second, third), chosen(balancer));
+    }
+
+    @Test
+    public void testSkipsEvictedInstance() {
+        InstanceBalancer balancer = new InstanceBalancer(Duration.ofSeconds(30));
+        balancer.update(clients);
+
+        // Второй экземпляр отвечает 503, пока его не выберут и не исключат
+        boolean evicted = false;
+        while (!evicted) {
+            try {
+                balancer.execute(client -> {
+                    if (client == second) {
+                        throw HttpServerErrorException.create(HttpStatus.SERVICE_UNAVAILABLE, "", null, null, null);
+                    }
+                    return client;
+                });
+            } catch (HttpServerErrorException e) {
+                evicted = true;
+            }
+        }
+
+        assertEquals(Set.of(first, third), chosen(balancer));
+    }
+
+    private static Set<RestClient> chosen(InstanceBalancer balancer) {
+        Set<RestClient> chosen = new HashSet<>();
+        for (int i = 0; i < 200; i++) {
+            chosen.add(balancer.execute(client -> client));
+        }
+        return chosen;
+    }
+}
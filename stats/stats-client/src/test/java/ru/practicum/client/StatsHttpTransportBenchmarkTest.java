@@ -0,0 +1,139 @@
+package ru.practicum.client;
+
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.client.ReactorNettyClientRequestFactory;
+import org.springframework.web.client.RestClient;
+import ru.practicum.dto.StatsDto;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Сравнение транспортов клиента статистики на запросах /stats к локальному HTTP-серверу:
+ * фабрика, которую RestClient.create выбирал до настройки транспорта (Reactor Netty по умолчанию),
+ * и StatsHttpTransport с Apache HttpClient 5 и JDK HttpClient. Кроме скорости выводится число
+ * TCP-соединений, открытых к серверу.
+ * Запуск: mvn test -pl stats/stats-client -Dstats.benchmark=true -Dtest=StatsHttpTransportBenchmarkTest
+ */
+@Slf4j
+@EnabledIfSystemProperty(named = "stats.benchmark", matches = "true")
+public class StatsHttpTransportBenchmarkTest {
+
+    private static final int REQUESTS = 20_000;
+    private static final int WARMUP = 1_000;
+    private static final int THREADS = 32;
+    private static final int STATS_IN_RESPONSE = 50;
+
+    private static HttpServer server;
+    private static String url;
+    private static final Set<InetSocketAddress> connections = ConcurrentHashMap.newKeySet();
+
+    @BeforeAll
+    public static void startServer() throws IOException {
+        byte[] body = IntStream.range(0, STATS_IN_RESPONSE)
+                .mapToObj(i -> "{\"app\":\"ewm-main-service\",\"uri\":\"/events/" + i + "\",\"hits\":" + i + "}")
+                .collect(Collectors.joining(",", "[", "]"))
+                .getBytes(StandardCharsets.UTF_8);
+        // Без TCP_NODELAY заголовки и тело ответа уходят разными пакетами и упираются в задержку ACK
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/stats", exchange -> {
+            connections.add(exchange.getRemoteAddress());
+            exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        url = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @AfterAll
+    public static void stopServer() {
+        server.stop(0);
+    }
+
+    @BeforeEach
+    public void resetConnections() {
+        connections.clear();
+    }
+
+    @Test
+    public void defaultReactorNetty() throws Exception {
+        run("RestClient.create (Reactor Netty по умолчанию)", RestClient.builder()
+                .baseUrl(url)
+                .requestFactory(new ReactorNettyClientRequestFactory())
+                .build());
+    }
+
+    @Test
+    public void apacheHttpClient() throws Exception {
+        StatsHttpTransport transport = transport(StatsHttpTransport.Type.APACHE);
+        try {
+            run("Apache HttpClient 5, пул", transport.create(url));
+        } finally {
+            transport.destroy();
+        }
+    }
+
+    @Test
+    public void jdkHttpClient() throws Exception {
+        StatsHttpTransport transport = transport(StatsHttpTransport.Type.JDK);
+        try {
+            run("JDK HttpClient", transport.create(url));
+        } finally {
+            transport.destroy();
+        }
+    }
+
+    private static StatsHttpTransport transport(StatsHttpTransport.Type type) {
+        return new StatsHttpTransport(type, 200, 50, Duration.ofSeconds(2), Duration.ofSeconds(10),
+                Duration.ofSeconds(30), true);
+    }
+
+    private void run(String name, RestClient client) throws Exception {
+        send(client, WARMUP);
+        connections.clear();
+        long started = System.nanoTime();
+        send(client, REQUESTS);
+        double seconds = (System.nanoTime() - started) / 1e9;
+        log.info("{}: {} запросов за {} с, {} запросов/с, соединений: {}", name, REQUESTS,
+                String.format("%.2f", seconds), Math.round(REQUESTS / seconds), connections.size());
+    }
+
+    private static void send(RestClient client, int requests) throws Exception {
+        try (ExecutorService executor = Executors.newFixedThreadPool(THREADS)) {
+            List<Future<List<StatsDto>>> responses = IntStream.range(0, requests)
+                    .mapToObj(i -> executor.submit(() -> client.get()
+                            .uri("/stats?start=2024-01-01T00:00:00&end=2024-01-02T00:00:00")
+                            .retrieve()
+                            .body(new ParameterizedTypeReference<List<StatsDto>>() {
+                            })))
+                    .toList();
+            for (Future<List<StatsDto>> response : responses) {
+                assertEquals(STATS_IN_RESPONSE, response.get().size());
+            }
+        }
+    }
+}
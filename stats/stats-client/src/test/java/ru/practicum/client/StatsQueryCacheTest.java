@@ -0,0 +1,108 @@
+package ru.practicum.client;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import ru.practicum.dto.StatsDto;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class StatsQueryCacheTest {
+
+    private static final StatsQueryCache.Query QUERY = new StatsQueryCache.Query("2024-01-01 00:00:00",
+            "2024-01-02 00:00:00", List.of("/events/1", "/events/2"), false);
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    public void testConcurrentIdenticalQueriesLoadOnce() throws Exception {
+        StatsQueryCache cache = new StatsQueryCache(Duration.ofMinutes(1), 100, registry);
+        CountDownLatch release = new CountDownLatch(1);
+        int callers = 8;
+        List<Future<ResponseEntity<List<StatsDto>>>> responses = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < callers; i++) {
+                responses.add(executor.submit(() -> cache.get(QUERY, () -> {
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return load();
+                })));
+            }
+            // Первый вызов выполняет запрос, остальные должны дождаться его, а не идти на сервер
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (coalesced() < callers - 1 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+        }
+
+        assertEquals(1, loads.get());
+        assertEquals(callers - 1, coalesced());
+        for (Future<ResponseEntity<List<StatsDto>>> response : responses) {
+            assertEquals(10L, response.get().getBody().getFirst().getHits());
+        }
+    }
+
+    @Test
+    public void testEntryExpiresAfterTtl() throws InterruptedException {
+        StatsQueryCache cache = new StatsQueryCache(Duration.ofMillis(50), 100, registry);
+
+        cache.get(QUERY, this::load);
+        cache.get(new StatsQueryCache.Query(QUERY.start(), QUERY.end(),
+                List.of("/events/2", "/events/1", "/events/1"), false), this::load);
+        assertEquals(1, loads.get());
+
+        Thread.sleep(100);
+        cache.get(QUERY, this::load);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testFailuresAreNotCached() {
+        StatsQueryCache cache = new StatsQueryCache(Duration.ofMinutes(1), 100, registry);
+
+        assertThrows(IllegalStateException.class, () -> cache.get(QUERY, () -> {
+            throw new IllegalStateException("сервер недоступен");
+        }));
+        cache.get(QUERY, () -> ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(List.of()));
+        cache.get(QUERY, this::load);
+        cache.get(QUERY, this::load);
+
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testCallersGetCopies() {
+        StatsQueryCache cache = new StatsQueryCache(Duration.ofMinutes(1), 100, registry);
+
+        cache.get(QUERY, this::load).getBody().getFirst().setHits(0L);
+
+        assertEquals(10L, cache.get(QUERY, this::load).getBody().getFirst().getHits());
+    }
+
+    private ResponseEntity<List<StatsDto>> load() {
+        loads.incrementAndGet();
+        return ResponseEntity.ok(List.of(new StatsDto("ewm-main-service", "/events/1", 10L)));
+    }
+
+    private long coalesced() {
+        return (long) registry.counter("stats.client.stats.requests", "result", "coalesced").count();
+    }
+}
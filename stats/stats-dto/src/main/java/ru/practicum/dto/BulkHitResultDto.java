@@ -0,0 +1,20 @@
+package ru.practicum.dto;
+
+import lombok.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class BulkHitResultDto {
+
+    private long accepted;
+
+    @Builder.Default
+    private List<HitRejectionDto> rejected = new ArrayList<>();
+}
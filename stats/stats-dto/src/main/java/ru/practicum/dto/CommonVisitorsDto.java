@@ -0,0 +1,23 @@
+package ru.practicum.dto;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.PositiveOrZero;
+import lombok.*;
+
+import java.util.List;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class CommonVisitorsDto {
+
+    @NotEmpty(message = "uris не должен быть пустым")
+    private List<String> uris;
+
+    // Количество уникальных IP, запросивших каждый из uris
+    @PositiveOrZero(message = "visitors не должен быть отрицательным")
+    private Long visitors;
+}
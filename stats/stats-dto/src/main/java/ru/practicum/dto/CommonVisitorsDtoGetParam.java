@@ -0,0 +1,23 @@
+package ru.practicum.dto;
+
+import jakarta.validation.constraints.Size;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+@Setter
+@ToString
+public class CommonVisitorsDtoGetParam {
+    @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime start;
+    @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime end;
+    @Size(min = 2, message = "uris должен содержать не меньше двух uri")
+    private List<String> uris = new ArrayList<>(); //посетители, побывавшие на каждом из uri; шаблон "*"/"**" - на любом из подходящих
+}
@@ -4,7 +4,10 @@ import com.fasterxml.jackson.annotation.JsonFormat;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.PastOrPresent;
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.Size;
 import lombok.*;
+import ru.practicum.dto.validate.IpAddress;
 
 import java.time.LocalDateTime;
 
@@ -16,17 +19,30 @@ import java.time.LocalDateTime;
 @ToString
 public class HitDto {
 
+    // Пределы длины совпадают со столбцами stats_app.name и stats_uri.uri: более длинную строку БД не примет
     @NotBlank(message = "app не должен быть пустым")
+    @Size(max = 100, message = "app не должен быть длиннее 100 символов")
     private String app;
 
     @NotBlank(message = "uri не должен быть пустым")
+    @Size(max = 2048, message = "uri не должен быть длиннее 2048 символов")
     private String uri;
 
     @NotBlank(message = "ip не должен быть пустым")
+    @IpAddress
     private String ip;
 
     @NotNull(message = "timestamp не должен быть null")
     @PastOrPresent(message = "timestamp не должен быть в будущем")
     @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd HH:mm:ss")
     private LocalDateTime timestamp;
+
+    // Число одинаковых запросов (app, uri, ip, секунда), свёрнутых клиентом в один; по умолчанию - один запрос
+    @Positive(message = "hits должен быть положительным")
+    @Builder.Default
+    private int hits = 1;
+
+    public HitDto(String app, String uri, String ip, LocalDateTime timestamp) {
+        this(app, uri, ip, timestamp, 1);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,19 @@
+package ru.practicum.dto;
+
+import lombok.*;
+
+import java.util.List;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class HitRejectionDto {
+
+    // Порядковый номер запроса в переданном массиве (с нуля)
+    private int index;
+
+    private List<String> errors;
+}
@@ -0,0 +1,28 @@
+package ru.practicum.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import lombok.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class StatsChangesDto {
+
+    // Непрозрачный курсор для следующего запроса
+    @NotBlank(message = "cursor не должен быть пустым")
+    private String cursor;
+
+    // Прирост количества запросов по парам app/uri с прошлого курсора
+    @Valid
+    @NotNull(message = "changes не должен быть null")
+    @Builder.Default
+    private List<StatsDto> changes = new ArrayList<>();
+}
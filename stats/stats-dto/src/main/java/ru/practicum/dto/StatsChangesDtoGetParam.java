@@ -0,0 +1,16 @@
+package ru.practicum.dto;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+@Setter
+@ToString
+public class StatsChangesDtoGetParam {
+    private String cursor; //курсор из предыдущего ответа; без него возвращается только текущий курсор
+    private List<String> uris = new ArrayList<>(); //пустой список - по всем uri; "*" - любой сегмент, "**" - любой хвост пути
+}
@@ -0,0 +1,26 @@
+package ru.practicum.dto;
+
+import jakarta.validation.constraints.Positive;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+@Setter
+@ToString
+public class StatsDtoGetParam {
+    @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime start;
+    @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime end;
+    private List<String> uris = new ArrayList<>(); //пустой список - по всем uri; "*" - любой сегмент, "**" - любой хвост пути
+    private boolean unique = false; //только уникальные ip
+    private boolean approximate = false; //оценка уникальных ip по скетчам HyperLogLog
+    @Positive(message = "limit должен быть положительным")
+    private Integer limit; //только limit самых посещаемых uri
+}
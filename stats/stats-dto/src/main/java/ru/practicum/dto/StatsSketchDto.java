@@ -0,0 +1,24 @@
+package ru.practicum.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import lombok.*;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class StatsSketchDto {
+
+    @NotBlank(message = "app не должен быть пустым")
+    private String app;
+
+    @NotBlank(message = "uri не должен быть пустым")
+    private String uri;
+
+    // Скетч уникальных IP в формате HyperLogLog.toBytes, в JSON - строка base64
+    @NotNull(message = "sketch не должен быть null")
+    private byte[] sketch;
+}
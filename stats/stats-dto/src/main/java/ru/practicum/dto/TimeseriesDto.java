@@ -0,0 +1,28 @@
+package ru.practicum.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotBlank;
+import lombok.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class TimeseriesDto {
+
+    @NotBlank(message = "app не должен быть пустым")
+    private String app;
+
+    @NotBlank(message = "uri не должен быть пустым")
+    private String uri;
+
+    // Корзины по возрастанию времени; корзины без запросов не передаются
+    @Valid
+    @Builder.Default
+    private List<TimeseriesPointDto> points = new ArrayList<>();
+}
@@ -0,0 +1,27 @@
+package ru.practicum.dto;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Pattern;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+@Setter
+@ToString
+public class TimeseriesDtoGetParam {
+    @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime start;
+    @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime end;
+    @NotNull(message = "interval не должен быть null")
+    @Pattern(regexp = "1m|1h|1d", message = "interval должен быть одним из 1m, 1h, 1d")
+    private String interval = "1h"; //размер корзины: минута, час или сутки
+    private List<String> uris = new ArrayList<>(); //пустой список - по всем uri; "*" - любой сегмент, "**" - любой хвост пути
+    private boolean unique = false; //только уникальные ip
+}
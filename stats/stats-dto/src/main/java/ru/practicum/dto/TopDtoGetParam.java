@@ -0,0 +1,19 @@
+package ru.practicum.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Positive;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+@Getter
+@Setter
+@ToString
+public class TopDtoGetParam {
+    @NotBlank(message = "app не должен быть пустым")
+    private String app;
+    @Positive(message = "k должно быть положительным")
+    private int k = 10; //сколько самых посещаемых uri вернуть
+    @Positive(message = "minutes должно быть положительным")
+    private int minutes = 60; //за сколько последних минут
+}
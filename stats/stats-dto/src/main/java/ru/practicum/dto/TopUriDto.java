@@ -0,0 +1,27 @@
+package ru.practicum.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.PositiveOrZero;
+import lombok.*;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class TopUriDto {
+
+    @NotBlank(message = "app не должен быть пустым")
+    private String app;
+
+    @NotBlank(message = "uri не должен быть пустым")
+    private String uri;
+
+    // Оценка сверху: настоящее количество запросов лежит в [hits - error, hits]
+    @PositiveOrZero(message = "hits не должен быть отрицательным")
+    private Long hits;
+
+    @PositiveOrZero(message = "error не должен быть отрицательным")
+    private Long error;
+}
@@ -0,0 +1,214 @@
+package ru.practicum.dto.sketch;
+
+import ru.practicum.dto.validate.IpAddressValidator;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Скетч HyperLogLog для приближённого подсчёта уникальных значений.
+ * Скетчи с одинаковой точностью объединяются поэлементным максимумом регистров,
+ * поэтому количество уникальных IP за любой интервал получается слиянием скетчей его корзин.
+ * Относительная ошибка оценки - около 1.04 / sqrt(2^precision).
+ */
+public class HyperLogLog {
+
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 16;
+
+    private static final byte DENSE = 0;
+    private static final byte SPARSE = 1;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("HyperLogLog precision must be between " + MIN_PRECISION + " and "
+                    + MAX_PRECISION + ", got " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    public static double relativeError(int precision) {
+        return 1.04 / Math.sqrt(1 << precision);
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public void add(String value) {
+        addHash(hash(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Добавляет IP по байтам адреса, а не по строке: "::1" и "0:0:0:0:0:0:0:1" должны давать один хэш.
+     */
+    public void addIp(String ip) {
+        addHash(hash(IpAddressValidator.parse(ip).orElseGet(() -> ip.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    public void addHash(long hash) {
+        int index = (int) (hash >>> (Long.SIZE - precision));
+        // Ранг - позиция первой единицы в оставшихся битах; сторожевой бит ограничивает его сверху
+        long rest = (hash << precision) | (1L << (precision - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (registers[index] < rank) {
+            registers[index] = rank;
+        }
+    }
+
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge HyperLogLog sketches with precision "
+                    + precision + " and " + other.precision);
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (registers[i] < other.registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /**
+     * Объединение со скетчем любой точности. При равной точности other сливается в этот скетч и возвращается он же,
+     * иначе возвращается новый скетч с меньшей из двух точностей.
+     */
+    public HyperLogLog union(HyperLogLog other) {
+        if (other.precision == precision) {
+            merge(other);
+            return this;
+        }
+        HyperLogLog result = downsample(Math.min(precision, other.precision));
+        result.merge(other.downsample(result.precision));
+        return result;
+    }
+
+    /**
+     * Тот же скетч с меньшей точностью: совпадает со скетчем precision, в который добавлены те же значения.
+     * Отброшенные младшие биты индекса становятся старшими битами остатка хэша, по которому считается ранг.
+     */
+    public HyperLogLog downsample(int precision) {
+        if (precision > this.precision) {
+            throw new IllegalArgumentException("Cannot raise HyperLogLog precision from " + this.precision
+                    + " to " + precision);
+        }
+        HyperLogLog result = new HyperLogLog(precision);
+        int shift = this.precision - precision;
+        for (int i = 0; i < registers.length; i++) {
+            if (registers[i] == 0) {
+                continue;
+            }
+            int dropped = i & ((1 << shift) - 1);
+            byte rank = dropped == 0
+                    ? (byte) (shift + registers[i])
+                    : (byte) (Integer.numberOfLeadingZeros(dropped) - (Integer.SIZE - shift) + 1);
+            int index = i >>> shift;
+            if (result.registers[index] < rank) {
+                result.registers[index] = rank;
+            }
+        }
+        return result;
+    }
+
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = alpha(m) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // Поправка для малых значений: линейный подсчёт по пустым регистрам
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Сериализация: разреженный формат (индекс, значение) для почти пустых скетчей, иначе все регистры.
+     */
+    public byte[] toBytes() {
+        int nonZero = 0;
+        for (byte register : registers) {
+            if (register != 0) {
+                nonZero++;
+            }
+        }
+        if (nonZero * 3 < registers.length) {
+            ByteBuffer buffer = ByteBuffer.allocate(2 + nonZero * 3);
+            buffer.put(SPARSE).put((byte) precision);
+            for (int i = 0; i < registers.length; i++) {
+                if (registers[i] != 0) {
+                    buffer.putShort((short) i).put(registers[i]);
+                }
+            }
+            return buffer.array();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(2 + registers.length);
+        buffer.put(DENSE).put((byte) precision).put(registers);
+        return buffer.array();
+    }
+
+    public static HyperLogLog fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        byte format = buffer.get();
+        HyperLogLog sketch = new HyperLogLog(buffer.get());
+        if (format == DENSE) {
+            buffer.get(sketch.registers);
+        } else {
+            while (buffer.hasRemaining()) {
+                int index = Short.toUnsignedInt(buffer.getShort());
+                sketch.registers[index] = buffer.get();
+            }
+        }
+        return sketch;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof HyperLogLog that)) {
+            return false;
+        }
+        return precision == that.precision && Arrays.equals(registers, that.registers);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * precision + Arrays.hashCode(registers);
+    }
+
+    private static double alpha(int m) {
+        return switch (m) {
+            case 16 -> 0.673;
+            case 32 -> 0.697;
+            case 64 -> 0.709;
+            default -> 0.7213 / (1 + 1.079 / m);
+        };
+    }
+
+    // FNV-1a с финальным перемешиванием из MurmurHash3 для равномерного распределения старших битов
+    static long hash(byte[] bytes) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe53a85b3L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,40 @@
+package ru.practicum.dto.validate;
+
+import jakarta.validation.ConstraintValidator;
+import jakarta.validation.ConstraintValidatorContext;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+public class IpAddressValidator implements ConstraintValidator<IpAddress, String> {
+
+    private static final Pattern IPV4 = Pattern.compile(
+            "((25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)\\.){3}(25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)");
+    private static final Pattern IPV6_CHARS = Pattern.compile("[0-9a-fA-F:.]+");
+
+    @Override
+    public boolean isValid(String value, ConstraintValidatorContext context) {
+        if (value == null || value.isBlank()) {
+            return true;
+        }
+        return parse(value).isPresent();
+    }
+
+    /**
+     * Разбирает только литералы адресов: имена хостов отбрасываются заранее, поэтому DNS не вызывается.
+     */
+    public static Optional<byte[]> parse(String value) {
+        boolean literal = IPV4.matcher(value).matches()
+                || (value.indexOf(':') >= 0 && IPV6_CHARS.matcher(value).matches());
+        if (!literal) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(InetAddress.getByName(value).getAddress());
+        } catch (UnknownHostException e) {
+            return Optional.empty();
+        }
+    }
+}
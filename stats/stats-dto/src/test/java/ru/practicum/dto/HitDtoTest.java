@@ -11,6 +11,7 @@ import org.junit.jupiter.api.Test;
 
 import java.time.LocalDateTime;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -71,6 +72,22 @@ public class HitDtoTest {
         assertEquals("uri не должен быть пустым", violations.iterator().next().getMessage());
     }
 
+    @Test
+    public void testInvalidHitDtoWithTooLongAppAndUri() {
+        HitDto hit = HitDto.builder()
+                .app("a".repeat(101))
+                .uri("/" + "u".repeat(2048))
+                .ip("127.0.0.1")
+                .timestamp(LocalDateTime.now())
+                .build();
+
+        Set<String> messages = validator.validate(hit).stream()
+                .map(ConstraintViolation::getMessage)
+                .collect(Collectors.toSet());
+        assertEquals(Set.of("app не должен быть длиннее 100 символов", "uri не должен быть длиннее 2048 символов"),
+                messages);
+    }
+
     @Test
     public void testInvalidHitDtoWithBlankIp() {
         HitDto hit = HitDto.builder()
@@ -85,6 +102,33 @@ public class HitDtoTest {
         assertEquals("ip не должен быть пустым", violations.iterator().next().getMessage());
     }
 
+    @Test
+    public void testValidHitDtoWithIpv6() {
+        HitDto hit = HitDto.builder()
+                .app("MyApp")
+                .uri("/home")
+                .ip("0:0:0:0:0:0:0:1")
+                .timestamp(LocalDateTime.now())
+                .build();
+
+        Set<ConstraintViolation<HitDto>> violations = validator.validate(hit);
+        assertTrue(violations.isEmpty());
+    }
+
+    @Test
+    public void testInvalidHitDtoWithMalformedIp() {
+        HitDto hit = HitDto.builder()
+                .app("MyApp")
+                .uri("/home")
+                .ip("256.0.0.1")
+                .timestamp(LocalDateTime.now())
+                .build();
+
+        Set<ConstraintViolation<HitDto>> violations = validator.validate(hit);
+        assertEquals(1, violations.size());
+        assertEquals("ip должен быть адресом IPv4 или IPv6", violations.iterator().next().getMessage());
+    }
+
     @Test
     public void testInvalidHitDtoWithNullTimestamp() {
         HitDto hit = HitDto.builder()
@@ -123,6 +167,33 @@ public class HitDtoTest {
         assertEquals("/home", hit.getUri());
         assertEquals("127.0.0.1", hit.getIp());
         assertEquals(LocalDateTime.of(2023, 1, 1, 10, 10, 10), hit.getTimestamp());
+        assertEquals(1, hit.getHits());
+    }
+
+    @Test
+    public void testWeightedHitDtoFromJson() throws Exception {
+        String json = "{\"app\":\"MyApp\",\"uri\":\"/home\",\"ip\":\"127.0.0.1\"," +
+                "\"timestamp\":\"2023-01-01 10:10:10\",\"hits\":5}";
+
+        HitDto hit = objectMapper.readValue(json, HitDto.class);
+
+        assertEquals(5, hit.getHits());
+        assertTrue(validator.validate(hit).isEmpty());
+    }
+
+    @Test
+    public void testInvalidHitDtoWithZeroHits() {
+        HitDto hit = HitDto.builder()
+                .app("MyApp")
+                .uri("/home")
+                .ip("127.0.0.1")
+                .timestamp(LocalDateTime.now())
+                .hits(0)
+                .build();
+
+        Set<ConstraintViolation<HitDto>> violations = validator.validate(hit);
+        assertEquals(1, violations.size());
+        assertEquals("hits должен быть положительным", violations.iterator().next().getMessage());
     }
 
     @Test
@@ -135,6 +206,6 @@ public class HitDtoTest {
                 .build();
 
         String json = objectMapper.writeValueAsString(hit);
-        assertEquals("{\"app\":\"MyApp\",\"uri\":\"/home\",\"ip\":\"127.0.0.1\",\"timestamp\":\"2023-01-01 10:10:10\"}", json);
+        assertEquals("{\"app\":\"MyApp\",\"uri\":\"/home\",\"ip\":\"127.0.0.1\",\"timestamp\":\"2023-01-01 10:10:10\",\"hits\":1}", json);
     }
 }
\ No newline at end of file
@@ -0,0 +1,93 @@
+package ru.practicum.dto.sketch;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HyperLogLogTest {
+
+    @Test
+    public void testEstimateWithinError() {
+        HyperLogLog sketch = new HyperLogLog(12);
+        for (int i = 0; i < 100_000; i++) {
+            sketch.addIp("10." + (i >> 16 & 0xff) + "." + (i >> 8 & 0xff) + "." + (i & 0xff));
+        }
+
+        double error = Math.abs(sketch.estimate() - 100_000) / 100_000.0;
+        assertTrue(error < 3 * HyperLogLog.relativeError(12));
+    }
+
+    @Test
+    public void testMergeEqualsUnion() {
+        HyperLogLog left = new HyperLogLog(10);
+        HyperLogLog right = new HyperLogLog(10);
+        HyperLogLog union = new HyperLogLog(10);
+        for (int i = 0; i < 1000; i++) {
+            String ip = "192.168." + (i >> 8) + "." + (i & 0xff);
+            (i % 2 == 0 ? left : right).addIp(ip);
+            union.addIp(ip);
+        }
+
+        left.merge(right);
+        assertEquals(union, left);
+    }
+
+    @Test
+    public void testSameAddressInDifferentNotation() {
+        HyperLogLog sketch = new HyperLogLog(10);
+        sketch.addIp("::1");
+        sketch.addIp("0:0:0:0:0:0:0:1");
+
+        assertEquals(1, sketch.estimate());
+    }
+
+    @Test
+    public void testBytesRoundTrip() {
+        HyperLogLog sparse = new HyperLogLog(12);
+        sparse.addIp("127.0.0.1");
+        HyperLogLog dense = new HyperLogLog(4);
+        for (int i = 0; i < 1000; i++) {
+            dense.addIp("10.0." + (i >> 8) + "." + (i & 0xff));
+        }
+
+        assertEquals(sparse, HyperLogLog.fromBytes(sparse.toBytes()));
+        assertEquals(dense, HyperLogLog.fromBytes(dense.toBytes()));
+    }
+
+    @Test
+    public void testMergeDifferentPrecisionFails() {
+        assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(10).merge(new HyperLogLog(12)));
+    }
+
+    @Test
+    public void testDownsampleEqualsLowerPrecisionSketch() {
+        HyperLogLog fine = new HyperLogLog(14);
+        HyperLogLog coarse = new HyperLogLog(10);
+        for (int i = 0; i < 50_000; i++) {
+            String ip = "10." + (i >> 16 & 0xff) + "." + (i >> 8 & 0xff) + "." + (i & 0xff);
+            fine.addIp(ip);
+            coarse.addIp(ip);
+        }
+
+        assertEquals(coarse, fine.downsample(10));
+        assertEquals(fine, fine.downsample(14));
+        assertThrows(IllegalArgumentException.class, () -> coarse.downsample(12));
+    }
+
+    @Test
+    public void testUnionOfDifferentPrecisions() {
+        HyperLogLog left = new HyperLogLog(12);
+        HyperLogLog right = new HyperLogLog(10);
+        HyperLogLog expected = new HyperLogLog(10);
+        for (int i = 0; i < 1000; i++) {
+            String ip = "192.168." + (i >> 8) + "." + (i & 0xff);
+            (i % 2 == 0 ? left : right).addIp(ip);
+            expected.addIp(ip);
+        }
+
+        assertEquals(expected, left.union(right));
+        assertEquals(expected, right.union(left));
+    }
+}
@@ -0,0 +1,21 @@
+package ru.practicum.cache;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "stats.cache")
+public class CacheProperties {
+    private boolean enabled = true;
+    // Сколько результатов хранить; при переполнении вытесняются давно не запрошенные
+    private int maxEntries = 1000;
+    // Результаты длиннее этого числа строк не кэшируются
+    private int maxResultSize = 10_000;
+    // Через сколько после конца интервала данные за него считаются окончательными
+    // (учитывает буфер записи и запаздывающие запросы)
+    private Duration settleDelay = Duration.ofMinutes(1);
+}
@@ -0,0 +1,15 @@
+package ru.practicum.cache;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Нормализованные параметры запроса /stats: uri отсортированы и без повторов.
+ */
+public record StatsCacheKey(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                            boolean approximate, Integer limit) {
+
+    public StatsCacheKey {
+        uris = uris.stream().distinct().sorted().toList();
+    }
+}
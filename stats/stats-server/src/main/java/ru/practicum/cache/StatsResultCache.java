@@ -0,0 +1,60 @@
+package ru.practicum.cache;
+
+import org.springframework.stereotype.Component;
+import ru.practicum.model.StatsCount;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * LRU-кэш результатов /stats по закрытым интервалам, данные за которые больше не меняются.
+ */
+@Component
+public class StatsResultCache {
+
+    private final CacheProperties properties;
+    private final Map<StatsCacheKey, List<StatsCount>> results;
+
+    public StatsResultCache(CacheProperties properties) {
+        this.properties = properties;
+        this.results = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<StatsCacheKey, List<StatsCount>> eldest) {
+                return size() > properties.getMaxEntries();
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * Граница закрытых данных: всё раньше неё уже записано. Выровнена по минуте,
+     * чтобы ключи закрытой части интервалов, касающихся текущего момента, повторялись в течение минуты.
+     */
+    public LocalDateTime settledBefore() {
+        return LocalDateTime.now().minus(properties.getSettleDelay()).truncatedTo(ChronoUnit.MINUTES);
+    }
+
+    public List<StatsCount> get(StatsCacheKey key, Supplier<List<StatsCount>> loader) {
+        List<StatsCount> cached;
+        synchronized (results) {
+            cached = results.get(key);
+        }
+        if (cached != null) {
+            return cached;
+        }
+        List<StatsCount> loaded = loader.get();
+        if (loaded.size() <= properties.getMaxResultSize()) {
+            synchronized (results) {
+                results.put(key, loaded);
+            }
+        }
+        return loaded;
+    }
+}
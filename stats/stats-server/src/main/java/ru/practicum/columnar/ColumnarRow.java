@@ -0,0 +1,8 @@
+package ru.practicum.columnar;
+
+/**
+ * Строка колоночного хранилища: время в микросекундах UTC, id из словарей, IP в 16-байтовом виде
+ * и число одинаковых запросов в строке.
+ */
+record ColumnarRow(long time, int appId, int uriId, long ipHigh, long ipLow, int hits) {
+}
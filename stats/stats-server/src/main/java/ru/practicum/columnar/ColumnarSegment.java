@@ -0,0 +1,239 @@
+package ru.practicum.columnar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Неизменяемый файл сегмента с запросами, упорядоченными по времени.
+ * <pre>
+ * заголовок: magic, версия, число строк, min и max времени
+ * словари:   id приложений и id uri сегмента; в столбцах хранятся номера в этих словарях
+ * столбцы:   время - разности с предыдущей строкой в varint (первая - с min),
+ *            приложение и uri - номера шириной 1, 2 или 4 байта, IP - по 16 байт,
+ *            число запросов в строке минус один в varint (с версии 2; в версии 1 каждая строка - один запрос)
+ * </pre>
+ * Столбцы лежат подряд, поэтому подсчёт без unique не читает столбец IP.
+ * По min и max сегменты, не пересекающиеся с интервалом запроса, не читаются вовсе.
+ */
+final class ColumnarSegment {
+
+    private static final int MAGIC = 0x53544353;
+    private static final int VERSION = 2;
+    private static final int IP_BYTES = 16;
+
+    private final Path path;
+    private final ByteBuffer buffer;
+    private final int rows;
+    private final long minTime;
+    private final long maxTime;
+    private final int[] apps;
+    private final int[] uris;
+    private final int timeOffset;
+    private final int appOffset;
+    private final int uriOffset;
+    private final int ipOffset;
+    private final int hitsOffset;
+
+    private ColumnarSegment(Path path, ByteBuffer buffer) {
+        this.path = path;
+        this.buffer = buffer;
+        ByteBuffer header = buffer.duplicate();
+        int version;
+        if (header.getInt() != MAGIC || (version = header.getInt()) < 1 || version > VERSION) {
+            throw new IllegalStateException("Not a columnar stats segment: " + path);
+        }
+        rows = header.getInt();
+        minTime = header.getLong();
+        maxTime = header.getLong();
+        apps = readInts(header);
+        uris = readInts(header);
+        int timeBytes = header.getInt();
+        timeOffset = header.position();
+        appOffset = timeOffset + timeBytes;
+        uriOffset = appOffset + rows * width(apps.length);
+        ipOffset = uriOffset + rows * width(uris.length);
+        hitsOffset = version == 1 ? -1 : ipOffset + rows * IP_BYTES;
+    }
+
+    /**
+     * Записывает строки новым сегментом: сначала во временный файл, затем переименованием.
+     */
+    static ColumnarSegment write(Path path, List<ColumnarRow> rows) throws IOException {
+        List<ColumnarRow> sorted = rows.stream().sorted(Comparator.comparingLong(ColumnarRow::time)).toList();
+        int[] apps = sorted.stream().mapToInt(ColumnarRow::appId).distinct().sorted().toArray();
+        int[] uris = sorted.stream().mapToInt(ColumnarRow::uriId).distinct().sorted().toArray();
+        long minTime = sorted.getFirst().time();
+        long maxTime = sorted.getLast().time();
+
+        ByteBuffer times = ByteBuffer.allocate(sorted.size() * 10);
+        long previous = minTime;
+        for (ColumnarRow row : sorted) {
+            putVarLong(times, row.time() - previous);
+            previous = row.time();
+        }
+        times.flip();
+
+        ByteBuffer hits = ByteBuffer.allocate(sorted.size() * 5);
+        for (ColumnarRow row : sorted) {
+            putVarLong(hits, row.hits() - 1);
+        }
+        hits.flip();
+
+        // magic, версия, число строк, min, max, размеры двух словарей и словари, длина столбца времени
+        int header = 3 * Integer.BYTES + 2 * Long.BYTES + (2 + apps.length + uris.length) * Integer.BYTES
+                + Integer.BYTES;
+        int size = header + times.remaining() + sorted.size() * (width(apps.length) + width(uris.length) + IP_BYTES)
+                + hits.remaining();
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(MAGIC).putInt(VERSION).putInt(sorted.size()).putLong(minTime).putLong(maxTime);
+        writeInts(out, apps);
+        writeInts(out, uris);
+        out.putInt(times.remaining()).put(times);
+        for (ColumnarRow row : sorted) {
+            putCode(out, Arrays.binarySearch(apps, row.appId()), width(apps.length));
+        }
+        for (ColumnarRow row : sorted) {
+            putCode(out, Arrays.binarySearch(uris, row.uriId()), width(uris.length));
+        }
+        for (ColumnarRow row : sorted) {
+            out.putLong(row.ipHigh()).putLong(row.ipLow());
+        }
+        out.put(hits);
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(temp, out.array());
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+        return open(path);
+    }
+
+    static ColumnarSegment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new ColumnarSegment(path, buffer);
+        }
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    boolean overlaps(long from, long to) {
+        return minTime <= to && maxTime >= from;
+    }
+
+    /**
+     * Передаёт visitor строки с временем в [from, to].
+     *
+     * @param uriIds пустое множество - все uri
+     * @param withIp читать ли столбец IP; без него в visitor передаются нули
+     */
+    void scan(long from, long to, Set<Integer> uriIds, boolean withIp, ColumnarVisitor visitor) {
+        boolean[] uriAllowed = new boolean[uris.length];
+        boolean anyUri = false;
+        for (int code = 0; code < uris.length; code++) {
+            uriAllowed[code] = uriIds.isEmpty() || uriIds.contains(uris[code]);
+            anyUri |= uriAllowed[code];
+        }
+        if (!anyUri) {
+            return;
+        }
+        int appWidth = width(apps.length);
+        int uriWidth = width(uris.length);
+        ByteBuffer times = buffer.duplicate().position(timeOffset);
+        ByteBuffer hits = hitsOffset < 0 ? null : buffer.duplicate().position(hitsOffset);
+        long time = minTime;
+        for (int row = 0; row < rows; row++) {
+            time += getVarLong(times);
+            int rowHits = hits == null ? 1 : (int) getVarLong(hits) + 1;
+            if (time > to) {
+                return;
+            }
+            if (time < from) {
+                continue;
+            }
+            int uriCode = getCode(uriOffset + row * uriWidth, uriWidth);
+            if (!uriAllowed[uriCode]) {
+                continue;
+            }
+            int app = apps[getCode(appOffset + row * appWidth, appWidth)];
+            if (withIp) {
+                int ip = ipOffset + row * IP_BYTES;
+                visitor.visit(app, uris[uriCode], buffer.getLong(ip), buffer.getLong(ip + Long.BYTES), rowHits);
+            } else {
+                visitor.visit(app, uris[uriCode], 0, 0, rowHits);
+            }
+        }
+    }
+
+    private int getCode(int offset, int width) {
+        return switch (width) {
+            case 1 -> Byte.toUnsignedInt(buffer.get(offset));
+            case 2 -> Short.toUnsignedInt(buffer.getShort(offset));
+            default -> buffer.getInt(offset);
+        };
+    }
+
+    private static void putCode(ByteBuffer out, int code, int width) {
+        switch (width) {
+            case 1 -> out.put((byte) code);
+            case 2 -> out.putShort((short) code);
+            default -> out.putInt(code);
+        }
+    }
+
+    private static int width(int dictionarySize) {
+        if (dictionarySize <= 1 << Byte.SIZE) {
+            return 1;
+        }
+        return dictionarySize <= 1 << Short.SIZE ? 2 : 4;
+    }
+
+    private static int[] readInts(ByteBuffer in) {
+        int[] values = new int[in.getInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.getInt();
+        }
+        return values;
+    }
+
+    private static void writeInts(ByteBuffer out, int[] values) {
+        out.putInt(values.length);
+        for (int value : values) {
+            out.putInt(value);
+        }
+    }
+
+    private static void putVarLong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    interface ColumnarVisitor {
+        void visit(int appId, int uriId, long ipHigh, long ipLow, int hits);
+    }
+}
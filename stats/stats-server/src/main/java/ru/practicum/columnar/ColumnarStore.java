@@ -0,0 +1,204 @@
+package ru.practicum.columnar;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.practicum.dto.validate.IpAddressValidator;
+import ru.practicum.ingest.HitListener;
+import ru.practicum.model.AppUri;
+import ru.practicum.model.Stats;
+import ru.practicum.model.StatsCount;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+/**
+ * Колоночная копия запросов статистики в неизменяемых файлах сегментов.
+ * Пополняется после фиксации каждого пакета: строки копятся в памяти и записываются сегментом
+ * по достижении segmentRows или раз в flushInterval. PostgreSQL остаётся основным хранилищем;
+ * при stats.storage.backend = COLUMNAR /stats считается по сегментам, что позволяет сравнить
+ * оба хранилища на одной нагрузке. Строки, не записанные сегментом к моменту падения процесса, теряются.
+ */
+@Slf4j
+@Component
+public class ColumnarStore implements HitListener, SmartLifecycle {
+
+    private static final String SEGMENT_SUFFIX = ".col";
+
+    private final StorageProperties.Columnar properties;
+    private final NavigableMap<Long, ColumnarSegment> segments = new ConcurrentSkipListMap<>();
+    private final List<ColumnarRow> memtable = new ArrayList<>();
+
+    private long nextSegment;
+    private volatile boolean running;
+
+    public ColumnarStore(StorageProperties properties) {
+        if (properties.getBackend() == StorageProperties.Backend.COLUMNAR && !properties.getColumnar().isEnabled()) {
+            throw new IllegalStateException("stats.storage.backend=columnar requires stats.storage.columnar.enabled");
+        }
+        this.properties = properties.getColumnar();
+    }
+
+    @Override
+    public void onHits(List<Stats> hits) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                append(hits);
+            }
+        });
+    }
+
+    private synchronized void append(List<Stats> hits) {
+        for (Stats hit : hits) {
+            long[] ip = toIp(hit.getIp());
+            memtable.add(new ColumnarRow(toMicros(hit.getTimestamp()), hit.getAppId(), hit.getUriId(), ip[0], ip[1],
+                    hit.getHits()));
+        }
+        if (memtable.size() >= properties.getSegmentRows()) {
+            flush();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${stats.storage.columnar.flush-interval:PT1M}")
+    public synchronized void flush() {
+        if (memtable.isEmpty()) {
+            return;
+        }
+        Path path = properties.getDirectory().resolve(String.format("segment-%020d%s", nextSegment, SEGMENT_SUFFIX));
+        try {
+            segments.put(nextSegment++, ColumnarSegment.write(path, memtable));
+            log.debug("Записан колоночный сегмент {} из {} строк", path, memtable.size());
+            memtable.clear();
+        } catch (IOException e) {
+            // Строки остаются в памяти до следующей попытки
+            log.error("Не удалось записать колоночный сегмент {}: {}", path, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Количество запросов или уникальных IP за [start, end] по парам app/uri, по убыванию.
+     *
+     * @param uriIds пустой список - по всем uri
+     */
+    public Stream<StatsCount> getStats(LocalDateTime start, LocalDateTime end, List<Integer> uriIds, boolean unique) {
+        long from = toMicros(start);
+        long to = toMicros(end);
+        Set<Integer> uriFilter = new HashSet<>(uriIds);
+        Map<AppUri, long[]> counts = new HashMap<>();
+        Map<AppUri, Set<IpKey>> ips = new HashMap<>();
+        ColumnarSegment.ColumnarVisitor visitor = unique
+                ? (appId, uriId, ipHigh, ipLow, hits) -> ips.computeIfAbsent(new AppUri(appId, uriId),
+                key -> new HashSet<>()).add(new IpKey(ipHigh, ipLow))
+                : (appId, uriId, ipHigh, ipLow, hits) -> counts.computeIfAbsent(new AppUri(appId, uriId),
+                key -> new long[1])[0] += hits;
+        for (ColumnarSegment segment : segments.values()) {
+            if (segment.overlaps(from, to)) {
+                segment.scan(from, to, uriFilter, unique, visitor);
+            }
+        }
+        synchronized (this) {
+            for (ColumnarRow row : memtable) {
+                if (row.time() >= from && row.time() <= to
+                        && (uriFilter.isEmpty() || uriFilter.contains(row.uriId()))) {
+                    visitor.visit(row.appId(), row.uriId(), row.ipHigh(), row.ipLow(), row.hits());
+                }
+            }
+        }
+        Stream<StatsCount> result = unique
+                ? ips.entrySet().stream().map(entry -> new StatsCount(entry.getKey().appId(), entry.getKey().uriId(),
+                (long) entry.getValue().size()))
+                : counts.entrySet().stream().map(entry -> new StatsCount(entry.getKey().appId(),
+                entry.getKey().uriId(), entry.getValue()[0]));
+        return result.sorted(Comparator.comparing(StatsCount::hits).reversed());
+    }
+
+    @Override
+    public void start() {
+        if (properties.isEnabled()) {
+            try {
+                loadSegments();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open columnar segments in " + properties.getDirectory(), e);
+            }
+        }
+        running = true;
+    }
+
+    private synchronized void loadSegments() throws IOException {
+        Files.createDirectories(properties.getDirectory());
+        List<Path> files;
+        try (Stream<Path> list = Files.list(properties.getDirectory())) {
+            files = list.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted().toList();
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long id = Long.parseLong(name.substring(name.indexOf('-') + 1, name.length() - SEGMENT_SUFFIX.length()));
+            segments.put(id, ColumnarSegment.open(file));
+            nextSegment = Math.max(nextSegment, id + 1);
+        }
+        log.info("Колоночное хранилище открыто в {}: сегментов {}", properties.getDirectory(), segments.size());
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (properties.isEnabled()) {
+            flush();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Запускается раньше и останавливается позже приёма запросов, чтобы сегментом записался весь его остаток
+    @Override
+    public int getPhase() {
+        return DEFAULT_PHASE - 1;
+    }
+
+    private static long toMicros(LocalDateTime time) {
+        return ChronoUnit.MICROS.between(LocalDateTime.ofEpochSecond(0, 0, ZoneOffset.UTC), time);
+    }
+
+    // IPv4 хранится как IPv4-mapped IPv6, чтобы все адреса занимали 16 байт
+    private static long[] toIp(String ip) {
+        byte[] bytes = IpAddressValidator.parse(ip).orElseThrow(() ->
+                new IllegalArgumentException("Not an IP address literal: " + ip));
+        ByteBuffer address = ByteBuffer.allocate(16);
+        if (bytes.length == 4) {
+            address.putLong(0).putShort((short) 0).putShort((short) 0xFFFF).put(bytes);
+        } else {
+            address.put(bytes);
+        }
+        address.flip();
+        return new long[]{address.getLong(), address.getLong()};
+    }
+
+    private record IpKey(long high, long low) {
+    }
+}
@@ -0,0 +1,35 @@
+package ru.practicum.columnar;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "stats.storage")
+public class StorageProperties {
+    // Откуда /stats берёт результат: POSTGRES - таблицы в БД, COLUMNAR - колоночные сегменты
+    private Backend backend = Backend.POSTGRES;
+    private Columnar columnar = new Columnar();
+
+    public enum Backend {
+        POSTGRES,
+        COLUMNAR
+    }
+
+    @Getter
+    @Setter
+    public static class Columnar {
+        // Вести ли колоночную копию запросов; обязательно для backend = COLUMNAR
+        private boolean enabled = false;
+        // Каталог файлов сегментов
+        private Path directory = Path.of("columnar");
+        // Сколько строк накапливается в памяти, прежде чем они записываются сегментом
+        private int segmentRows = 1_000_000;
+        // Неполный сегмент записывается не реже этого интервала
+        private Duration flushInterval = Duration.ofMinutes(1);
+    }
+}
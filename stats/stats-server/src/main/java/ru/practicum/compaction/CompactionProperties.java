@@ -0,0 +1,18 @@
+package ru.practicum.compaction;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "stats.compaction")
+public class CompactionProperties {
+    private boolean enabled = false;
+    // Сырые запросы старше этого срока сворачиваются в часовые и дневные агрегаты и удаляются
+    private Duration age = Duration.ofDays(7);
+    // Сколько строк удаляется одним DELETE
+    private int batchSize = 10_000;
+}
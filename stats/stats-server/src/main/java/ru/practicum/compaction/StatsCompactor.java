@@ -0,0 +1,153 @@
+package ru.practicum.compaction;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.partition.PartitionManager;
+import ru.practicum.repository.CompactionRepository;
+import ru.practicum.repository.RollupRepository;
+import ru.practicum.repository.SketchRepository;
+import ru.practicum.rollup.RollupGranularity;
+import ru.practicum.sketch.SketchProperties;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+
+/**
+ * Сжатие сырых запросов. Сырые строки старше age нужны только ради точного подсчёта уникальных IP,
+ * поэтому период раньше границы сжатия отвечается часовыми и дневными агрегатами и скетчами HyperLogLog,
+ * а сырые строки и минутные агрегаты за него удаляются порциями.
+ * <p>
+ * Перед первым сжатием агрегаты и скетчи догоняются по сырым данным, накопленным до начала их ведения.
+ * Граница сжатия хранится в БД; другие узлы видят её сдвиг не позже чем через STATE_TTL,
+ * поэтому строки удаляются только до границы, которую уже успели увидеть все.
+ * Работу выполняет один узел - тот, что взял рекомендательную блокировку.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class StatsCompactor {
+
+    private static final long COMPACTION_LOCK = 0x7374_6174_0002L;
+    // Граница в stats_compaction_state до первого сжатия
+    private static final LocalDateTime NOT_COMPACTED = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    private final CompactionProperties properties;
+    private final CompactionRepository compactionRepository;
+    private final RollupRepository rollupRepository;
+    private final SketchRepository sketchRepository;
+    private final SketchProperties sketchProperties;
+    private final PartitionManager partitionManager;
+    private final TransactionTemplate transactionTemplate;
+    private final JdbcTemplate jdbcTemplate;
+
+    @Scheduled(initialDelayString = "PT1M", fixedDelayString = "${stats.compaction.check-interval:PT1H}")
+    public void compact() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        // Границы покрытия могли сдвинуть другие узлы
+        rollupRepository.refreshCoveredFrom();
+        sketchRepository.refreshCoveredFrom();
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            if (!advisoryLock(connection, "SELECT pg_try_advisory_lock(?)")) {
+                log.debug("Сжатие статистики выполняет другой узел");
+                return null;
+            }
+            try {
+                compactLocked();
+            } finally {
+                advisoryLock(connection, "SELECT pg_advisory_unlock(?)");
+            }
+            return null;
+        });
+    }
+
+    private void compactLocked() {
+        CompactionRepository.CompactionState state = compactionRepository.readState();
+        boolean seenByAll = state.advancedAt().plus(CompactionRepository.STATE_TTL.multipliedBy(2))
+                .isBefore(LocalDateTime.now());
+        LocalDateTime purgeBefore = seenByAll ? state.compactedBefore() : state.purgeBefore();
+        if (purgeBefore.isAfter(NOT_COMPACTED)) {
+            purge(purgeBefore);
+        }
+        if (!state.compactedBefore().isAfter(NOT_COMPACTED)) {
+            backfill();
+        }
+        LocalDateTime compactedBefore = RollupGranularity.HOUR.floor(LocalDateTime.now().minus(properties.getAge()));
+        if (compactedBefore.isAfter(state.compactedBefore())) {
+            compactionRepository.advance(compactedBefore);
+            log.info("Граница сжатия статистики сдвинута на {}", compactedBefore);
+        }
+    }
+
+    private void purge(LocalDateTime before) {
+        partitionManager.dropPartitionsBefore(before);
+        long hits = 0;
+        int deleted;
+        do {
+            deleted = compactionRepository.deleteHitsBefore(before, properties.getBatchSize());
+            hits += deleted;
+        } while (deleted > 0);
+        long buckets = 0;
+        do {
+            deleted = compactionRepository.deleteMinuteBucketsBefore(before, properties.getBatchSize());
+            buckets += deleted;
+        } while (deleted > 0);
+        if (hits > 0 || buckets > 0) {
+            log.info("Удалено сырых запросов раньше {}: {}, минутных агрегатов: {}", before, hits, buckets);
+        }
+    }
+
+    /**
+     * Догоняет агрегаты и скетчи по сырым данным раньше начала их ведения, по суткам от covered_from назад.
+     */
+    private void backfill() {
+        LocalDateTime oldest = compactionRepository.findOldestHit();
+        if (oldest == null) {
+            return;
+        }
+        LocalDateTime covered = rollupRepository.getCoveredFrom().isAfter(rollupRepository.getTemplatesCoveredFrom())
+                ? rollupRepository.getCoveredFrom()
+                : rollupRepository.getTemplatesCoveredFrom();
+        while (oldest.isBefore(covered)) {
+            LocalDateTime from = previousDay(covered);
+            transactionTemplate.executeWithoutResult(status -> {
+                rollupRepository.lockBackfill(false);
+                rollupRepository.rebuild(from, from.plusDays(1));
+            });
+            covered = from;
+            log.info("Агрегаты статистики пересчитаны по сырым данным за {}", from.toLocalDate());
+        }
+        covered = sketchRepository.getCoveredFrom();
+        while (oldest.isBefore(covered)) {
+            LocalDateTime from = previousDay(covered);
+            LocalDateTime to = covered;
+            transactionTemplate.executeWithoutResult(status ->
+                    sketchRepository.rebuild(from, to, sketchProperties.getHllPrecision()));
+            covered = from;
+            log.info("Скетчи уникальных IP дополнены по сырым данным за {}", from.toLocalDate());
+        }
+    }
+
+    private static LocalDateTime previousDay(LocalDateTime time) {
+        LocalDateTime day = RollupGranularity.DAY.floor(time);
+        return day.isBefore(time) ? day : day.minusDays(1);
+    }
+
+    private static boolean advisoryLock(Connection connection, String sql) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setLong(1, COMPACTION_LOCK);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+}
@@ -1,15 +1,39 @@
 package ru.practicum.controller;
 
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
-import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.practicum.dto.BulkHitResultDto;
+import ru.practicum.dto.CommonVisitorsDto;
+import ru.practicum.dto.CommonVisitorsDtoGetParam;
 import ru.practicum.dto.HitDto;
+import ru.practicum.dto.HitRejectionDto;
+import ru.practicum.dto.StatsChangesDto;
+import ru.practicum.dto.StatsChangesDtoGetParam;
 import ru.practicum.dto.StatsDto;
+import ru.practicum.dto.StatsDtoGetParam;
+import ru.practicum.dto.StatsSketchDto;
+import ru.practicum.dto.TimeseriesDto;
+import ru.practicum.dto.TimeseriesDtoGetParam;
+import ru.practicum.dto.TopDtoGetParam;
+import ru.practicum.dto.TopUriDto;
+import ru.practicum.exception.MalformedHitsException;
 import ru.practicum.service.StatsService;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
 import java.util.List;
 
 @RestController
@@ -17,14 +41,86 @@ import java.util.List;
 public class StatsServerController {
 
     private final StatsService statsService;
+    private final ObjectMapper objectMapper;
+
+    // Заголовок с относительной ошибкой ответа, если количество уникальных IP оценено приближённо
+    public static final String RELATIVE_ERROR_HEADER = "X-Stats-Relative-Error";
+    // Заголовок с фактическим началом интервала, если в сжатом периоде оно округлено вниз до часа
+    public static final String EFFECTIVE_START_HEADER = "X-Stats-Effective-Start";
+    private static final DateTimeFormatter HEADER_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
     @GetMapping("/stats")
-    @ResponseStatus(HttpStatus.OK)
-    public List<StatsDto> getStats(@RequestParam(required = false) @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime start,
-                                   @RequestParam(required = false) @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime end,
-                                   @RequestParam(defaultValue = "", required = false) List<String> uris,
-                                   @RequestParam(defaultValue = "false", required = false) boolean unique) {
-        return statsService.getStat(start, end, uris, unique);
+    public ResponseEntity<List<StatsDto>> getStats(@ModelAttribute @Valid StatsDtoGetParam prm) {
+        return withRelativeError(ResponseEntity.ok(), prm).body(statsService.getStat(prm));
+    }
+
+    // Потоковый вариант: по одному StatsDto на строку по мере чтения из БД
+    @GetMapping(value = "/stats", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamStats(@ModelAttribute @Valid StatsDtoGetParam prm) {
+        statsService.checkStat(prm);
+        StreamingResponseBody body = out -> statsService.streamStat(prm, stats -> {
+            try {
+                out.write(objectMapper.writeValueAsBytes(stats));
+                out.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return withRelativeError(ResponseEntity.ok(), prm)
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
+    }
+
+    // Скетчи HyperLogLog уникальных IP: клиент сливает их, когда пара app/uri встречается на нескольких узлах
+    @GetMapping("/stats/sketches")
+    public List<StatsSketchDto> getSketches(@ModelAttribute @Valid StatsDtoGetParam prm) {
+        return statsService.getSketches(prm);
+    }
+
+    // Количество запросов по шаблонам маршрутов (stats.template.patterns); в uris - шаблоны, approximate не учитывается
+    @GetMapping("/stats/templates")
+    public ResponseEntity<List<StatsDto>> getTemplateStats(@ModelAttribute @Valid StatsDtoGetParam prm) {
+        return withEffectiveStart(ResponseEntity.ok(), prm, true).body(statsService.getTemplateStat(prm));
+    }
+
+    // Ряды по корзинам 1m, 1h или 1d для графиков: один запрос вместо запроса /stats на каждую корзину
+    @GetMapping("/stats/timeseries")
+    public List<TimeseriesDto> getTimeseries(@ModelAttribute @Valid TimeseriesDtoGetParam prm) {
+        return statsService.getTimeseries(prm);
+    }
+
+    // Самые посещаемые uri приложения за последние minutes минут, без обращения к БД
+    @GetMapping("/stats/top")
+    public List<TopUriDto> getTop(@ModelAttribute @Valid TopDtoGetParam prm) {
+        return statsService.getTop(prm);
+    }
+
+    // Сколько уникальных IP за интервал запросили каждый из uris (пересечение битовых карт посетителей)
+    @GetMapping("/stats/visitors/common")
+    public CommonVisitorsDto getCommonVisitors(@ModelAttribute @Valid CommonVisitorsDtoGetParam prm) {
+        return statsService.getCommonVisitors(prm);
+    }
+
+    // Прирост количества запросов с прошлого курсора: клиент ведёт итоги у себя, не пересчитывая /stats целиком
+    @GetMapping("/stats/changes")
+    public StatsChangesDto getChanges(@ModelAttribute @Valid StatsChangesDtoGetParam prm) {
+        return statsService.getChanges(prm);
+    }
+
+    private ResponseEntity.BodyBuilder withRelativeError(ResponseEntity.BodyBuilder response, StatsDtoGetParam prm) {
+        if (prm.isUnique() && prm.isApproximate()) {
+            response.header(RELATIVE_ERROR_HEADER, String.valueOf(statsService.getApproximationError()));
+        }
+        return withEffectiveStart(response, prm, false);
+    }
+
+    private ResponseEntity.BodyBuilder withEffectiveStart(ResponseEntity.BodyBuilder response, StatsDtoGetParam prm,
+                                                          boolean byTemplate) {
+        LocalDateTime effectiveStart = statsService.getEffectiveStart(prm, byTemplate);
+        if (effectiveStart != null && !effectiveStart.equals(prm.getStart())) {
+            response.header(EFFECTIVE_START_HEADER, effectiveStart.format(HEADER_TIME_FORMAT));
+        }
+        return response;
     }
 
     @PostMapping("/hit")
@@ -32,4 +128,71 @@ public class StatsServerController {
     public void saveHitRequest(@RequestBody @Valid HitDto hitDto) {
         statsService.saveRequest(hitDto);
     }
-}
\ No newline at end of file
+
+    @PostMapping(value = "/hits", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseStatus(HttpStatus.OK)
+    public BulkHitResultDto saveHitRequests(@RequestBody List<HitDto> hits) {
+        return statsService.saveRequests(hits.iterator());
+    }
+
+    // Потоковый вариант: по одному HitDto на строку, тело запроса не загружается в память целиком.
+    // На нечитаемой строке приём останавливается: 400 с итогом по строкам до неё, которые уже записаны,
+    // и её номером в rejected - повторять нужно только её и следующие строки
+    @PostMapping(value = "/hits", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<BulkHitResultDto> saveHitRequestsStream(InputStream body) throws IOException {
+        MappingIterator<HitDto> hits;
+        try {
+            hits = objectMapper.readerFor(HitDto.class).readValues(body);
+        } catch (JsonProcessingException e) {
+            BulkHitResultDto result = new BulkHitResultDto();
+            result.getRejected().add(new HitRejectionDto(0, List.of(describe(e))));
+            return ResponseEntity.badRequest().body(result);
+        }
+        try (hits) {
+            return ResponseEntity.ok(statsService.saveRequests(readable(hits)));
+        } catch (MalformedHitsException e) {
+            return ResponseEntity.badRequest().body(e.getResult());
+        }
+    }
+
+    /**
+     * Ошибки разбора строки (синтаксис JSON или несоответствие HitDto) становятся MalformedHitsException;
+     * прочие ошибки чтения тела пробрасываются.
+     */
+    private static Iterator<HitDto> readable(MappingIterator<HitDto> hits) {
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                try {
+                    return hits.hasNext();
+                } catch (RuntimeException e) {
+                    throw malformed(e);
+                }
+            }
+
+            @Override
+            public HitDto next() {
+                try {
+                    return hits.next();
+                } catch (RuntimeException e) {
+                    throw malformed(e);
+                }
+            }
+        };
+    }
+
+    private static RuntimeException malformed(RuntimeException e) {
+        // MappingIterator оборачивает JsonProcessingException в RuntimeJsonMappingException или RuntimeException
+        if (e.getCause() instanceof JsonProcessingException cause) {
+            return new MalformedHitsException(describe(cause), e);
+        }
+        return e;
+    }
+
+    private static String describe(JsonProcessingException e) {
+        JsonLocation location = e.getLocation();
+        return location == null
+                ? "некорректный JSON: " + e.getOriginalMessage()
+                : "некорректный JSON в строке " + location.getLineNr() + ": " + e.getOriginalMessage();
+    }
+}
@@ -0,0 +1,33 @@
+package ru.practicum.delta;
+
+import ru.practicum.exception.BadCursorException;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Курсор /stats/changes: позиция в журнале прироста, закодированная в base64url. Клиент его не разбирает.
+ */
+public final class DeltaCursor {
+
+    private DeltaCursor() {
+    }
+
+    public static String encode(long position) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(
+                ByteBuffer.allocate(Long.BYTES).putLong(position).array());
+    }
+
+    public static long decode(String cursor) {
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(cursor);
+        } catch (IllegalArgumentException e) {
+            throw new BadCursorException("Malformed cursor: " + cursor);
+        }
+        if (bytes.length != Long.BYTES) {
+            throw new BadCursorException("Malformed cursor: " + cursor);
+        }
+        return ByteBuffer.wrap(bytes).getLong();
+    }
+}
@@ -0,0 +1,18 @@
+package ru.practicum.delta;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "stats.delta")
+public class DeltaProperties {
+    private boolean enabled = false;
+    // Сколько хранится прирост: курсор старше этого срока перестаёт действовать
+    private Duration retention = Duration.ofHours(24);
+    // Сколько строк прироста удаляется одним DELETE
+    private int batchSize = 10_000;
+}
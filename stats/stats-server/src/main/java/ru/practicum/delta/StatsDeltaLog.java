@@ -0,0 +1,53 @@
+package ru.practicum.delta;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.practicum.ingest.HitListener;
+import ru.practicum.model.Stats;
+import ru.practicum.repository.DeltaRepository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Пишет прирост количества запросов в журнал stats_delta в той же транзакции, что и сами запросы,
+ * и удаляет записи старше retention.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class StatsDeltaLog implements HitListener {
+
+    private final DeltaProperties properties;
+    private final DeltaRepository deltaRepository;
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    @Override
+    public void onHits(List<Stats> hits) {
+        if (properties.isEnabled() && !hits.isEmpty()) {
+            deltaRepository.append(hits);
+        }
+    }
+
+    @Scheduled(initialDelayString = "PT1M", fixedDelayString = "${stats.delta.prune-interval:PT10M}")
+    public void prune() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        LocalDateTime before = LocalDateTime.now().minus(properties.getRetention());
+        long pruned = 0;
+        int deleted;
+        do {
+            deleted = deltaRepository.prune(before, properties.getBatchSize());
+            pruned += deleted;
+        } while (deleted > 0);
+        if (pruned > 0) {
+            log.info("Удалено записей прироста статистики раньше {}: {}", before, pruned);
+        }
+    }
+}
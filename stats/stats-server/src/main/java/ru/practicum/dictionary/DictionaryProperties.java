@@ -0,0 +1,19 @@
+package ru.practicum.dictionary;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "stats.dictionary")
+public class DictionaryProperties {
+    // Сколько названий каждого словаря и шаблонов uri держать в памяти; давно не использованные вытесняются
+    private int cacheSize = 100_000;
+    // Сколько запрошенных, но неизвестных названий помнить, чтобы не искать их в БД при каждом запросе
+    private int negativeCacheSize = 10_000;
+    // Сколько помнить неизвестное название: за это время его может добавить другой узел
+    private Duration negativeCacheTtl = Duration.ofSeconds(10);
+}
@@ -0,0 +1,338 @@
+package ru.practicum.dictionary;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.practicum.dto.StatsDto;
+import ru.practicum.exception.BadUriPatternException;
+import ru.practicum.model.Stats;
+import ru.practicum.model.StatsCount;
+import ru.practicum.template.UriTemplateMatcher;
+
+import java.sql.Types;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Кэш словарей приложений и uri. Новые значения добавляются в БД вне транзакции записи статистики,
+ * чтобы id в кэше не мог указывать на строку из откатившейся транзакции.
+ * Известные uri также складываются в префиксное дерево для раскрытия шаблонов вида "/events/*".
+ * Дерево подгружается из БД порциями и не растёт больше trieMaxUris: если uri больше, дерево освобождается,
+ * и шаблоны раскрываются регулярным выражением по stats_uri.
+ * Для каждого uri определяется шаблон маршрута (например, /events/{id}), он сохраняется в stats_uri.template_id.
+ * Отсутствие названия в словаре запоминается на negativeCacheTtl, чтобы запросы /stats по неизвестным uri
+ * не обращались к БД каждый раз.
+ * Кэши названий и шаблонов ограничены cacheSize записями на словарь: давно не использованные вытесняются
+ * и при следующем обращении читаются из БД.
+ */
+@Slf4j
+@Component
+public class StatsDictionary {
+
+    private static final int NO_TEMPLATE = 0;
+    // Строк stats_uri, подгружаемых в дерево одним запросом
+    private static final int TRIE_LOAD_PAGE = 10_000;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final UriPatternProperties uriPatternProperties;
+    private final UriTemplateMatcher uriTemplateMatcher;
+    private final DictionaryProperties properties;
+
+    private final Dictionary apps = new Dictionary("stats_app", "name", false);
+    private final UriTrie uriTrie = new UriTrie();
+    private final Dictionary uris = new Dictionary("stats_uri", "uri", true);
+    private final Dictionary templates = new Dictionary("stats_uri_template", "template", false);
+
+    // Шаблон uri, уже сверенный с stats_uri в этом процессе; NO_TEMPLATE - uri не подходит ни под один
+    private final Map<Integer, Integer> uriTemplates = boundedCache();
+
+    // Наибольший id uri, подгруженный в дерево из БД; добавленные другими узлами uri подгружаются по нему
+    private int loadedUriId;
+    // Uri больше trieMaxUris: дерево не ведётся
+    private volatile boolean trieOverflow;
+
+    public StatsDictionary(NamedParameterJdbcTemplate jdbcTemplate, UriPatternProperties uriPatternProperties,
+                           UriTemplateMatcher uriTemplateMatcher, DictionaryProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.uriPatternProperties = uriPatternProperties;
+        this.uriTemplateMatcher = uriTemplateMatcher;
+        this.properties = properties;
+    }
+
+    /**
+     * Проставляет appId, uriId и templateId запросам, при необходимости добавляя новые значения в словари.
+     * Шаблон uri определяется по текущей настройке. При первом обращении к uri в процессе ссылка в stats_uri
+     * приводится к ней одним пакетным UPDATE на все такие uri пакета, так что смена шаблонов действует
+     * и на ранее известные uri.
+     */
+    public void resolve(List<Stats> hits) {
+        Map<Integer, Integer> checked = new HashMap<>();
+        for (Stats hit : hits) {
+            hit.setAppId(apps.getOrCreate(hit.getApp()));
+            hit.setUriId(uris.getOrCreate(hit.getUri()));
+            Integer templateId = uriTemplates.get(hit.getUriId());
+            if (templateId == null) {
+                templateId = checked.computeIfAbsent(hit.getUriId(), id -> matchTemplate(hit.getUri()));
+            }
+            hit.setTemplateId(templateId == NO_TEMPLATE ? null : templateId);
+        }
+        if (checked.isEmpty()) {
+            return;
+        }
+        MapSqlParameterSource[] params = checked.entrySet().stream()
+                .map(entry -> new MapSqlParameterSource("id", entry.getKey())
+                        .addValue("templateId", entry.getValue() == NO_TEMPLATE ? null : entry.getValue(),
+                                Types.INTEGER))
+                .toArray(MapSqlParameterSource[]::new);
+        jdbcTemplate.batchUpdate("UPDATE stats_uri SET template_id = :templateId WHERE id = :id " +
+                "AND template_id IS DISTINCT FROM :templateId", params);
+        uriTemplates.putAll(checked);
+    }
+
+    private int matchTemplate(String uri) {
+        String template = uriTemplateMatcher.match(uri);
+        return template == null ? NO_TEMPLATE : templates.getOrCreate(template);
+    }
+
+    /**
+     * Переводит шаблоны маршрутов в id; неизвестные шаблоны пропускаются.
+     */
+    public List<Integer> resolveTemplates(List<String> requested) {
+        return requested.stream()
+                .map(templates::find)
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+    }
+
+    /**
+     * Переводит id в названия для счётчиков по шаблонам: в StatsCount.uriId - id шаблона.
+     */
+    public List<StatsDto> toTemplateDtos(List<StatsCount> counts) {
+        apps.preload(counts.stream().map(StatsCount::appId).toList());
+        templates.preload(counts.stream().map(StatsCount::uriId).toList());
+        return counts.stream()
+                .map(count -> new StatsDto(apps.name(count.appId()), templates.name(count.uriId()), count.hits()))
+                .toList();
+    }
+
+    public Integer findAppId(String app) {
+        return apps.find(app);
+    }
+
+    public String uriName(int uriId) {
+        return uris.name(uriId);
+    }
+
+    /**
+     * Подгружает в кэш названия uri одним запросом, чтобы затем переводить их по одному без обращений к БД.
+     */
+    public void preloadUris(Collection<Integer> uriIds) {
+        uris.preload(uriIds);
+    }
+
+    /**
+     * Переводит uri и шаблоны uri в id; неизвестные uri пропускаются.
+     */
+    public List<Integer> resolveUris(List<String> requested) {
+        Set<Integer> ids = new LinkedHashSet<>();
+        boolean patternsLoaded = false;
+        for (String uri : requested) {
+            if (!UriTrie.isPattern(uri)) {
+                Integer id = uris.find(uri);
+                if (id != null) {
+                    ids.add(id);
+                }
+                continue;
+            }
+            if (!patternsLoaded) {
+                loadNewUris();
+                patternsLoaded = true;
+            }
+            Set<Integer> matched = trieOverflow
+                    ? matchInDatabase(uri, uriPatternProperties.getMaxMatches())
+                    : uriTrie.match(uri, uriPatternProperties.getMaxMatches());
+            if (matched.size() > uriPatternProperties.getMaxMatches()) {
+                throw new BadUriPatternException("The uri pattern " + uri + " matches more than "
+                        + uriPatternProperties.getMaxMatches() + " uris");
+            }
+            ids.addAll(matched);
+        }
+        return List.copyOf(ids);
+    }
+
+    private synchronized void loadNewUris() {
+        int loaded;
+        do {
+            int[] rows = new int[1];
+            jdbcTemplate.query("SELECT id, uri FROM stats_uri WHERE id > :id ORDER BY id LIMIT :limit",
+                    new MapSqlParameterSource("id", loadedUriId).addValue("limit", TRIE_LOAD_PAGE),
+                    (RowCallbackHandler) rs -> {
+                        // Только в дерево: полная подгрузка не должна вытеснять из кэша используемые uri
+                        addToTrie(rs.getString("uri"), rs.getInt("id"));
+                        loadedUriId = rs.getInt("id");
+                        rows[0]++;
+                    });
+            loaded = rows[0];
+        } while (loaded == TRIE_LOAD_PAGE && !trieOverflow);
+    }
+
+    private Set<Integer> matchInDatabase(String pattern, int limit) {
+        return new LinkedHashSet<>(jdbcTemplate.queryForList("SELECT id FROM stats_uri WHERE uri ~ :regex " +
+                        "ORDER BY id LIMIT :limit",
+                new MapSqlParameterSource("regex", UriTrie.toRegex(pattern)).addValue("limit", limit + 1),
+                Integer.class));
+    }
+
+    private void addToTrie(String uri, int id) {
+        if (trieOverflow) {
+            return;
+        }
+        if (uriTrie.size() >= uriPatternProperties.getTrieMaxUris()) {
+            trieOverflow = true;
+            uriTrie.clear();
+            log.warn("Известных uri больше {}, шаблоны uri раскрываются запросом к БД",
+                    uriPatternProperties.getTrieMaxUris());
+            return;
+        }
+        uriTrie.add(uri, id);
+    }
+
+    public StatsDto toDto(StatsCount count) {
+        return new StatsDto(apps.name(count.appId()), uris.name(count.uriId()), count.hits());
+    }
+
+    /**
+     * Переводит id в названия; недостающие в кэше значения подгружаются одним запросом на словарь.
+     */
+    public List<StatsDto> toDtos(List<StatsCount> counts) {
+        apps.preload(counts.stream().map(StatsCount::appId).toList());
+        uris.preload(counts.stream().map(StatsCount::uriId).toList());
+        return counts.stream()
+                .map(this::toDto)
+                .toList();
+    }
+
+    // Вытесняет давно не использованные записи сверх cacheSize; доступ через synchronizedMap,
+    // потому что чтение меняет порядок записей
+    private <K, V> Map<K, V> boundedCache() {
+        return Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > properties.getCacheSize();
+            }
+        });
+    }
+
+    private class Dictionary {
+        private final String table;
+        private final String column;
+        private final boolean trie;
+        private final Map<String, Integer> ids = boundedCache();
+        private final Map<Integer, String> names = boundedCache();
+        // Названия, которых не было в БД, и когда проверить их снова; доступ под блокировкой самой карты
+        private final Map<String, Long> unknown = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > properties.getNegativeCacheSize();
+            }
+        };
+
+        Dictionary(String table, String column, boolean trie) {
+            this.table = table;
+            this.column = column;
+            this.trie = trie;
+        }
+
+        int getOrCreate(String name) {
+            Integer id = find(name);
+            if (id != null) {
+                return id;
+            }
+            MapSqlParameterSource params = new MapSqlParameterSource("name", name);
+            jdbcTemplate.update("INSERT INTO " + table + " (" + column + ") VALUES (:name) " +
+                    "ON CONFLICT (" + column + ") DO NOTHING", params);
+            id = jdbcTemplate.queryForObject("SELECT id FROM " + table + " WHERE " + column + " = :name",
+                    params, Integer.class);
+            put(id, name);
+            return id;
+        }
+
+        Integer find(String name) {
+            Integer id = ids.get(name);
+            if (id != null || isKnownMissing(name)) {
+                return id;
+            }
+            List<Integer> found = jdbcTemplate.queryForList("SELECT id FROM " + table + " WHERE " + column +
+                    " = :name", new MapSqlParameterSource("name", name), Integer.class);
+            if (found.isEmpty()) {
+                synchronized (unknown) {
+                    unknown.put(name, System.nanoTime() + properties.getNegativeCacheTtl().toNanos());
+                }
+                return null;
+            }
+            id = found.getFirst();
+            put(id, name);
+            return id;
+        }
+
+        private boolean isKnownMissing(String name) {
+            synchronized (unknown) {
+                Long recheckAt = unknown.get(name);
+                if (recheckAt == null) {
+                    return false;
+                }
+                if (recheckAt - System.nanoTime() > 0) {
+                    return true;
+                }
+                unknown.remove(name);
+                return false;
+            }
+        }
+
+        String name(int id) {
+            String name = names.get(id);
+            if (name == null) {
+                preload(List.of(id));
+                name = names.get(id);
+            }
+            return name;
+        }
+
+        void preload(Collection<Integer> requested) {
+            Set<Integer> missing = new HashSet<>();
+            for (Integer id : requested) {
+                if (!names.containsKey(id)) {
+                    missing.add(id);
+                }
+            }
+            if (missing.isEmpty()) {
+                return;
+            }
+            jdbcTemplate.query("SELECT id, " + column + " FROM " + table + " WHERE id IN (:ids)",
+                    new MapSqlParameterSource("ids", missing),
+                    (RowCallbackHandler) rs -> put(rs.getInt("id"), rs.getString(column)));
+        }
+
+        private void put(int id, String name) {
+            synchronized (unknown) {
+                unknown.remove(name);
+            }
+            ids.put(name, id);
+            names.put(id, name);
+            if (trie) {
+                addToTrie(name, id);
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package ru.practicum.dictionary;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "stats.uri-pattern")
+public class UriPatternProperties {
+    // Наибольшее количество uri, в которое может раскрыться шаблон в параметре uris
+    private int maxMatches = 10_000;
+    // Наибольшее количество uri в префиксном дереве; если известных uri больше, шаблоны раскрываются запросом к БД
+    private int trieMaxUris = 1_000_000;
+}
@@ -0,0 +1,144 @@
+package ru.practicum.dictionary;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Префиксное дерево известных uri по сегментам пути.
+ * Шаблон разбирается по тем же сегментам: "*" внутри сегмента совпадает с любыми символами, кроме "/",
+ * сегмент "**" - с любым количеством сегментов, включая ноль. Так "/events/*" - страницы событий,
+ * а "/events/**" - всё под /events, включая сам /events.
+ */
+class UriTrie {
+
+    private static final String ANY_SEGMENTS = "**";
+    // Символы, экранируемые в регулярном выражении из шаблона
+    private static final String REGEX_SPECIAL = "\\.^$|?*+()[]{}";
+
+    private final Node root = new Node();
+    private final AtomicInteger size = new AtomicInteger();
+
+    static boolean isPattern(String uri) {
+        return uri.indexOf('*') >= 0;
+    }
+
+    void add(String uri, int id) {
+        Node node = root;
+        for (String segment : split(uri)) {
+            node = node.children.computeIfAbsent(segment, s -> new Node());
+        }
+        if (node.id == null) {
+            size.incrementAndGet();
+        }
+        node.id = id;
+    }
+
+    /**
+     * Количество uri в дереве.
+     */
+    int size() {
+        return size.get();
+    }
+
+    void clear() {
+        root.children.clear();
+        root.id = null;
+        size.set(0);
+    }
+
+    /**
+     * Регулярное выражение PostgreSQL (и java.util.regex), совпадающее с теми же uri, что и шаблон в дереве.
+     */
+    static String toRegex(String pattern) {
+        String[] segments = split(pattern);
+        if (segments.length == 1 && segments[0].equals(ANY_SEGMENTS)) {
+            return "^.*$";
+        }
+        StringBuilder regex = new StringBuilder("^");
+        boolean separatorEmitted = true;
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            if (segment.equals(ANY_SEGMENTS)) {
+                // Ноль или больше сегментов вместе с разделителями
+                regex.append(i == 0 ? "(?:[^/]*/)*" : "(?:/[^/]*)*");
+                separatorEmitted = i == 0;
+                continue;
+            }
+            if (!separatorEmitted) {
+                regex.append('/');
+            }
+            separatorEmitted = false;
+            for (char c : segment.toCharArray()) {
+                if (c == '*') {
+                    regex.append("[^/]*");
+                } else {
+                    if (REGEX_SPECIAL.indexOf(c) >= 0) {
+                        regex.append('\\');
+                    }
+                    regex.append(c);
+                }
+            }
+        }
+        return regex.append('$').toString();
+    }
+
+    /**
+     * Id uri, подходящих под шаблон. Обход прекращается, как только найдено больше limit значений.
+     */
+    Set<Integer> match(String pattern, int limit) {
+        String[] segments = split(pattern);
+        Pattern[] globs = new Pattern[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            if (isPattern(segments[i]) && !segments[i].equals(ANY_SEGMENTS)) {
+                globs[i] = Pattern.compile(Pattern.quote(segments[i]).replace("*", "\\E[^/]*\\Q"));
+            }
+        }
+        Set<Integer> result = new LinkedHashSet<>();
+        match(root, segments, globs, 0, result, limit);
+        return result;
+    }
+
+    private void match(Node node, String[] segments, Pattern[] globs, int index, Set<Integer> result, int limit) {
+        if (result.size() > limit) {
+            return;
+        }
+        if (index == segments.length) {
+            Integer id = node.id;
+            if (id != null) {
+                result.add(id);
+            }
+            return;
+        }
+        String segment = segments[index];
+        if (segment.equals(ANY_SEGMENTS)) {
+            match(node, segments, globs, index + 1, result, limit);
+            for (Node child : node.children.values()) {
+                match(child, segments, globs, index, result, limit);
+            }
+        } else if (globs[index] != null) {
+            for (Map.Entry<String, Node> child : node.children.entrySet()) {
+                if (globs[index].matcher(child.getKey()).matches()) {
+                    match(child.getValue(), segments, globs, index + 1, result, limit);
+                }
+            }
+        } else {
+            Node child = node.children.get(segment);
+            if (child != null) {
+                match(child, segments, globs, index + 1, result, limit);
+            }
+        }
+    }
+
+    private static String[] split(String uri) {
+        return uri.split("/", -1);
+    }
+
+    private static final class Node {
+        private final Map<String, Node> children = new ConcurrentHashMap<>();
+        private volatile Integer id;
+    }
+}
@@ -0,0 +1,62 @@
+package ru.practicum.discovery;
+
+import com.netflix.appinfo.ApplicationInfoManager;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.stereotype.Component;
+import ru.practicum.columnar.StorageProperties;
+import ru.practicum.top.TopProperties;
+import ru.practicum.window.WindowProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Публикует в метаданных Eureka список включённых возможностей, которые отвечают из памяти экземпляра.
+ * Такая память видит только запросы, принятые этим экземпляром, поэтому с несколькими экземплярами
+ * эти возможности нужно выключать; клиент, увидев метку у одного из нескольких экземпляров, предупреждает об этом.
+ * Кэш результатов и кэш карт посетителей сюда не входят: они хранят данные общей БД и сверяются с ней.
+ * До регистрации в Eureka метаданные уже выставлены, поэтому клиенты видят метку с первого обновления списка.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class LocalStateMetadata implements SmartInitializingSingleton {
+
+    // Ключ метаданных; его же читает StatClient
+    public static final String LOCAL_STATE = "stats-local-state";
+
+    private final ObjectProvider<ApplicationInfoManager> applicationInfoManager;
+    private final WindowProperties windowProperties;
+    private final TopProperties topProperties;
+    private final StorageProperties storageProperties;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        List<String> features = localFeatures();
+        if (features.isEmpty()) {
+            return;
+        }
+        applicationInfoManager.ifAvailable(manager ->
+                manager.registerAppMetadata(Map.of(LOCAL_STATE, String.join(",", features))));
+        log.info("Экземпляр отвечает из собственной памяти ({}): запускайте его единственным экземпляром " +
+                "или выключите эти возможности", features);
+    }
+
+    List<String> localFeatures() {
+        List<String> features = new ArrayList<>();
+        if (windowProperties.isEnabled()) {
+            features.add("window");
+        }
+        if (topProperties.isEnabled()) {
+            features.add("top");
+        }
+        if (storageProperties.getBackend() == StorageProperties.Backend.COLUMNAR) {
+            features.add("columnar");
+        }
+        return features;
+    }
+}
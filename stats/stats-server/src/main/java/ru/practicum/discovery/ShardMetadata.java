@@ -0,0 +1,51 @@
+package ru.practicum.discovery;
+
+import com.netflix.appinfo.ApplicationInfoManager;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Публикует в метаданных Eureka идентификатор шарда: клиент строит кольцо по нему, а не по адресу экземпляра,
+ * который с server.port: 0 меняется при каждом запуске. Шард хранит свою часть пар app/uri в собственной БД,
+ * поэтому при первом запуске БД закрепляется за шардом, а экземпляр другого шарда с той же БД не запускается:
+ * иначе оба шарда видели бы запросы друг друга, и клиент сложил бы их дважды.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ShardMetadata implements SmartInitializingSingleton {
+
+    // Ключ метаданных; его же читает StatClient
+    public static final String SHARD_ID = "stats-shard-id";
+
+    private final ObjectProvider<ApplicationInfoManager> applicationInfoManager;
+    private final ShardProperties properties;
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        String shardId = properties.getId();
+        if (shardId == null || shardId.isBlank()) {
+            return;
+        }
+        bindDatabase(shardId);
+        applicationInfoManager.ifAvailable(manager -> manager.registerAppMetadata(Map.of(SHARD_ID, shardId)));
+        log.info("Экземпляр публикует шард {}", shardId);
+    }
+
+    void bindDatabase(String shardId) {
+        jdbcTemplate.update("INSERT INTO stats_shard (id, shard_id) VALUES (1, ?) ON CONFLICT (id) DO NOTHING",
+                shardId);
+        String bound = jdbcTemplate.queryForObject("SELECT shard_id FROM stats_shard WHERE id = 1", String.class);
+        if (!shardId.equals(bound)) {
+            throw new IllegalStateException("The database already belongs to shard " + bound + ", shard " + shardId
+                    + " must use its own database");
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package ru.practicum.discovery;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "stats.shard")
+public class ShardProperties {
+    // Постоянный идентификатор шарда для кольца клиента; пусто - экземпляр не участвует в шардировании.
+    // Экземпляры одного шарда работают с одной БД, разные шарды - с разными
+    private String id;
+}
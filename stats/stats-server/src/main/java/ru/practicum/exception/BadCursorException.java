@@ -0,0 +1,11 @@
+package ru.practicum.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class BadCursorException extends RuntimeException {
+    public BadCursorException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,11 @@
+package ru.practicum.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class BadUriPatternException extends RuntimeException {
+    public BadUriPatternException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,26 @@
+package ru.practicum.exception;
+
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import ru.practicum.dto.BulkHitResultDto;
+
+/**
+ * Поток запросов не удалось дочитать. result - итог обработки запросов до нечитаемого (null, если ничего
+ * не обработано): они уже записаны, поэтому клиент повторяет только остаток потока.
+ */
+@Getter
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class MalformedHitsException extends RuntimeException {
+
+    private final BulkHitResultDto result;
+
+    public MalformedHitsException(String message, Throwable cause) {
+        this(message, null, cause);
+    }
+
+    public MalformedHitsException(String message, BulkHitResultDto result, Throwable cause) {
+        super(message, cause);
+        this.result = result;
+    }
+}
@@ -0,0 +1,311 @@
+package ru.practicum.ingest;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.dictionary.StatsDictionary;
+import ru.practicum.model.Stats;
+import ru.practicum.spool.HitSpool;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Приём запросов на сохранение статистики.
+ * В режиме ASYNC запросы складываются в ограниченный буфер, из которого отдельный поток
+ * записывает их в БД пакетами: по достижении batchSize или по истечении flushInterval.
+ * Пакет, который не удалось записать, повторяется с удваивающейся паузой до retryAttempts раз.
+ * Если БД отвергает пакет из-за данных запроса или повторы исчерпаны, пакет записывается по половинам:
+ * отдельные отвергнутые запросы отбрасываются и учитываются в счётчике stats.ingest.rejected, а часть,
+ * которую не удалось записать по другой причине, - в счётчике stats.ingest.dropped. Так один неверный
+ * запрос не лишает остальные запросы пакета записи.
+ * При остановке сервиса буфер дописывается в БД.
+ * В режиме SPOOL запросы подтверждаются после записи в локальный журнал {@link HitSpool},
+ * а в БД их переносит разборщик журнала, поэтому задержки БД не замедляют приём.
+ */
+@Slf4j
+@Component
+public class HitIngestor implements SmartLifecycle {
+
+    private final HitWriter hitWriter;
+    private final List<HitListener> hitListeners;
+    private final StatsDictionary statsDictionary;
+    private final TransactionTemplate transactionTemplate;
+    private final IngestProperties properties;
+    private final HitSpool hitSpool;
+    private final BlockingQueue<Stats> buffer;
+    private final Counter dropped;
+    private final Counter rejected;
+    // Приём в буфер (чтение) и остановка (запись) взаимно исключены: после остановки в буфер ничего не попадёт
+    private final ReadWriteLock runningLock = new ReentrantReadWriteLock();
+
+    private volatile boolean running;
+    private Thread writerThread;
+
+    public HitIngestor(HitWriter hitWriter, List<HitListener> hitListeners, StatsDictionary statsDictionary,
+                       TransactionTemplate transactionTemplate, IngestProperties properties, HitSpool hitSpool,
+                       MeterRegistry meterRegistry) {
+        this.hitWriter = hitWriter;
+        this.hitListeners = hitListeners;
+        this.statsDictionary = statsDictionary;
+        this.transactionTemplate = transactionTemplate;
+        this.properties = properties;
+        this.hitSpool = hitSpool;
+        this.buffer = new ArrayBlockingQueue<>(properties.getCapacity());
+        this.dropped = meterRegistry.counter("stats.ingest.dropped");
+        this.rejected = meterRegistry.counter("stats.ingest.rejected");
+    }
+
+    public void ingest(Stats hit) {
+        runningLock.readLock().lock();
+        try {
+            if (running && isSpool() && spool(List.of(hit))) {
+                return;
+            }
+            if (running && isAsync() && enqueue(hit)) {
+                return;
+            }
+        } finally {
+            runningLock.readLock().unlock();
+        }
+        persist(List.of(hit));
+    }
+
+    /**
+     * Запись уже собранного клиентом пакета: буфер не используется, пакет пишется одной транзакцией.
+     */
+    public void ingestAll(List<Stats> hits) {
+        if (hits.isEmpty()) {
+            return;
+        }
+        runningLock.readLock().lock();
+        try {
+            if (running && isSpool() && spool(hits)) {
+                return;
+            }
+        } finally {
+            runningLock.readLock().unlock();
+        }
+        persist(hits);
+    }
+
+    public int getBatchSize() {
+        return properties.getBatchSize();
+    }
+
+    private boolean isAsync() {
+        return properties.getMode() == IngestProperties.IngestMode.ASYNC;
+    }
+
+    private boolean isSpool() {
+        return properties.getMode() == IngestProperties.IngestMode.SPOOL;
+    }
+
+    /**
+     * @return false, если журнал переполнен и запросы нужно записать синхронно
+     */
+    private boolean spool(List<Stats> hits) {
+        if (hitSpool.append(hits)) {
+            return true;
+        }
+        log.warn("Журнал статистики переполнен, {} запросов записываются синхронно", hits.size());
+        return false;
+    }
+
+    /**
+     * @return false, если буфер переполнен и запрос нужно записать синхронно
+     */
+    private boolean enqueue(Stats hit) {
+        try {
+            if (buffer.offer(hit, properties.getEnqueueTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+            log.warn("Буфер статистики переполнен, запрос {} записывается синхронно", hit.getUri());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private void persist(List<Stats> hits) {
+        statsDictionary.resolve(hits);
+        transactionTemplate.executeWithoutResult(status -> {
+            hitWriter.write(hits);
+            hitListeners.forEach(listener -> listener.onHits(hits));
+        });
+    }
+
+    private void drainLoop() {
+        List<Stats> batch = new ArrayList<>(properties.getBatchSize());
+        while (running || !buffer.isEmpty()) {
+            try {
+                collectBatch(batch);
+            } catch (InterruptedException e) {
+                // Прерывание только ускоряет остановку: оставшееся в буфере будет дописано
+                buffer.drainTo(batch, properties.getBatchSize() - batch.size());
+            }
+            flush(batch);
+        }
+    }
+
+    private void collectBatch(List<Stats> batch) throws InterruptedException {
+        Stats first = buffer.poll(properties.getFlushInterval().toMillis(), TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + properties.getFlushInterval().toNanos();
+        while (batch.size() < properties.getBatchSize()) {
+            buffer.drainTo(batch, properties.getBatchSize() - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= properties.getBatchSize() || remaining <= 0) {
+                break;
+            }
+            Stats next = buffer.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void flush(List<Stats> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long delay = properties.getRetryDelay().toMillis();
+        try {
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    persist(batch);
+                    log.debug("Записан пакет статистики из {} запросов", batch.size());
+                    return;
+                } catch (RuntimeException e) {
+                    if (isRejectedByDatabase(e) || attempt >= properties.getRetryAttempts()) {
+                        log.warn("Пакет статистики из {} запросов не записан после {} повторов, записываем " +
+                                "по частям: {}", batch.size(), attempt, e.getMessage());
+                        isolate(batch);
+                        return;
+                    }
+                    log.warn("Ошибка записи пакета статистики из {} запросов, повтор через {} мс: {}",
+                            batch.size(), delay, e.getMessage());
+                }
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    // Остановка не дождалась повторов: пакет не записан
+                    Thread.currentThread().interrupt();
+                    dropped.increment(batch.size());
+                    log.error("Пакет статистики из {} запросов отброшен при остановке", batch.size());
+                    return;
+                }
+                delay = Math.min(delay * 2, properties.getMaxRetryDelay().toMillis());
+            }
+        } finally {
+            batch.clear();
+        }
+    }
+
+    /**
+     * Ошибка вызвана данными запроса (строка длиннее столбца, недопустимое значение, нарушение ограничения),
+     * а не недоступностью БД: повтор той же записи её не исправит.
+     */
+    public static boolean isRejectedByDatabase(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DataIntegrityViolationException) {
+                return true;
+            }
+            // Классы SQLSTATE 22 (data exception) и 23 (integrity constraint violation)
+            if (cause instanceof SQLException sqlException && sqlException.getSQLState() != null
+                    && (sqlException.getSQLState().startsWith("22") || sqlException.getSQLState().startsWith("23"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void isolate(List<Stats> hits) {
+        int middle = hits.size() / 2;
+        settle(List.copyOf(hits.subList(0, middle)));
+        settle(List.copyOf(hits.subList(middle, hits.size())));
+    }
+
+    /**
+     * Одна попытка записи части пакета. Часть, отвергнутая из-за данных, делится дальше; при другой ошибке
+     * она отбрасывается целиком: повторы уже исчерпаны, а дробить пакет при недоступной БД бессмысленно.
+     */
+    private void settle(List<Stats> hits) {
+        if (hits.isEmpty()) {
+            return;
+        }
+        try {
+            persist(hits);
+        } catch (RuntimeException e) {
+            if (!isRejectedByDatabase(e)) {
+                dropped.increment(hits.size());
+                log.error("Часть пакета статистики из {} запросов отброшена: {}", hits.size(), e.getMessage(), e);
+            } else if (hits.size() > 1) {
+                isolate(hits);
+            } else {
+                rejected.increment();
+                log.error("Запрос app={}, uri={}, timestamp={} отвергнут БД и отброшен: {}", hits.getFirst().getApp(),
+                        hits.getFirst().getUri(), hits.getFirst().getTimestamp(), e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        if (isAsync()) {
+            writerThread = new Thread(this::drainLoop, "stats-hit-writer");
+            writerThread.start();
+            log.info("Запущена асинхронная запись статистики: batchSize={}, flushInterval={}",
+                    properties.getBatchSize(), properties.getFlushInterval());
+        }
+        if (isSpool()) {
+            hitSpool.start(properties.getBatchSize(), this::persist, HitIngestor::isRejectedByDatabase);
+        }
+    }
+
+    @Override
+    public void stop() {
+        runningLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            runningLock.writeLock().unlock();
+        }
+        if (isSpool()) {
+            hitSpool.stop(properties.getShutdownTimeout());
+        }
+        if (writerThread == null) {
+            return;
+        }
+        try {
+            writerThread.join(properties.getShutdownTimeout().toMillis());
+            if (writerThread.isAlive()) {
+                writerThread.interrupt();
+                log.warn("Не удалось дописать буфер статистики за {}, осталось {} запросов",
+                        properties.getShutdownTimeout(), buffer.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
@@ -0,0 +1,12 @@
+package ru.practicum.ingest;
+
+import ru.practicum.model.Stats;
+
+import java.util.List;
+
+/**
+ * Получает каждый записанный пакет запросов в той же транзакции, что и запись в таблицу stats.
+ */
+public interface HitListener {
+    void onHits(List<Stats> hits);
+}
@@ -0,0 +1,9 @@
+package ru.practicum.ingest;
+
+import ru.practicum.model.Stats;
+
+import java.util.List;
+
+public interface HitWriter {
+    void write(List<Stats> hits);
+}
@@ -0,0 +1,44 @@
+package ru.practicum.ingest;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "stats.ingest")
+public class IngestProperties {
+    // SYNC - запись каждого запроса сразу в БД, ASYNC - через буфер пакетами,
+    // SPOOL - через журнал на локальном диске (stats.spool)
+    private IngestMode mode = IngestMode.SYNC;
+    // JDBC - пакетный INSERT, COPY - поток строк по протоколу COPY PostgreSQL
+    private WriterType writer = WriterType.JDBC;
+    // Максимальное количество запросов, ожидающих записи
+    private int capacity = 10_000;
+    // Размер пакета, при достижении которого буфер сбрасывается в БД
+    private int batchSize = 500;
+    // Максимальное время ожидания неполного пакета
+    private Duration flushInterval = Duration.ofMillis(200);
+    // Сколько ждать места в переполненном буфере, прежде чем записать запрос синхронно
+    private Duration enqueueTimeout = Duration.ofMillis(50);
+    // Сколько раз повторить запись пакета после ошибки БД, прежде чем отбросить его
+    private int retryAttempts = 5;
+    // Пауза перед первым повтором; каждая следующая вдвое дольше, но не больше maxRetryDelay
+    private Duration retryDelay = Duration.ofMillis(200);
+    private Duration maxRetryDelay = Duration.ofSeconds(5);
+    // Сколько ждать дозаписи буфера при остановке сервиса
+    private Duration shutdownTimeout = Duration.ofSeconds(10);
+
+    public enum IngestMode {
+        SYNC,
+        ASYNC,
+        SPOOL
+    }
+
+    public enum WriterType {
+        JDBC,
+        COPY
+    }
+}
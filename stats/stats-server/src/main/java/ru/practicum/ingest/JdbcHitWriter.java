@@ -0,0 +1,32 @@
+package ru.practicum.ingest;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.practicum.model.Stats;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "stats.ingest", name = "writer", havingValue = "jdbc", matchIfMissing = true)
+public class JdbcHitWriter implements HitWriter {
+
+    private static final String INSERT_SQL = "INSERT INTO stats (app_id, uri_id, ip, time_stamp, hits) " +
+            "VALUES (?, ?, ?::inet, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void write(List<Stats> hits) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, hits, hits.size(), (ps, hit) -> {
+            ps.setInt(1, hit.getAppId());
+            ps.setInt(2, hit.getUriId());
+            ps.setString(3, hit.getIp());
+            ps.setTimestamp(4, Timestamp.valueOf(hit.getTimestamp()));
+            ps.setInt(5, hit.getHits());
+        });
+    }
+}
@@ -14,5 +14,8 @@ public interface StatsMapper {
     StatsDto toDto(Stats stats);
 
     @Mapping(target = "id", ignore = true)
+    @Mapping(target = "appId", ignore = true)
+    @Mapping(target = "uriId", ignore = true)
+    @Mapping(target = "templateId", ignore = true)
     Stats toEntity(HitDto hitDto);
 }
@@ -19,9 +19,22 @@ public class Stats {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     String id;
+    @Column(name = "app_id")
+    Integer appId;
+    @Column(name = "uri_id")
+    Integer uriId;
+    // Названия приложения и uri хранятся в словарях, в строке таблицы только их id
+    @Transient
     String app;
+    @Transient
     String uri;
+    // Шаблон uri, если uri подходит под один из stats.template.patterns
+    @Transient
+    Integer templateId;
+    // Столбец типа inet
     String ip;
     @Column(name = "time_stamp")
     LocalDateTime timestamp;
-}
\ No newline at end of file
+    // Число одинаковых запросов (app, uri, ip, секунда), свёрнутых клиентом в одну строку
+    Integer hits;
+}
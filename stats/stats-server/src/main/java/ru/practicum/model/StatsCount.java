@@ -0,0 +1,4 @@
+package ru.practicum.model;
+
+public record StatsCount(Integer appId, Integer uriId, Long hits) {
+}
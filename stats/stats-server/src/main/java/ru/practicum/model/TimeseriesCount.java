@@ -0,0 +1,6 @@
+package ru.practicum.model;
+
+import java.time.LocalDateTime;
+
+public record TimeseriesCount(LocalDateTime bucket, Integer appId, Integer uriId, Long hits) {
+}
@@ -0,0 +1,155 @@
+package ru.practicum.partition;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAdjusters;
+import java.util.List;
+
+/**
+ * Ведёт секции таблицы stats: заранее создаёт секции на ближайшие периоды и удаляет секции
+ * старше срока хранения целиком, без построчного DELETE. Секция по умолчанию создаётся в schema.sql;
+ * в неё попадают запросы за периоды без своей секции, и устаревшие строки из неё удаляются порциями.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PartitionManager {
+
+    private static final DateTimeFormatter SUFFIX_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final String DAY_PREFIX = "stats_p";
+    private static final String WEEK_PREFIX = "stats_w";
+    // Строк секции по умолчанию, удаляемых одним DELETE
+    private static final int DEFAULT_DELETE_BATCH = 10_000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PartitionProperties properties;
+
+    @Scheduled(initialDelay = 0, fixedDelayString = "${stats.partition.check-interval:PT1H}")
+    public void maintain() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        if (!isPartitioned()) {
+            log.warn("Таблица stats создана без секционирования, управление секциями пропущено");
+            return;
+        }
+        LocalDate period = periodStart(LocalDate.now());
+        for (int i = 0; i <= properties.getPremake(); i++) {
+            createPartition(period);
+            period = nextPeriod(period);
+        }
+        if (properties.getRetention() != null) {
+            dropPartitionsBefore(LocalDateTime.now().minus(properties.getRetention()));
+        }
+    }
+
+    /**
+     * Создаёт секции, покрывающие даты с from по to включительно. Перенос таблицы прежнего вида вызывает его
+     * до вставки строк, чтобы они легли в свои секции, а не в секцию по умолчанию.
+     */
+    public void createPartitions(LocalDate from, LocalDate to) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        for (LocalDate period = periodStart(from); !period.isAfter(to); period = nextPeriod(period)) {
+            createPartition(period);
+        }
+    }
+
+    /**
+     * Удаляет секции, целиком лежащие раньше threshold, и строки секции по умолчанию раньше threshold.
+     * Сжатие вызывает его до построчного удаления.
+     */
+    public void dropPartitionsBefore(LocalDateTime threshold) {
+        if (!properties.isEnabled() || !isPartitioned()) {
+            return;
+        }
+        dropExpiredPartitions(threshold);
+        deleteDefaultBefore(threshold);
+    }
+
+    private boolean isPartitioned() {
+        Boolean partitioned = jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM pg_partitioned_table WHERE partrelid = 'stats'::regclass)",
+                Boolean.class);
+        return Boolean.TRUE.equals(partitioned);
+    }
+
+    private void createPartition(LocalDate from) {
+        String name = prefix() + from.format(SUFFIX_FORMAT);
+        try {
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + name + " PARTITION OF stats FOR VALUES FROM ('"
+                    + from.atStartOfDay() + "') TO ('" + nextPeriod(from).atStartOfDay() + "')");
+        } catch (DataAccessException e) {
+            // Например, в секции по умолчанию уже есть строки за этот период
+            log.warn("Не удалось создать секцию {}: {}", name, e.getMessage());
+        }
+    }
+
+    private void dropExpiredPartitions(LocalDateTime threshold) {
+        List<String> partitions = jdbcTemplate.queryForList("SELECT c.relname FROM pg_inherits i " +
+                "JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = 'stats'::regclass", String.class);
+        for (String name : partitions) {
+            LocalDate end = partitionEnd(name);
+            if (end != null && !end.atStartOfDay().isAfter(threshold)) {
+                jdbcTemplate.execute("DROP TABLE IF EXISTS " + name);
+                log.info("Удалена секция статистики {}: данные раньше {}", name, threshold);
+            }
+        }
+    }
+
+    private void deleteDefaultBefore(LocalDateTime threshold) {
+        long total = 0;
+        int deleted;
+        do {
+            deleted = jdbcTemplate.update("DELETE FROM stats_default WHERE ctid IN (SELECT ctid FROM stats_default " +
+                    "WHERE time_stamp < ? LIMIT ?)", Timestamp.valueOf(threshold), DEFAULT_DELETE_BATCH);
+            total += deleted;
+        } while (deleted == DEFAULT_DELETE_BATCH);
+        if (total > 0) {
+            log.info("Из секции статистики по умолчанию удалено {} строк раньше {}", total, threshold);
+        }
+    }
+
+    private LocalDate partitionEnd(String name) {
+        try {
+            if (name.startsWith(DAY_PREFIX)) {
+                return LocalDate.parse(name.substring(DAY_PREFIX.length()), SUFFIX_FORMAT).plusDays(1);
+            }
+            if (name.startsWith(WEEK_PREFIX)) {
+                return LocalDate.parse(name.substring(WEEK_PREFIX.length()), SUFFIX_FORMAT).plusWeeks(1);
+            }
+        } catch (DateTimeParseException e) {
+            log.warn("Секция {} не соответствует схеме именования и не удаляется", name);
+        }
+        return null;
+    }
+
+    private String prefix() {
+        return properties.getInterval() == PartitionProperties.PartitionInterval.WEEK ? WEEK_PREFIX : DAY_PREFIX;
+    }
+
+    private LocalDate periodStart(LocalDate date) {
+        if (properties.getInterval() == PartitionProperties.PartitionInterval.WEEK) {
+            return date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+        }
+        return date;
+    }
+
+    private LocalDate nextPeriod(LocalDate from) {
+        return properties.getInterval() == PartitionProperties.PartitionInterval.WEEK
+                ? from.plusWeeks(1)
+                : from.plusDays(1);
+    }
+}
@@ -0,0 +1,25 @@
+package ru.practicum.partition;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "stats.partition")
+public class PartitionProperties {
+    private boolean enabled = true;
+    // Размер секции таблицы stats
+    private PartitionInterval interval = PartitionInterval.DAY;
+    // Сколько секций создавать заранее, не считая текущей
+    private int premake = 7;
+    // Секции, целиком старше этого срока, удаляются. Пусто - хранить всё
+    private Duration retention;
+
+    public enum PartitionInterval {
+        DAY,
+        WEEK
+    }
+}
@@ -0,0 +1,93 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.rollup.RollupGranularity;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+@Repository
+@RequiredArgsConstructor
+public class CompactionRepository {
+
+    // Граница сжатия перечитывается не реже раза в STATE_TTL: другие узлы могли её сдвинуть
+    public static final Duration STATE_TTL = Duration.ofMinutes(1);
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    private volatile CompactionState cached;
+
+    /**
+     * Момент, раньше которого сырых строк нет: этот период считается только по часовым и дневным агрегатам.
+     */
+    public LocalDateTime getCompactedBefore() {
+        CompactionState state = cached;
+        if (state == null || state.loadedAt().plus(STATE_TTL).isBefore(LocalDateTime.now())) {
+            state = readState();
+            cached = state;
+        }
+        return state.compactedBefore();
+    }
+
+    public CompactionState readState() {
+        return jdbcTemplate.getJdbcTemplate().queryForObject("SELECT compacted_before, purge_before, advanced_at " +
+                        "FROM stats_compaction_state WHERE id = 1", (rs, rowNum) -> new CompactionState(
+                        rs.getTimestamp("compacted_before").toLocalDateTime(),
+                        rs.getTimestamp("purge_before").toLocalDateTime(),
+                        rs.getTimestamp("advanced_at").toLocalDateTime(),
+                        LocalDateTime.now()));
+    }
+
+    /**
+     * Сдвигает границу сжатия вперёд; прежняя граница становится границей удаления.
+     */
+    public void advance(LocalDateTime compactedBefore) {
+        jdbcTemplate.update("UPDATE stats_compaction_state SET purge_before = compacted_before, " +
+                        "compacted_before = :compactedBefore, advanced_at = localtimestamp " +
+                        "WHERE id = 1 AND compacted_before < :compactedBefore",
+                new MapSqlParameterSource("compactedBefore", Timestamp.valueOf(compactedBefore)));
+        cached = null;
+    }
+
+    public LocalDateTime findOldestHit() {
+        Timestamp oldest = jdbcTemplate.getJdbcTemplate().queryForObject("SELECT min(time_stamp) FROM stats",
+                Timestamp.class);
+        return oldest == null ? null : oldest.toLocalDateTime();
+    }
+
+    /**
+     * Удаляет не больше batchSize сырых строк раньше before; каждый вызов - отдельная короткая транзакция.
+     *
+     * @return количество удалённых строк
+     */
+    public int deleteHitsBefore(LocalDateTime before, int batchSize) {
+        return jdbcTemplate.update("DELETE FROM stats WHERE (id, time_stamp) IN (SELECT id, time_stamp FROM stats " +
+                        "WHERE time_stamp < :before LIMIT :batchSize)",
+                new MapSqlParameterSource("before", Timestamp.valueOf(before)).addValue("batchSize", batchSize));
+    }
+
+    /**
+     * То же для минутных агрегатов: после сжатия период раньше before отвечается только часовыми и дневными.
+     */
+    public int deleteMinuteBucketsBefore(LocalDateTime before, int batchSize) {
+        int deleted = 0;
+        for (String table : new String[]{RollupGranularity.MINUTE.getTable(),
+                RollupGranularity.MINUTE.getTemplateTable()}) {
+            deleted += jdbcTemplate.update("DELETE FROM " + table + " WHERE ctid IN (SELECT ctid FROM " + table +
+                            " WHERE bucket_start < :before LIMIT :batchSize)",
+                    new MapSqlParameterSource("before", Timestamp.valueOf(before)).addValue("batchSize", batchSize));
+        }
+        return deleted;
+    }
+
+    /**
+     * @param loadedAt когда состояние прочитано из БД
+     */
+    public record CompactionState(LocalDateTime compactedBefore, LocalDateTime purgeBefore, LocalDateTime advancedAt,
+                                  LocalDateTime loadedAt) {
+    }
+}
@@ -0,0 +1,99 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.model.AppUri;
+import ru.practicum.model.Stats;
+import ru.practicum.model.StatsCount;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Журнал прироста для /stats/changes. Строки помечены id записавшей их транзакции (xid8), а курсор -
+ * xmin снимка: все транзакции с меньшим id к этому моменту завершены. Поэтому выборка [курсор, xmin)
+ * не теряет и не повторяет строки, даже если транзакции фиксируются не в порядке своих id.
+ */
+@Repository
+@RequiredArgsConstructor
+public class DeltaRepository {
+
+    private static final String XID = "CAST(CAST(:%s AS TEXT) AS XID8)";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * Добавляет прирост пакета, сгруппированный по парам app/uri. Вызывать в транзакции записи запросов.
+     */
+    public void append(List<Stats> hits) {
+        Map<AppUri, Long> counts = new HashMap<>();
+        for (Stats hit : hits) {
+            counts.merge(new AppUri(hit.getAppId(), hit.getUriId()), (long) hit.getHits(), Long::sum);
+        }
+        MapSqlParameterSource[] params = counts.entrySet().stream()
+                .map(entry -> new MapSqlParameterSource()
+                        .addValue("appId", entry.getKey().appId())
+                        .addValue("uriId", entry.getKey().uriId())
+                        .addValue("hits", entry.getValue()))
+                .toArray(MapSqlParameterSource[]::new);
+        jdbcTemplate.batchUpdate("INSERT INTO stats_delta (app_id, uri_id, hits) VALUES (:appId, :uriId, :hits)",
+                params);
+    }
+
+    /**
+     * Граница, до которой прирост уже окончателен.
+     */
+    public long currentPosition() {
+        return jdbcTemplate.getJdbcTemplate().queryForObject(
+                "SELECT CAST(CAST(pg_snapshot_xmin(pg_current_snapshot()) AS TEXT) AS BIGINT)", Long.class);
+    }
+
+    /**
+     * Прирост по парам app/uri, записанный транзакциями с id из [from, to).
+     *
+     * @param uriIds пустой список - по всем uri
+     */
+    public List<StatsCount> getChanges(long from, long to, List<Integer> uriIds) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("from", from)
+                .addValue("to", to);
+        String sql = "SELECT app_id, uri_id, sum(hits) AS hits FROM stats_delta WHERE tx_id >= " +
+                XID.formatted("from") + " AND tx_id < " + XID.formatted("to");
+        if (!uriIds.isEmpty()) {
+            sql += " AND uri_id IN (:uriIds)";
+            params.addValue("uriIds", uriIds);
+        }
+        sql += " GROUP BY app_id, uri_id ORDER BY hits DESC";
+        return jdbcTemplate.query(sql, params, (rs, rowNum) ->
+                new StatsCount(rs.getInt("app_id"), rs.getInt("uri_id"), rs.getLong("hits")));
+    }
+
+    /**
+     * Удалена ли часть прироста, начиная с позиции from.
+     */
+    public boolean isPruned(long from) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT pruned_through >= " + XID.formatted("from") +
+                " FROM stats_delta_state WHERE id = 1", new MapSqlParameterSource("from", from), Boolean.class));
+    }
+
+    /**
+     * Удаляет не больше batchSize строк, записанных раньше before, и запоминает наибольший удалённый id транзакции.
+     *
+     * @return количество удалённых строк
+     */
+    public int prune(LocalDateTime before, int batchSize) {
+        return jdbcTemplate.queryForObject("WITH deleted AS (DELETE FROM stats_delta WHERE ctid IN " +
+                        "(SELECT ctid FROM stats_delta WHERE created_at < :before LIMIT :batchSize) RETURNING tx_id), " +
+                        "state AS (UPDATE stats_delta_state SET pruned_through = GREATEST(pruned_through, " +
+                        "(SELECT tx_id FROM deleted ORDER BY tx_id DESC LIMIT 1)) " +
+                        "WHERE id = 1 AND EXISTS (SELECT 1 FROM deleted)) " +
+                        "SELECT count(*) FROM deleted",
+                new MapSqlParameterSource("before", Timestamp.valueOf(before)).addValue("batchSize", batchSize),
+                Integer.class);
+    }
+}
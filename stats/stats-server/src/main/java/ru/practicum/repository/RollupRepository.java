@@ -0,0 +1,245 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.model.Stats;
+import ru.practicum.model.StatsCount;
+import ru.practicum.rollup.BucketKey;
+import ru.practicum.rollup.RollupGranularity;
+import ru.practicum.rollup.RollupSegment;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+@Repository
+@RequiredArgsConstructor
+public class RollupRepository {
+
+    private static final int URI_STATE = 1;
+    private static final int TEMPLATE_STATE = 3;
+    // Ключ рекомендательной блокировки: пересчёт агрегатов по сырым данным не должен идти параллельно
+    // с пополнением тех же корзин запросами задним числом
+    private static final long BACKFILL_LOCK = 0x7374_6174_0001L;
+
+    // Сырые строки по шаблонам: шаблон uri берётся из словаря
+    private static final String TEMPLATE_RAW_SOURCE = "(SELECT s.app_id, u.template_id, s.ip, s.time_stamp, s.hits " +
+            "FROM stats s JOIN stats_uri u ON u.id = s.uri_id WHERE u.template_id IS NOT NULL)";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    private volatile LocalDateTime coveredFrom;
+    private volatile LocalDateTime templatesCoveredFrom;
+
+    /**
+     * Момент, начиная с которого агрегаты содержат все запросы. Более ранние данные есть только в stats.
+     */
+    public LocalDateTime getCoveredFrom() {
+        if (coveredFrom == null) {
+            coveredFrom = readCoveredFrom(URI_STATE);
+        }
+        return coveredFrom;
+    }
+
+    /**
+     * То же для агрегатов по шаблонам uri.
+     */
+    public LocalDateTime getTemplatesCoveredFrom() {
+        if (templatesCoveredFrom == null) {
+            templatesCoveredFrom = readCoveredFrom(TEMPLATE_STATE);
+        }
+        return templatesCoveredFrom;
+    }
+
+    /**
+     * Сбрасывает закэшированные границы: их мог сдвинуть пересчёт на этом или другом узле.
+     */
+    public void refreshCoveredFrom() {
+        coveredFrom = null;
+        templatesCoveredFrom = null;
+    }
+
+    /**
+     * Корзины раньше этого момента может пересчитывать догоняющий проход сжатия (целыми сутками от covered_from назад).
+     */
+    public LocalDateTime getBackfillBoundary() {
+        LocalDateTime covered = getCoveredFrom().isAfter(getTemplatesCoveredFrom())
+                ? getCoveredFrom()
+                : getTemplatesCoveredFrom();
+        return RollupGranularity.DAY.floor(covered).plusDays(1);
+    }
+
+    /**
+     * Блокировка до конца транзакции: разделяемая - для записи запросов задним числом, исключительная - для пересчёта.
+     */
+    public void lockBackfill(boolean shared) {
+        jdbcTemplate.getJdbcTemplate().queryForList(shared
+                ? "SELECT pg_advisory_xact_lock_shared(?)"
+                : "SELECT pg_advisory_xact_lock(?)", BACKFILL_LOCK);
+    }
+
+    /**
+     * Пересчитывает все корзины агрегатов из [from, to) по сырым строкам stats и расширяет покрытие до from.
+     * Сырые данные полны и включают запросы задним числом, поэтому корзины заменяются, а не пополняются.
+     * Вызывать в транзакции под исключительной lockBackfill.
+     */
+    public void rebuild(LocalDateTime from, LocalDateTime to) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("from", Timestamp.valueOf(from))
+                .addValue("to", Timestamp.valueOf(to));
+        for (RollupGranularity granularity : RollupGranularity.values()) {
+            rebuild(granularity.getTable(), "uri_id", "stats", granularity, params);
+            rebuild(granularity.getTemplateTable(), "template_id", TEMPLATE_RAW_SOURCE, granularity, params);
+        }
+        jdbcTemplate.update("UPDATE stats_rollup_state SET covered_from = LEAST(covered_from, :from) " +
+                "WHERE id IN (" + URI_STATE + ", " + TEMPLATE_STATE + ")", params);
+        refreshCoveredFrom();
+    }
+
+    private void rebuild(String table, String idColumn, String rawSource, RollupGranularity granularity,
+                         MapSqlParameterSource params) {
+        jdbcTemplate.update("DELETE FROM " + table + " WHERE bucket_start >= :from AND bucket_start < :to", params);
+        jdbcTemplate.update("INSERT INTO " + table + " (bucket_start, app_id, " + idColumn + ", hits) " +
+                "SELECT date_trunc('" + granularity.getTruncUnit() + "', time_stamp), app_id, " + idColumn +
+                ", sum(hits) FROM " + rawSource + " AS r WHERE time_stamp >= :from AND time_stamp < :to " +
+                "GROUP BY 1, 2, 3", params);
+    }
+
+    private LocalDateTime readCoveredFrom(int id) {
+        return jdbcTemplate.queryForObject("SELECT covered_from FROM stats_rollup_state WHERE id = :id",
+                new MapSqlParameterSource("id", id), Timestamp.class).toLocalDateTime();
+    }
+
+    public void increment(RollupGranularity granularity, List<Stats> hits) {
+        increment(granularity.getTable(), "uri_id", granularity, hits, Stats::getUriId);
+    }
+
+    /**
+     * Пополняет агрегаты по шаблонам; запросы к uri без шаблона пропускаются.
+     */
+    public void incrementTemplates(RollupGranularity granularity, List<Stats> hits) {
+        increment(granularity.getTemplateTable(), "template_id", granularity, hits, Stats::getTemplateId);
+    }
+
+    private void increment(String table, String idColumn, RollupGranularity granularity, List<Stats> hits,
+                           Function<Stats, Integer> id) {
+        Map<BucketKey, Long> counts = new TreeMap<>(BucketKey.LOCK_ORDER);
+        for (Stats hit : hits) {
+            if (id.apply(hit) != null) {
+                counts.merge(new BucketKey(granularity.floor(hit.getTimestamp()), hit.getAppId(), id.apply(hit)),
+                        (long) hit.getHits(), Long::sum);
+            }
+        }
+        if (counts.isEmpty()) {
+            return;
+        }
+        String sql = "INSERT INTO " + table + " (bucket_start, app_id, " + idColumn + ", hits) " +
+                "VALUES (:bucket, :appId, :id, :hits) " +
+                "ON CONFLICT (bucket_start, app_id, " + idColumn + ") DO UPDATE SET hits = " + table +
+                ".hits + EXCLUDED.hits";
+        MapSqlParameterSource[] params = counts.entrySet().stream()
+                .map(entry -> new MapSqlParameterSource()
+                        .addValue("bucket", Timestamp.valueOf(entry.getKey().bucket()))
+                        .addValue("appId", entry.getKey().appId())
+                        .addValue("id", entry.getKey().uriId())
+                        .addValue("hits", entry.getValue()))
+                .toArray(MapSqlParameterSource[]::new);
+        jdbcTemplate.batchUpdate(sql, params);
+    }
+
+    /**
+     * Считает количество запросов одним SQL-запросом: агрегаты и сырые остатки объединяются через UNION ALL.
+     * Результат читается курсором; поток нужно закрыть, а внутри транзакции строки подгружаются порциями.
+     */
+    public Stream<StatsCount> streamStats(List<RollupSegment> segments, List<Integer> uriIds, Integer limit) {
+        return streamStats(segments, RollupGranularity::getTable, "stats", "uri_id", uriIds, limit);
+    }
+
+    /**
+     * То же по шаблонам uri: в StatsCount вместо id uri - id шаблона.
+     */
+    public Stream<StatsCount> streamTemplateStats(List<RollupSegment> segments, List<Integer> templateIds,
+                                                  Integer limit) {
+        return streamStats(segments, RollupGranularity::getTemplateTable, TEMPLATE_RAW_SOURCE, "template_id",
+                templateIds, limit);
+    }
+
+    /**
+     * k самых посещаемых uri приложения начиная с from: по минутным агрегатам, а если они ещё не покрывают from -
+     * по таблице stats. В отличие от скетчей TopUrisTracker учитывает запросы, записанные всеми экземплярами.
+     */
+    public List<StatsCount> findTopUris(int appId, LocalDateTime from, int k) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("appId", appId)
+                .addValue("from", Timestamp.valueOf(from))
+                .addValue("k", k);
+        String source = from.isBefore(getCoveredFrom())
+                ? "stats WHERE time_stamp >= :from"
+                : RollupGranularity.MINUTE.getTable() + " WHERE bucket_start >= :from";
+        return jdbcTemplate.query("SELECT app_id, uri_id, sum(hits) AS hits FROM " + source +
+                        " AND app_id = :appId GROUP BY app_id, uri_id ORDER BY hits DESC LIMIT :k", params,
+                (rs, rowNum) -> new StatsCount(rs.getInt("app_id"), rs.getInt("uri_id"), rs.getLong("hits")));
+    }
+
+    /**
+     * Количество уникальных IP по шаблонам uri за [start, end]; считается по таблице stats.
+     */
+    public Stream<StatsCount> streamUniqueTemplateStats(LocalDateTime start, LocalDateTime end,
+                                                        List<Integer> templateIds, Integer limit) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("start", Timestamp.valueOf(start))
+                .addValue("end", Timestamp.valueOf(end));
+        String sql = "SELECT app_id, template_id AS id, count(DISTINCT ip) AS hits FROM " + TEMPLATE_RAW_SOURCE +
+                " AS r WHERE time_stamp BETWEEN :start AND :end";
+        if (!templateIds.isEmpty()) {
+            sql += " AND template_id IN (:ids)";
+            params.addValue("ids", templateIds);
+        }
+        sql += " GROUP BY app_id, template_id ORDER BY hits DESC";
+        if (limit != null) {
+            sql += " LIMIT :limit";
+            params.addValue("limit", limit);
+        }
+        return jdbcTemplate.queryForStream(sql, params, (rs, rowNum) ->
+                new StatsCount(rs.getInt("app_id"), rs.getInt("id"), rs.getLong("hits")));
+    }
+
+    private Stream<StatsCount> streamStats(List<RollupSegment> segments, Function<RollupGranularity, String> table,
+                                           String rawSource, String idColumn, List<Integer> ids, Integer limit) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        List<String> parts = new ArrayList<>();
+        String idFilter = ids.isEmpty() ? "" : " AND " + idColumn + " IN (:ids)";
+        if (!ids.isEmpty()) {
+            params.addValue("ids", ids);
+        }
+        for (int i = 0; i < segments.size(); i++) {
+            RollupSegment segment = segments.get(i);
+            params.addValue("from" + i, Timestamp.valueOf(segment.from()));
+            params.addValue("to" + i, Timestamp.valueOf(segment.to()));
+            if (segment.isRaw()) {
+                String upper = segment.toInclusive() ? " <= :to" : " < :to";
+                parts.add("SELECT app_id, " + idColumn + " AS id, sum(hits) AS hits FROM " + rawSource +
+                        " AS r WHERE time_stamp >= :from" + i + " AND time_stamp" + upper + i + idFilter +
+                        " GROUP BY app_id, " + idColumn);
+            } else {
+                parts.add("SELECT app_id, " + idColumn + " AS id, hits FROM " + table.apply(segment.granularity()) +
+                        " WHERE bucket_start >= :from" + i + " AND bucket_start < :to" + i + idFilter);
+            }
+        }
+        String sql = "SELECT app_id, id, sum(hits) AS hits FROM (" + String.join(" UNION ALL ", parts) + ") AS s " +
+                "GROUP BY app_id, id ORDER BY hits DESC";
+        if (limit != null) {
+            sql += " LIMIT :limit";
+            params.addValue("limit", limit);
+        }
+        return jdbcTemplate.queryForStream(sql, params, (rs, rowNum) ->
+                new StatsCount(rs.getInt("app_id"), rs.getInt("id"), rs.getLong("hits")));
+    }
+}
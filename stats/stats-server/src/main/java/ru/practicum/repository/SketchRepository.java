@@ -0,0 +1,183 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.dto.sketch.HyperLogLog;
+import ru.practicum.model.AppUri;
+import ru.practicum.rollup.BucketKey;
+import ru.practicum.rollup.RollupGranularity;
+import ru.practicum.rollup.RollupSegment;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+@Repository
+@RequiredArgsConstructor
+public class SketchRepository {
+
+    // Корзины, для которых ведутся скетчи уникальных IP, от крупных к мелким
+    public static final List<RollupGranularity> GRANULARITIES = List.of(RollupGranularity.DAY, RollupGranularity.HOUR);
+    // Ключей в одном чтении и пакетном upsert при слиянии
+    private static final int MERGE_CHUNK_SIZE = 1000;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    private volatile LocalDateTime coveredFrom;
+
+    public LocalDateTime getCoveredFrom() {
+        if (coveredFrom == null) {
+            coveredFrom = jdbcTemplate.getJdbcTemplate().queryForObject(
+                    "SELECT covered_from FROM stats_rollup_state WHERE id = 2", Timestamp.class).toLocalDateTime();
+        }
+        return coveredFrom;
+    }
+
+    public void refreshCoveredFrom() {
+        coveredFrom = null;
+    }
+
+    /**
+     * Добавляет в скетчи корзин из [from, to) уникальные IP сырых строк и расширяет покрытие до from.
+     * Слияние скетчей идемпотентно, поэтому уже учтённые запросы не искажают оценку.
+     */
+    public void rebuild(LocalDateTime from, LocalDateTime to, int precision) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("from", Timestamp.valueOf(from))
+                .addValue("to", Timestamp.valueOf(to));
+        for (RollupGranularity granularity : GRANULARITIES) {
+            Map<BucketKey, HyperLogLog> sketches = new TreeMap<>(BucketKey.LOCK_ORDER);
+            jdbcTemplate.query("SELECT DISTINCT date_trunc('" + granularity.getTruncUnit() + "', time_stamp) " +
+                            "AS bucket, app_id, uri_id, ip FROM stats WHERE time_stamp >= :from AND time_stamp < :to",
+                    params,
+                    (RowCallbackHandler) rs -> sketches
+                            .computeIfAbsent(new BucketKey(rs.getTimestamp("bucket").toLocalDateTime(),
+                                    rs.getInt("app_id"), rs.getInt("uri_id")), key -> new HyperLogLog(precision))
+                            .addIp(rs.getString("ip")));
+            merge(granularity, sketches);
+        }
+        jdbcTemplate.update("UPDATE stats_rollup_state SET covered_from = LEAST(covered_from, :from) WHERE id = 2",
+                params);
+        refreshCoveredFrom();
+    }
+
+    /**
+     * Сливает скетчи пакета с сохранёнными. Ключи должны идти в порядке BucketKey.LOCK_ORDER.
+     * Сохранённые скетчи читаются одним запросом, результат пишется одним пакетным upsert, который заменяет строку,
+     * только если она не изменилась после чтения. Строки, которые успела изменить параллельная транзакция,
+     * сливаются заново с их новым значением. Скетчи другой точности сворачиваются до меньшей из двух.
+     */
+    public void merge(RollupGranularity granularity, Map<BucketKey, HyperLogLog> sketches) {
+        List<BucketKey> keys = new ArrayList<>(sketches.keySet());
+        for (int from = 0; from < keys.size(); from += MERGE_CHUNK_SIZE) {
+            Map<BucketKey, HyperLogLog> chunk = new TreeMap<>(BucketKey.LOCK_ORDER);
+            for (BucketKey key : keys.subList(from, Math.min(from + MERGE_CHUNK_SIZE, keys.size()))) {
+                chunk.put(key, sketches.get(key));
+            }
+            while (!chunk.isEmpty()) {
+                chunk = mergeChunk(granularity.getSketchTable(), chunk);
+            }
+        }
+    }
+
+    /**
+     * @return скетчи, строки которых изменила параллельная транзакция
+     */
+    private Map<BucketKey, HyperLogLog> mergeChunk(String table, Map<BucketKey, HyperLogLog> sketches) {
+        Map<BucketKey, byte[]> stored = load(table, sketches.keySet());
+        List<BucketKey> keys = new ArrayList<>();
+        List<MapSqlParameterSource> params = new ArrayList<>();
+        sketches.forEach((key, sketch) -> {
+            byte[] expected = stored.get(key);
+            byte[] registers = expected == null
+                    ? sketch.toBytes()
+                    : HyperLogLog.fromBytes(expected).union(sketch).toBytes();
+            // Повторные посещения с уже учтённых IP обычно не меняют регистры - тогда записывать нечего
+            if (!Arrays.equals(expected, registers)) {
+                keys.add(key);
+                params.add(keyParams(key)
+                        .addValue("registers", registers)
+                        .addValue("expected", expected, Types.BINARY));
+            }
+        });
+        int[] updated = jdbcTemplate.batchUpdate("INSERT INTO " + table + " AS t " +
+                        "(bucket_start, app_id, uri_id, registers) VALUES (:bucket, :appId, :uriId, :registers) " +
+                        "ON CONFLICT (bucket_start, app_id, uri_id) DO UPDATE SET registers = EXCLUDED.registers " +
+                        "WHERE t.registers = :expected",
+                params.toArray(MapSqlParameterSource[]::new));
+        Map<BucketKey, HyperLogLog> conflicts = new TreeMap<>(BucketKey.LOCK_ORDER);
+        for (int i = 0; i < keys.size(); i++) {
+            if (updated[i] == 0) {
+                conflicts.put(keys.get(i), sketches.get(keys.get(i)));
+            }
+        }
+        return conflicts;
+    }
+
+    private Map<BucketKey, byte[]> load(String table, Set<BucketKey> keys) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("buckets", keys.stream().map(key -> Timestamp.valueOf(key.bucket())).distinct().toList())
+                .addValue("appIds", keys.stream().map(BucketKey::appId).distinct().toList())
+                .addValue("uriIds", keys.stream().map(BucketKey::uriId).distinct().toList());
+        Map<BucketKey, byte[]> stored = new HashMap<>();
+        // Условие шире набора ключей: лишние сочетания корзины, приложения и uri отбрасываются здесь
+        jdbcTemplate.query("SELECT bucket_start, app_id, uri_id, registers FROM " + table +
+                        " WHERE bucket_start IN (:buckets) AND app_id IN (:appIds) AND uri_id IN (:uriIds)", params,
+                (RowCallbackHandler) rs -> {
+                    BucketKey key = new BucketKey(rs.getTimestamp("bucket_start").toLocalDateTime(),
+                            rs.getInt("app_id"), rs.getInt("uri_id"));
+                    if (keys.contains(key)) {
+                        stored.put(key, rs.getBytes("registers"));
+                    }
+                });
+        return stored;
+    }
+
+    /**
+     * Собирает скетчи уникальных IP по отрезкам: корзины берутся из таблиц скетчей,
+     * сырые отрезки добавляются в скетч по строкам stats.
+     */
+    public Map<AppUri, HyperLogLog> getSketches(List<RollupSegment> segments, List<Integer> uriIds, int precision) {
+        Map<AppUri, HyperLogLog> result = new HashMap<>();
+        String uriFilter = uriIds.isEmpty() ? "" : " AND uri_id IN (:uriIds)";
+        for (RollupSegment segment : segments) {
+            MapSqlParameterSource params = new MapSqlParameterSource()
+                    .addValue("from", Timestamp.valueOf(segment.from()))
+                    .addValue("to", Timestamp.valueOf(segment.to()));
+            if (!uriIds.isEmpty()) {
+                params.addValue("uriIds", uriIds);
+            }
+            if (segment.isRaw()) {
+                String upper = segment.toInclusive() ? " <= :to" : " < :to";
+                jdbcTemplate.query("SELECT DISTINCT app_id, uri_id, ip FROM stats WHERE time_stamp >= :from " +
+                        "AND time_stamp" + upper + uriFilter, params, (RowCallbackHandler) rs -> result
+                        .computeIfAbsent(new AppUri(rs.getInt("app_id"), rs.getInt("uri_id")),
+                                key -> new HyperLogLog(precision))
+                        .addIp(rs.getString("ip")));
+            } else {
+                jdbcTemplate.query("SELECT app_id, uri_id, registers FROM " + segment.granularity().getSketchTable() +
+                        " WHERE bucket_start >= :from AND bucket_start < :to" + uriFilter, params,
+                        (RowCallbackHandler) rs -> result.merge(new AppUri(rs.getInt("app_id"), rs.getInt("uri_id")),
+                                HyperLogLog.fromBytes(rs.getBytes("registers")), HyperLogLog::union));
+            }
+        }
+        return result;
+    }
+
+    private MapSqlParameterSource keyParams(BucketKey key) {
+        return new MapSqlParameterSource()
+                .addValue("bucket", Timestamp.valueOf(key.bucket()))
+                .addValue("appId", key.appId())
+                .addValue("uriId", key.uriId());
+    }
+}
@@ -1,53 +1,42 @@
 package ru.practicum.repository;
 
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
-import ru.practicum.dto.StatsDto;
+import org.springframework.data.jpa.repository.QueryHints;
 import ru.practicum.model.Stats;
+import ru.practicum.model.StatsCount;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 
-public interface StatRepository extends JpaRepository<Stats, Long> {
-    @Query("""
-                SELECT new ru.practicum.dto.StatsDto(s.app, s.uri, count(s.ip))
-                FROM Stats AS s
-                WHERE s.timestamp BETWEEN :start AND :end AND s.uri IN :uris
-                GROUP BY s.app, s.uri
-                ORDER BY count(s.ip) DESC
-            """)
-    List<StatsDto> getStatsWithUri(LocalDateTime start,
-                                   LocalDateTime end,
-                                   List<String> uris);
-
-    @Query("""
-                SELECT new ru.practicum.dto.StatsDto(s.app, s.uri, count(s.ip))
-                FROM Stats AS s
-                WHERE s.timestamp BETWEEN :start AND :end
-                GROUP BY s.app, s.uri
-                ORDER BY count(s.ip) DESC
-            """)
-    List<StatsDto> getStatsWithoutUri(LocalDateTime start,
-                                      LocalDateTime end);
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
 
+public interface StatRepository extends JpaRepository<Stats, Long> {
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
     @Query("""
-                SELECT new ru.practicum.dto.StatsDto(s.app, s.uri, count(DISTINCT s.ip))
+                SELECT new ru.practicum.model.StatsCount(s.appId, s.uriId, count(DISTINCT s.ip))
                 FROM Stats AS s
-                WHERE s.timestamp BETWEEN :start AND :end AND s.uri IN :uris
-                GROUP BY s.app, s.uri
+                WHERE s.timestamp BETWEEN :start AND :end AND s.uriId IN :uriIds
+                GROUP BY s.appId, s.uriId
                 ORDER BY count(DISTINCT s.ip) DESC
             """)
-    List<StatsDto> getStatWithUriWithUniqueIp(LocalDateTime start,
-                                              LocalDateTime end,
-                                              List<String> uris);
+    Stream<StatsCount> getStatWithUriWithUniqueIp(LocalDateTime start,
+                                                  LocalDateTime end,
+                                                  List<Integer> uriIds,
+                                                  Limit limit);
 
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
     @Query("""
-                SELECT new ru.practicum.dto.StatsDto(s.app, s.uri, count(DISTINCT s.ip))
+                SELECT new ru.practicum.model.StatsCount(s.appId, s.uriId, count(DISTINCT s.ip))
                 FROM Stats AS s
                 WHERE s.timestamp BETWEEN :start AND :end
-                GROUP BY s.app, s.uri
+                GROUP BY s.appId, s.uriId
                 ORDER BY count(DISTINCT s.ip) DESC
             """)
-    List<StatsDto> getStatsWithoutUriWithUniqueIp(LocalDateTime start,
-                                                  LocalDateTime end);
-}
\ No newline at end of file
+    Stream<StatsCount> getStatsWithoutUriWithUniqueIp(LocalDateTime start,
+                                                      LocalDateTime end,
+                                                      Limit limit);
+}
@@ -0,0 +1,80 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.model.TimeseriesCount;
+import ru.practicum.rollup.RollupGranularity;
+import ru.practicum.rollup.RollupSegment;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+@Repository
+@RequiredArgsConstructor
+public class TimeseriesRepository {
+
+    private static final RowMapper<TimeseriesCount> ROW_MAPPER = (rs, rowNum) -> new TimeseriesCount(
+            rs.getTimestamp("bucket").toLocalDateTime(), rs.getInt("app_id"), rs.getInt("uri_id"),
+            rs.getLong("hits"));
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * Количество запросов по корзинам interval одним SQL-запросом: середина интервала берётся из агрегатов
+     * не крупнее interval, края и данные до начала агрегатов - из stats. Строки упорядочены по app, uri и корзине.
+     */
+    public Stream<TimeseriesCount> streamHits(List<RollupSegment> segments, RollupGranularity interval,
+                                              List<Integer> uriIds) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        List<String> parts = new ArrayList<>();
+        String uriFilter = uriFilter(uriIds, params);
+        String trunc = "date_trunc('" + interval.getTruncUnit() + "', ";
+        for (int i = 0; i < segments.size(); i++) {
+            RollupSegment segment = segments.get(i);
+            params.addValue("from" + i, Timestamp.valueOf(segment.from()));
+            params.addValue("to" + i, Timestamp.valueOf(segment.to()));
+            if (segment.isRaw()) {
+                String upper = segment.toInclusive() ? " <= :to" : " < :to";
+                parts.add("SELECT " + trunc + "time_stamp) AS bucket, app_id, uri_id, sum(hits) AS hits FROM stats " +
+                        "WHERE time_stamp >= :from" + i + " AND time_stamp" + upper + i + uriFilter +
+                        " GROUP BY 1, app_id, uri_id");
+            } else {
+                parts.add("SELECT " + trunc + "bucket_start) AS bucket, app_id, uri_id, hits FROM " +
+                        segment.granularity().getTable() + " WHERE bucket_start >= :from" + i +
+                        " AND bucket_start < :to" + i + uriFilter);
+            }
+        }
+        String sql = "SELECT bucket, app_id, uri_id, sum(hits) AS hits FROM (" + String.join(" UNION ALL ", parts) +
+                ") AS s GROUP BY bucket, app_id, uri_id ORDER BY app_id, uri_id, bucket";
+        return jdbcTemplate.queryForStream(sql, params, ROW_MAPPER);
+    }
+
+    /**
+     * Количество уникальных IP по корзинам interval. Уникальные значения не складываются из агрегатов,
+     * поэтому считаются по таблице stats.
+     */
+    public Stream<TimeseriesCount> streamUniqueHits(LocalDateTime start, LocalDateTime end,
+                                                    RollupGranularity interval, List<Integer> uriIds) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("start", Timestamp.valueOf(start))
+                .addValue("end", Timestamp.valueOf(end));
+        String sql = "SELECT date_trunc('" + interval.getTruncUnit() + "', time_stamp) AS bucket, app_id, uri_id, " +
+                "count(DISTINCT ip) AS hits FROM stats WHERE time_stamp BETWEEN :start AND :end" +
+                uriFilter(uriIds, params) + " GROUP BY 1, app_id, uri_id ORDER BY app_id, uri_id, bucket";
+        return jdbcTemplate.queryForStream(sql, params, ROW_MAPPER);
+    }
+
+    private String uriFilter(List<Integer> uriIds, MapSqlParameterSource params) {
+        if (uriIds.isEmpty()) {
+            return "";
+        }
+        params.addValue("uriIds", uriIds);
+        return " AND uri_id IN (:uriIds)";
+    }
+}
@@ -0,0 +1,196 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.model.AppUri;
+import ru.practicum.rollup.BucketKey;
+import ru.practicum.rollup.RollupSegment;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+@Repository
+@RequiredArgsConstructor
+public class VisitorRepository {
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    private volatile LocalDateTime coveredFrom;
+
+    public LocalDateTime getCoveredFrom() {
+        if (coveredFrom == null) {
+            coveredFrom = jdbcTemplate.getJdbcTemplate().queryForObject(
+                    "SELECT covered_from FROM stats_rollup_state WHERE id = 5", Timestamp.class).toLocalDateTime();
+        }
+        return coveredFrom;
+    }
+
+    /**
+     * Выдаёт IP плотные id, добавляя новые IP в словарь. Ключи результата - IP в том виде, в каком переданы.
+     * Вставляются только IP, которых нет в словаре: INSERT ... ON CONFLICT DO NOTHING тратит значение
+     * последовательности и на уже известный IP, а пропуски в id раздувают битовые карты.
+     */
+    public Map<String, Integer> resolveIps(Collection<String> ips) {
+        String[] distinct = ips.stream().distinct().toArray(String[]::new);
+        Map<String, Integer> ids = findIps(distinct);
+        if (ids.size() == distinct.length) {
+            return ids;
+        }
+        String[] missing = Arrays.stream(distinct).filter(ip -> !ids.containsKey(ip)).toArray(String[]::new);
+        // Порядок вставки постоянен, чтобы параллельные пакеты с общими IP не взаимоблокировались;
+        // ON CONFLICT остаётся на случай, когда тот же IP одновременно добавляет другой пакет
+        jdbcTemplate.update("INSERT INTO stats_ip (ip) SELECT DISTINCT CAST(raw AS INET) " +
+                "FROM unnest(CAST(:ips AS TEXT[])) AS raw " +
+                "WHERE NOT EXISTS (SELECT 1 FROM stats_ip i WHERE i.ip = CAST(raw AS INET)) " +
+                "ORDER BY 1 ON CONFLICT (ip) DO NOTHING", new MapSqlParameterSource("ips", missing));
+        ids.putAll(findIps(missing));
+        return ids;
+    }
+
+    private Map<String, Integer> findIps(String[] ips) {
+        Map<String, Integer> ids = new HashMap<>();
+        jdbcTemplate.query("SELECT r.raw, i.id FROM unnest(CAST(:ips AS TEXT[])) AS r(raw) " +
+                        "JOIN stats_ip i ON i.ip = CAST(r.raw AS INET)", new MapSqlParameterSource("ips", ips),
+                (RowCallbackHandler) rs -> ids.put(rs.getString("raw"), rs.getInt("id")));
+        return ids;
+    }
+
+    /**
+     * Объединяет битовые карты пакета с сохранёнными. Ключи должны идти в порядке BucketKey.LOCK_ORDER.
+     */
+    public void merge(Map<BucketKey, RoaringBitmap> bitmaps) {
+        List<BucketKey> keys = new ArrayList<>(bitmaps.keySet());
+        MapSqlParameterSource[] params = keys.stream()
+                .map(key -> keyParams(key).addValue("visitors", toBytes(bitmaps.get(key))))
+                .toArray(MapSqlParameterSource[]::new);
+        int[] inserted = jdbcTemplate.batchUpdate("INSERT INTO stats_visitor_hour (bucket_start, app_id, uri_id, " +
+                "visitors) VALUES (:bucket, :appId, :uriId, :visitors) " +
+                "ON CONFLICT (bucket_start, app_id, uri_id) DO NOTHING", params);
+        for (int i = 0; i < keys.size(); i++) {
+            if (inserted[i] == 1) {
+                continue;
+            }
+            BucketKey key = keys.get(i);
+            RoaringBitmap stored = fromBytes(jdbcTemplate.queryForObject("SELECT visitors FROM stats_visitor_hour " +
+                    "WHERE bucket_start = :bucket AND app_id = :appId AND uri_id = :uriId FOR UPDATE", keyParams(key),
+                    byte[].class));
+            RoaringBitmap added = bitmaps.get(key);
+            // Повторные посещения уже учтёнными IP карту не меняют - тогда обновлять нечего
+            if (!stored.contains(added)) {
+                stored.or(added);
+                jdbcTemplate.update("UPDATE stats_visitor_hour SET visitors = :visitors, version = version + 1 " +
+                                "WHERE bucket_start = :bucket AND app_id = :appId AND uri_id = :uriId",
+                        keyParams(key).addValue("visitors", toBytes(stored)));
+            }
+        }
+    }
+
+    /**
+     * Битовые карты часов, начинающихся в hours, с их версиями.
+     *
+     * @param uriIds пустой список - по всем uri
+     */
+    public void forEachBitmap(Collection<LocalDateTime> hours, Collection<Integer> uriIds,
+                              BiConsumer<BucketKey, HourBitmap> consumer) {
+        MapSqlParameterSource params = hourParams(hours, uriIds);
+        jdbcTemplate.query("SELECT bucket_start, app_id, uri_id, visitors, version FROM stats_visitor_hour " +
+                        "WHERE bucket_start IN (:hours)" + uriFilter(uriIds), params,
+                (RowCallbackHandler) rs -> consumer.accept(bucketKey(rs),
+                        new HourBitmap(fromBytes(rs.getBytes("visitors")), rs.getLong("version"))));
+    }
+
+    /**
+     * Только версии карт часов, начинающихся в hours: сверка кэша без чтения самих карт.
+     */
+    public void forEachVersion(Collection<LocalDateTime> hours, Collection<Integer> uriIds,
+                               BiConsumer<BucketKey, Long> consumer) {
+        MapSqlParameterSource params = hourParams(hours, uriIds);
+        jdbcTemplate.query("SELECT bucket_start, app_id, uri_id, version FROM stats_visitor_hour " +
+                        "WHERE bucket_start IN (:hours)" + uriFilter(uriIds), params,
+                (RowCallbackHandler) rs -> consumer.accept(bucketKey(rs), rs.getLong("version")));
+    }
+
+    private static MapSqlParameterSource hourParams(Collection<LocalDateTime> hours, Collection<Integer> uriIds) {
+        MapSqlParameterSource params = new MapSqlParameterSource("hours",
+                hours.stream().map(Timestamp::valueOf).toList());
+        if (!uriIds.isEmpty()) {
+            params.addValue("uriIds", uriIds);
+        }
+        return params;
+    }
+
+    private static String uriFilter(Collection<Integer> uriIds) {
+        return uriIds.isEmpty() ? "" : " AND uri_id IN (:uriIds)";
+    }
+
+    private static BucketKey bucketKey(ResultSet rs) throws SQLException {
+        return new BucketKey(rs.getTimestamp("bucket_start").toLocalDateTime(), rs.getInt("app_id"),
+                rs.getInt("uri_id"));
+    }
+
+    /**
+     * id IP из сырых строк отрезка; IP, которых нет в словаре, пропускаются.
+     */
+    public void forEachRawVisitor(RollupSegment segment, Collection<Integer> uriIds,
+                                  BiConsumer<AppUri, Integer> consumer) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("from", Timestamp.valueOf(segment.from()))
+                .addValue("to", Timestamp.valueOf(segment.to()));
+        String uriFilter = "";
+        if (!uriIds.isEmpty()) {
+            uriFilter = " AND s.uri_id IN (:uriIds)";
+            params.addValue("uriIds", uriIds);
+        }
+        String upper = segment.toInclusive() ? " <= :to" : " < :to";
+        jdbcTemplate.query("SELECT DISTINCT s.app_id, s.uri_id, i.id FROM stats s JOIN stats_ip i ON i.ip = s.ip " +
+                        "WHERE s.time_stamp >= :from AND s.time_stamp" + upper + uriFilter, params,
+                (RowCallbackHandler) rs -> consumer.accept(new AppUri(rs.getInt("app_id"), rs.getInt("uri_id")),
+                        rs.getInt("id")));
+    }
+
+    private MapSqlParameterSource keyParams(BucketKey key) {
+        return new MapSqlParameterSource()
+                .addValue("bucket", Timestamp.valueOf(key.bucket()))
+                .addValue("appId", key.appId())
+                .addValue("uriId", key.uriId());
+    }
+
+    private static byte[] toBytes(RoaringBitmap bitmap) {
+        bitmap.runOptimize();
+        ByteBuffer buffer = ByteBuffer.allocate(bitmap.serializedSizeInBytes());
+        bitmap.serialize(buffer);
+        return buffer.array();
+    }
+
+    /**
+     * Карта часа и её версия на момент чтения.
+     */
+    public record HourBitmap(RoaringBitmap visitors, long version) {
+    }
+
+    private static RoaringBitmap fromBytes(byte[] bytes) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        try {
+            bitmap.deserialize(ByteBuffer.wrap(bytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bitmap;
+    }
+}
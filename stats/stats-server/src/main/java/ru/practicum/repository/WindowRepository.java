@@ -0,0 +1,41 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.model.StatsCount;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.function.BiConsumer;
+
+@Repository
+@RequiredArgsConstructor
+public class WindowRepository {
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * Передаёт посекундные количества запросов по каждой паре app/uri начиная с from.
+     */
+    public void forEachSecondCount(LocalDateTime from, BiConsumer<LocalDateTime, StatsCount> consumer) {
+        forEachCount("second", from, consumer);
+    }
+
+    /**
+     * Передаёт поминутные количества запросов по каждой паре app/uri начиная с from.
+     */
+    public void forEachMinuteCount(LocalDateTime from, BiConsumer<LocalDateTime, StatsCount> consumer) {
+        forEachCount("minute", from, consumer);
+    }
+
+    private void forEachCount(String unit, LocalDateTime from, BiConsumer<LocalDateTime, StatsCount> consumer) {
+        jdbcTemplate.query("SELECT date_trunc('" + unit + "', time_stamp) AS bucket, app_id, uri_id, " +
+                        "sum(hits) AS hits FROM stats WHERE time_stamp >= :from GROUP BY 1, app_id, uri_id",
+                new MapSqlParameterSource("from", Timestamp.valueOf(from)),
+                (RowCallbackHandler) rs -> consumer.accept(rs.getTimestamp("bucket").toLocalDateTime(),
+                        new StatsCount(rs.getInt("app_id"), rs.getInt("uri_id"), rs.getLong("hits"))));
+    }
+}
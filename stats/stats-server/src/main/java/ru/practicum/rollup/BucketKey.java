@@ -0,0 +1,12 @@
+package ru.practicum.rollup;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+
+public record BucketKey(LocalDateTime bucket, int appId, int uriId) {
+
+    // Общий порядок блокировки строк агрегатов, чтобы параллельные транзакции не взаимоблокировались
+    public static final Comparator<BucketKey> LOCK_ORDER = Comparator.comparing(BucketKey::bucket)
+            .thenComparingInt(BucketKey::appId)
+            .thenComparingInt(BucketKey::uriId);
+}
@@ -0,0 +1,43 @@
+package ru.practicum.rollup;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.practicum.repository.CompactionRepository;
+
+import java.time.LocalDateTime;
+
+/**
+ * Удаляет минутные агрегаты по uri и по шаблонам старше minuteRetention независимо от того, включено ли сжатие.
+ * Граница отстаёт от той, что использует RollupPlanner, на час: запросы узлов с отстающими часами
+ * не должны попасть на уже удалённые корзины. Повторное удаление на нескольких узлах безвредно.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class MinuteRollupPruner {
+
+    // Строк, удаляемых одним DELETE
+    private static final int DELETE_BATCH = 10_000;
+
+    private final RollupProperties properties;
+    private final CompactionRepository compactionRepository;
+
+    @Scheduled(initialDelayString = "PT1M", fixedDelayString = "${stats.rollup.check-interval:PT1H}")
+    public void prune() {
+        if (properties.getMinuteRetention() == null) {
+            return;
+        }
+        LocalDateTime before = RollupPlanner.minutesFrom(properties.getMinuteRetention()).minusHours(1);
+        long total = 0;
+        int deleted;
+        do {
+            deleted = compactionRepository.deleteMinuteBucketsBefore(before, DELETE_BATCH);
+            total += deleted;
+        } while (deleted > 0);
+        if (total > 0) {
+            log.info("Удалено минутных агрегатов раньше {}: {}", before, total);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package ru.practicum.rollup;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+@Getter
+@RequiredArgsConstructor
+public enum RollupGranularity {
+    MINUTE("stats_rollup_minute", "stats_template_rollup_minute", null, ChronoUnit.MINUTES, "minute"),
+    HOUR("stats_rollup_hour", "stats_template_rollup_hour", "stats_hll_hour", ChronoUnit.HOURS, "hour"),
+    DAY("stats_rollup_day", "stats_template_rollup_day", "stats_hll_day", ChronoUnit.DAYS, "day");
+
+    private final String table;
+    // Таблица агрегатов по шаблонам uri
+    private final String templateTable;
+    // Таблица скетчей уникальных IP; для минутных корзин скетчи не ведутся
+    private final String sketchTable;
+    private final ChronoUnit unit;
+    // Единица для date_trunc в PostgreSQL
+    private final String truncUnit;
+
+    public LocalDateTime floor(LocalDateTime time) {
+        return time.truncatedTo(unit);
+    }
+
+    public LocalDateTime ceil(LocalDateTime time) {
+        LocalDateTime floor = floor(time);
+        return floor.equals(time) ? floor : floor.plus(1, unit);
+    }
+}
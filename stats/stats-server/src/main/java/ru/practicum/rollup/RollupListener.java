@@ -0,0 +1,30 @@
+package ru.practicum.rollup;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import ru.practicum.ingest.HitListener;
+import ru.practicum.model.Stats;
+import ru.practicum.repository.RollupRepository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Component
+@RequiredArgsConstructor
+public class RollupListener implements HitListener {
+
+    private final RollupRepository rollupRepository;
+
+    @Override
+    public void onHits(List<Stats> hits) {
+        LocalDateTime boundary = rollupRepository.getBackfillBoundary();
+        if (hits.stream().anyMatch(hit -> hit.getTimestamp().isBefore(boundary))) {
+            // Запросы задним числом попадают в корзины, которые может пересчитывать сжатие
+            rollupRepository.lockBackfill(true);
+        }
+        for (RollupGranularity granularity : RollupGranularity.values()) {
+            rollupRepository.increment(granularity, hits);
+            rollupRepository.incrementTemplates(granularity, hits);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package ru.practicum.rollup;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Разбивает интервал [start, end] на отрезки: середина покрывается самыми крупными корзинами,
+ * края - всё более мелкими, и только неровные остатки меньше самой мелкой корзины считаются по сырым данным.
+ * Всё, что раньше coveredFrom (момента начала ведения агрегатов), также считается по сырым данным.
+ * Раньше compactedBefore сырых данных нет: там берутся только часовые и дневные корзины,
+ * и интервал расширяется до целых часов: учитываются все часы, пересекающиеся с [start, end].
+ * Фактическое начало интервала возвращает {@link #effectiveStart}.
+ * Минутные агрегаты хранятся minuteRetention: раньше этого срока края меньше часа считаются по сырым данным.
+ */
+@Component
+@RequiredArgsConstructor
+public class RollupPlanner {
+
+    private static final List<RollupGranularity> COARSE_TO_FINE = List.of(
+            RollupGranularity.DAY, RollupGranularity.HOUR, RollupGranularity.MINUTE
+    );
+
+    private final RollupProperties properties;
+
+    public List<RollupSegment> plan(LocalDateTime start, LocalDateTime end, LocalDateTime coveredFrom,
+                                    LocalDateTime compactedBefore) {
+        return plan(start, end, coveredFrom, compactedBefore, COARSE_TO_FINE);
+    }
+
+    /**
+     * Начало интервала, с которого считается ответ: в сжатом периоде - начало часа, содержащего start.
+     */
+    public static LocalDateTime effectiveStart(LocalDateTime start, LocalDateTime compactedBefore) {
+        return start.isBefore(compactedBefore) ? RollupGranularity.HOUR.floor(start) : start;
+    }
+
+    /**
+     * Начало периода, за который хранятся минутные агрегаты: начало часа, содержащего now - retention.
+     */
+    public static LocalDateTime minutesFrom(Duration retention) {
+        return retention == null
+                ? LocalDateTime.MIN
+                : RollupGranularity.HOUR.floor(LocalDateTime.now().minus(retention));
+    }
+
+    /**
+     * Размеры корзин не крупнее coarsest, от крупных к мелким.
+     */
+    public static List<RollupGranularity> upTo(RollupGranularity coarsest) {
+        return COARSE_TO_FINE.subList(COARSE_TO_FINE.indexOf(coarsest), COARSE_TO_FINE.size());
+    }
+
+    /**
+     * @param granularities допустимые размеры корзин, от крупных к мелким; для сжатого периода среди них
+     *                      должны быть часовые
+     */
+    public List<RollupSegment> plan(LocalDateTime start, LocalDateTime end, LocalDateTime coveredFrom,
+                                    LocalDateTime compactedBefore, List<RollupGranularity> granularities) {
+        LocalDateTime minutesFrom = minutesFrom(properties.getMinuteRetention());
+        if (!start.isBefore(compactedBefore)) {
+            return planUncompacted(start, end, coveredFrom, minutesFrom, granularities);
+        }
+        List<RollupSegment> segments = new ArrayList<>();
+        LocalDateTime to = end.isBefore(compactedBefore)
+                ? RollupGranularity.HOUR.floor(end).plusHours(1)
+                : compactedBefore;
+        decompose(effectiveStart(start, compactedBefore), to, withoutMinutes(granularities), 0, segments);
+        if (!end.isBefore(compactedBefore)) {
+            segments.addAll(planUncompacted(compactedBefore, end, coveredFrom, minutesFrom, granularities));
+        }
+        return segments;
+    }
+
+    private List<RollupSegment> planUncompacted(LocalDateTime start, LocalDateTime end, LocalDateTime coveredFrom,
+                                                LocalDateTime minutesFrom, List<RollupGranularity> granularities) {
+        List<RollupSegment> segments = new ArrayList<>();
+        if (end.isBefore(coveredFrom)) {
+            segments.add(RollupSegment.raw(start, end, true));
+            return segments;
+        }
+        LocalDateTime from = start;
+        if (start.isBefore(coveredFrom)) {
+            segments.add(RollupSegment.raw(start, coveredFrom, false));
+            from = coveredFrom;
+        }
+        // Правая граница включительная: для выбора корзин сдвигаем её на наносекунду,
+        // а последний сырой отрезок запрашиваем с <= end
+        LocalDateTime to = end.plusNanos(1);
+        if (from.isBefore(minutesFrom)) {
+            LocalDateTime split = minutesFrom.isBefore(to) ? minutesFrom : to;
+            decompose(from, split, withoutMinutes(granularities), 0, segments);
+            from = split;
+        }
+        decompose(from, to, granularities, 0, segments);
+        if (!segments.isEmpty()) {
+            RollupSegment last = segments.getLast();
+            if (last.to().equals(to)) {
+                segments.set(segments.size() - 1, RollupSegment.raw(last.from(), end, true));
+            }
+        }
+        return segments;
+    }
+
+    private static List<RollupGranularity> withoutMinutes(List<RollupGranularity> granularities) {
+        return granularities.stream()
+                .filter(granularity -> granularity != RollupGranularity.MINUTE)
+                .toList();
+    }
+
+    private void decompose(LocalDateTime from, LocalDateTime to, List<RollupGranularity> granularities, int level,
+                           List<RollupSegment> segments) {
+        if (!from.isBefore(to)) {
+            return;
+        }
+        for (int i = level; i < granularities.size(); i++) {
+            RollupGranularity granularity = granularities.get(i);
+            LocalDateTime alignedFrom = granularity.ceil(from);
+            LocalDateTime alignedTo = granularity.floor(to);
+            if (alignedFrom.isBefore(alignedTo)) {
+                decompose(from, alignedFrom, granularities, i + 1, segments);
+                segments.add(new RollupSegment(granularity, alignedFrom, alignedTo, false));
+                decompose(alignedTo, to, granularities, i + 1, segments);
+                return;
+            }
+        }
+        segments.add(RollupSegment.raw(from, to, false));
+    }
+}
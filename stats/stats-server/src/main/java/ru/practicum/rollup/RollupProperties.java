@@ -0,0 +1,16 @@
+package ru.practicum.rollup;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "stats.rollup")
+public class RollupProperties {
+    // Минутные агрегаты старше этого срока удаляются, края интервалов раньше него считаются по сырым данным.
+    // Пусто - хранить всё
+    private Duration minuteRetention = Duration.ofDays(7);
+}
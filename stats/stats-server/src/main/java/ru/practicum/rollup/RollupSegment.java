@@ -0,0 +1,18 @@
+package ru.practicum.rollup;
+
+import java.time.LocalDateTime;
+
+/**
+ * Часть интервала запроса. Для агрегатов granularity задаёт таблицу, из которой берутся корзины
+ * [from, to); при granularity == null отрезок считается по сырым строкам таблицы stats.
+ */
+public record RollupSegment(RollupGranularity granularity, LocalDateTime from, LocalDateTime to, boolean toInclusive) {
+
+    public static RollupSegment raw(LocalDateTime from, LocalDateTime to, boolean toInclusive) {
+        return new RollupSegment(null, from, to, toInclusive);
+    }
+
+    public boolean isRaw() {
+        return granularity == null;
+    }
+}
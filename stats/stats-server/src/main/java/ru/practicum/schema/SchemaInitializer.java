@@ -0,0 +1,148 @@
+package ru.practicum.schema;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.sql.init.SqlDataSourceScriptDatabaseInitializer;
+import org.springframework.boot.autoconfigure.sql.init.SqlInitializationProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.partition.PartitionManager;
+import ru.practicum.partition.PartitionProperties;
+
+import javax.sql.DataSource;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Выполняет schema.sql, предварительно сверив вид уже существующей таблицы stats: CREATE TABLE IF NOT EXISTS
+ * молча оставил бы прежнюю таблицу, и запись в неё не работала бы.
+ * Таблица прежнего вида (app, uri, ip строками, без секций) переименовывается в stats_legacy, после schema.sql
+ * её строки переносятся в новую stats через словари и удаляются из stats_legacy, а опустевшая таблица удаляется.
+ * Перед переносом создаются секции на весь период строк stats_legacy в пределах срока хранения, поэтому в секцию
+ * по умолчанию попадают только строки старше него, и первое же обслуживание секций их удаляет.
+ * Строки с IP, который не разбирается как inet, не переносятся и остаются в stats_legacy для ручного разбора.
+ * Агрегаты, скетчи и битовые карты за перенесённый период не строятся: он раньше их покрытия и считается по строкам.
+ * Таблица stats любого другого неизвестного вида останавливает запуск.
+ */
+@Slf4j
+@Component
+public class SchemaInitializer extends SqlDataSourceScriptDatabaseInitializer {
+
+    private static final String LEGACY_TABLE = "stats_legacy";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final PartitionProperties partitionProperties;
+    // Собственный экземпляр: бин PartitionManager зависит от JdbcTemplate, который ждёт инициализации схемы
+    private final PartitionManager partitionManager;
+
+    public SchemaInitializer(DataSource dataSource, SqlInitializationProperties properties,
+                             PartitionProperties partitionProperties) {
+        super(dataSource, properties);
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        this.partitionProperties = partitionProperties;
+        this.partitionManager = new PartitionManager(jdbcTemplate, partitionProperties);
+    }
+
+    @Override
+    public boolean initializeDatabase() {
+        checkStatsTable();
+        boolean initialized = super.initializeDatabase();
+        if (tableExists(LEGACY_TABLE)) {
+            migrateLegacy();
+        }
+        return initialized;
+    }
+
+    private void checkStatsTable() {
+        List<String> columns = jdbcTemplate.queryForList("SELECT column_name FROM information_schema.columns " +
+                "WHERE table_schema = current_schema() AND table_name = 'stats'", String.class);
+        if (columns.isEmpty()) {
+            return;
+        }
+        boolean partitioned = Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM pg_partitioned_table WHERE partrelid = 'stats'::regclass)",
+                Boolean.class));
+        if (columns.containsAll(List.of("app", "uri", "ip", "time_stamp")) && !partitioned) {
+            if (tableExists(LEGACY_TABLE)) {
+                throw new IllegalStateException("Both stats of the old layout and " + LEGACY_TABLE + " exist, " +
+                        "migrate or drop one of them manually");
+            }
+            renameLegacy();
+            return;
+        }
+        String ipType = jdbcTemplate.queryForObject("SELECT data_type FROM information_schema.columns " +
+                "WHERE table_schema = current_schema() AND table_name = 'stats' AND column_name = 'ip'", String.class);
+        if (!partitioned || !columns.containsAll(List.of("app_id", "uri_id", "time_stamp")) || !"inet".equals(ipType)) {
+            throw new IllegalStateException("Table stats has an unsupported layout " + columns + " (partitioned: "
+                    + partitioned + "), expected app_id, uri_id, ip inet, time_stamp partitioned by time_stamp");
+        }
+    }
+
+    private void renameLegacy() {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.execute("ALTER TABLE stats RENAME TO " + LEGACY_TABLE);
+            // Имена индексов общие для схемы: индексы новой таблицы создаются с прежними именами
+            List<String> indexes = jdbcTemplate.queryForList("SELECT c.relname FROM pg_index i " +
+                    "JOIN pg_class c ON c.oid = i.indexrelid WHERE i.indrelid = '" + LEGACY_TABLE + "'::regclass",
+                    String.class);
+            for (String index : indexes) {
+                jdbcTemplate.execute("ALTER INDEX " + index + " RENAME TO " + index + "_legacy");
+            }
+        });
+        log.info("Таблица stats прежнего вида переименована в {} и будет перенесена в новую", LEGACY_TABLE);
+    }
+
+    private void migrateLegacy() {
+        createLegacyPartitions();
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.execute("CREATE FUNCTION pg_temp.stats_to_inet(value TEXT) RETURNS INET AS $$ " +
+                    "BEGIN RETURN value::INET; EXCEPTION WHEN OTHERS THEN RETURN NULL; END " +
+                    "$$ LANGUAGE plpgsql IMMUTABLE");
+            jdbcTemplate.update("INSERT INTO stats_app (name) SELECT DISTINCT app FROM " + LEGACY_TABLE +
+                    " ON CONFLICT (name) DO NOTHING");
+            jdbcTemplate.update("INSERT INTO stats_uri (uri) SELECT DISTINCT uri FROM " + LEGACY_TABLE +
+                    " ON CONFLICT (uri) DO NOTHING");
+            int migrated = jdbcTemplate.update("INSERT INTO stats (app_id, uri_id, ip, time_stamp, hits) " +
+                    "SELECT a.id, u.id, l.ip, l.time_stamp, 1 FROM (SELECT app, uri, pg_temp.stats_to_inet(ip) AS ip, " +
+                    "time_stamp FROM " + LEGACY_TABLE + ") l JOIN stats_app a ON a.name = l.app " +
+                    "JOIN stats_uri u ON u.uri = l.uri WHERE l.ip IS NOT NULL");
+            jdbcTemplate.update("DELETE FROM " + LEGACY_TABLE + " WHERE pg_temp.stats_to_inet(ip) IS NOT NULL");
+            jdbcTemplate.execute("DROP FUNCTION pg_temp.stats_to_inet(TEXT)");
+            Long left = jdbcTemplate.queryForObject("SELECT count(*) FROM " + LEGACY_TABLE, Long.class);
+            if (left == null || left == 0) {
+                jdbcTemplate.execute("DROP TABLE " + LEGACY_TABLE);
+                log.info("В новую таблицу stats перенесено {} запросов", migrated);
+            } else {
+                log.warn("В новую таблицу stats перенесено {} запросов, {} с некорректным IP оставлены в {}",
+                        migrated, left, LEGACY_TABLE);
+            }
+        });
+    }
+
+    private void createLegacyPartitions() {
+        LocalDate first = jdbcTemplate.queryForObject("SELECT min(time_stamp)::date FROM " + LEGACY_TABLE,
+                LocalDate.class);
+        LocalDate last = jdbcTemplate.queryForObject("SELECT max(time_stamp)::date FROM " + LEGACY_TABLE,
+                LocalDate.class);
+        if (first == null || last == null) {
+            return;
+        }
+        if (partitionProperties.getRetention() != null) {
+            // Секции старше срока хранения удалило бы первое же обслуживание
+            LocalDate kept = LocalDateTime.now().minus(partitionProperties.getRetention()).toLocalDate();
+            first = first.isBefore(kept) ? kept : first;
+        }
+        if (!first.isAfter(last)) {
+            partitionManager.createPartitions(first, last);
+        }
+    }
+
+    private boolean tableExists(String table) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT to_regclass(?) IS NOT NULL", Boolean.class, table));
+    }
+}
@@ -1,14 +1,61 @@
 package ru.practicum.service;
 
 
+import ru.practicum.dto.BulkHitResultDto;
+import ru.practicum.dto.CommonVisitorsDto;
+import ru.practicum.dto.CommonVisitorsDtoGetParam;
 import ru.practicum.dto.HitDto;
+import ru.practicum.dto.StatsChangesDto;
+import ru.practicum.dto.StatsChangesDtoGetParam;
 import ru.practicum.dto.StatsDto;
+import ru.practicum.dto.StatsDtoGetParam;
+import ru.practicum.dto.StatsSketchDto;
+import ru.practicum.dto.TimeseriesDto;
+import ru.practicum.dto.TimeseriesDtoGetParam;
+import ru.practicum.dto.TopDtoGetParam;
+import ru.practicum.dto.TopUriDto;
 
 import java.time.LocalDateTime;
+import java.util.Iterator;
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface StatsService {
     StatsDto saveRequest(HitDto hitDto);
 
-    List<StatsDto> getStat(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique);
-}
\ No newline at end of file
+    // Если hits бросит MalformedHitsException, прочитанное до этого записывается, а итог передаётся в исключении
+    BulkHitResultDto saveRequests(Iterator<HitDto> hits);
+
+    List<StatsDto> getStat(StatsDtoGetParam prm);
+
+    // Количество запросов по шаблонам маршрутов: в StatsDto.uri - шаблон
+    List<StatsDto> getTemplateStat(StatsDtoGetParam prm);
+
+    // Передаёт результат по одной строке, не собирая его в память
+    void streamStat(StatsDtoGetParam prm, Consumer<StatsDto> consumer);
+
+    // Проверка параметров /stats до начала ответа: потоковый ответ уже не сможет вернуть ошибку
+    void checkStat(StatsDtoGetParam prm);
+
+    // Количество запросов по корзинам interval для каждого uri
+    List<TimeseriesDto> getTimeseries(TimeseriesDtoGetParam prm);
+
+    // Самые посещаемые uri приложения за последние минуты по скетчам в памяти
+    List<TopUriDto> getTop(TopDtoGetParam prm);
+
+    // Скетчи уникальных IP по парам app/uri для слияния результатов нескольких узлов
+    List<StatsSketchDto> getSketches(StatsDtoGetParam prm);
+
+    // Количество IP, запросивших каждый из uri, по битовым картам посетителей
+    CommonVisitorsDto getCommonVisitors(CommonVisitorsDtoGetParam prm);
+
+    // Прирост количества запросов с курсора предыдущего ответа
+    StatsChangesDto getChanges(StatsChangesDtoGetParam prm);
+
+    // Начало интервала, с которого фактически считается /stats (byTemplate - /stats/templates):
+    // в сжатом периоде оно округляется вниз до часа
+    LocalDateTime getEffectiveStart(StatsDtoGetParam prm, boolean byTemplate);
+
+    // Относительная ошибка количества уникальных IP при approximate = true
+    double getApproximationError();
+}
@@ -1,51 +1,483 @@
 package ru.practicum.service;
 
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.cache.StatsCacheKey;
+import ru.practicum.cache.StatsResultCache;
+import ru.practicum.columnar.ColumnarStore;
+import ru.practicum.columnar.StorageProperties;
+import ru.practicum.dictionary.StatsDictionary;
+import ru.practicum.dto.BulkHitResultDto;
+import ru.practicum.dto.CommonVisitorsDto;
+import ru.practicum.dto.CommonVisitorsDtoGetParam;
 import ru.practicum.dto.HitDto;
+import ru.practicum.dto.HitRejectionDto;
+import ru.practicum.dto.StatsChangesDto;
+import ru.practicum.dto.StatsChangesDtoGetParam;
 import ru.practicum.dto.StatsDto;
+import ru.practicum.dto.StatsDtoGetParam;
+import ru.practicum.dto.StatsSketchDto;
+import ru.practicum.dto.TimeseriesDto;
+import ru.practicum.dto.TimeseriesDtoGetParam;
+import ru.practicum.dto.TimeseriesPointDto;
+import ru.practicum.dto.TopDtoGetParam;
+import ru.practicum.dto.TopUriDto;
+import ru.practicum.dto.sketch.HyperLogLog;
+import ru.practicum.delta.DeltaCursor;
+import ru.practicum.delta.StatsDeltaLog;
 import ru.practicum.exception.BadTimeException;
+import ru.practicum.exception.CursorExpiredException;
+import ru.practicum.exception.FeatureDisabledException;
+import ru.practicum.exception.MalformedHitsException;
+import ru.practicum.ingest.HitIngestor;
 import ru.practicum.mapper.StatsMapper;
+import ru.practicum.model.AppUri;
 import ru.practicum.model.Stats;
+import ru.practicum.model.StatsCount;
+import ru.practicum.model.TimeseriesCount;
+import ru.practicum.repository.CompactionRepository;
+import ru.practicum.repository.DeltaRepository;
+import ru.practicum.repository.RollupRepository;
+import ru.practicum.repository.SketchRepository;
 import ru.practicum.repository.StatRepository;
+import ru.practicum.repository.TimeseriesRepository;
+import ru.practicum.rollup.RollupGranularity;
+import ru.practicum.rollup.RollupPlanner;
+import ru.practicum.rollup.RollupSegment;
+import ru.practicum.sketch.SketchProperties;
+import ru.practicum.top.SpaceSaving;
+import ru.practicum.top.TopUrisTracker;
+import ru.practicum.visitor.VisitorIndex;
+import ru.practicum.window.RecentHitsWindow;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class StatsServiceImpl implements StatsService {
 
+    // Наибольшее количество корзин в одном ряду /stats/timeseries
+    private static final long MAX_TIMESERIES_BUCKETS = 10_000;
+
     private final StatsMapper statsMapper;
     private final StatRepository statRepository;
+    private final RollupRepository rollupRepository;
+    private final RollupPlanner rollupPlanner;
+    private final SketchRepository sketchRepository;
+    private final SketchProperties sketchProperties;
+    private final StatsDictionary statsDictionary;
+    private final RecentHitsWindow recentHitsWindow;
+    private final HitIngestor hitIngestor;
+    private final StatsResultCache statsResultCache;
+    private final TopUrisTracker topUrisTracker;
+    private final TimeseriesRepository timeseriesRepository;
+    private final StorageProperties storageProperties;
+    private final ColumnarStore columnarStore;
+    private final CompactionRepository compactionRepository;
+    private final VisitorIndex visitorIndex;
+    private final StatsDeltaLog statsDeltaLog;
+    private final DeltaRepository deltaRepository;
+    private final Validator validator;
 
     @Override
     public StatsDto saveRequest(HitDto hitDto) {
         Stats stat = statsMapper.toEntity(hitDto);
-        return statsMapper.toDto(statRepository.save(stat));
+        hitIngestor.ingest(stat);
+        return statsMapper.toDto(stat);
     }
 
     @Override
-    public List<StatsDto> getStat(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique) {
+    public BulkHitResultDto saveRequests(Iterator<HitDto> hits) {
+        BulkHitResultDto result = new BulkHitResultDto();
+        List<Stats> batch = new ArrayList<>(hitIngestor.getBatchSize());
+        int index = 0;
+        while (true) {
+            HitDto hitDto;
+            try {
+                if (!hits.hasNext()) {
+                    break;
+                }
+                hitDto = hits.next();
+            } catch (MalformedHitsException e) {
+                // Всё до нечитаемого запроса записывается: клиент повторит только остаток потока
+                hitIngestor.ingestAll(batch);
+                result.setAccepted(result.getAccepted() + batch.size());
+                result.getRejected().add(new HitRejectionDto(index, List.of(e.getMessage())));
+                log.warn("Пакетное сохранение статистики прервано на запросе {}: принято {}, отклонено {}: {}",
+                        index, result.getAccepted(), result.getRejected().size(), e.getMessage());
+                throw new MalformedHitsException(e.getMessage(), result, e);
+            }
+            List<String> errors = validate(hitDto);
+            if (errors.isEmpty()) {
+                batch.add(statsMapper.toEntity(hitDto));
+            } else {
+                result.getRejected().add(new HitRejectionDto(index, errors));
+            }
+            index++;
+            if (batch.size() >= hitIngestor.getBatchSize()) {
+                result.setAccepted(result.getAccepted() + batch.size());
+                hitIngestor.ingestAll(batch);
+                batch = new ArrayList<>(hitIngestor.getBatchSize());
+            }
+        }
+        hitIngestor.ingestAll(batch);
+        result.setAccepted(result.getAccepted() + batch.size());
+        log.info("Пакетное сохранение статистики: принято {}, отклонено {}", result.getAccepted(),
+                result.getRejected().size());
+        return result;
+    }
+
+    private List<String> validate(HitDto hitDto) {
+        if (hitDto == null) {
+            return List.of("запрос не должен быть null");
+        }
+        Set<ConstraintViolation<HitDto>> violations = validator.validate(hitDto);
+        return violations.stream()
+                .map(ConstraintViolation::getMessage)
+                .sorted()
+                .toList();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<StatsDto> getStat(StatsDtoGetParam prm) {
+        checkTime(prm.getStart(), prm.getEnd());
+        if (!statsResultCache.isEnabled()) {
+            return statsDictionary.toDtos(queryCounts(prm));
+        }
+        LocalDateTime settled = statsResultCache.settledBefore();
+        if (prm.getEnd().isBefore(settled)) {
+            // Интервал закрыт: новых запросов в нём уже не появится
+            return statsDictionary.toDtos(statsResultCache.get(cacheKey(prm), () -> queryCounts(prm)));
+        }
+        if (prm.isUnique() || !prm.getStart().isBefore(settled)) {
+            return statsDictionary.toDtos(queryCounts(prm));
+        }
+        // Счётчики без unique складываются: закрытая часть берётся из кэша, досчитывается только хвост
+        StatsDtoGetParam closed = withRange(prm, prm.getStart(), settled.minusNanos(1_000));
+        StatsDtoGetParam open = withRange(prm, settled, prm.getEnd());
+        Map<AppUri, Long> totals = new HashMap<>();
+        Stream.concat(statsResultCache.get(cacheKey(closed), () -> queryCounts(closed)).stream(),
+                        queryCounts(open).stream())
+                .forEach(count -> totals.merge(new AppUri(count.appId(), count.uriId()), count.hits(), Long::sum));
+        Stream<StatsCount> counts = totals.entrySet().stream()
+                .map(entry -> new StatsCount(entry.getKey().appId(), entry.getKey().uriId(), entry.getValue()))
+                .sorted(Comparator.comparing(StatsCount::hits).reversed());
+        return statsDictionary.toDtos(limit(counts, prm.getLimit()).toList());
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<StatsDto> getTemplateStat(StatsDtoGetParam prm) {
+        checkTime(prm.getStart(), prm.getEnd());
+        LocalDateTime compactedBefore = compactionRepository.getCompactedBefore();
+        if (prm.isUnique()) {
+            checkNotCompacted(prm.getStart(), compactedBefore, "Unique counts by template");
+        }
+        List<Integer> templateIds = statsDictionary.resolveTemplates(prm.getUris());
+        if (!prm.getUris().isEmpty() && templateIds.isEmpty()) {
+            return List.of();
+        }
+        try (Stream<StatsCount> counts = prm.isUnique()
+                ? rollupRepository.streamUniqueTemplateStats(prm.getStart(), prm.getEnd(), templateIds,
+                prm.getLimit())
+                : rollupRepository.streamTemplateStats(rollupPlanner.plan(prm.getStart(), prm.getEnd(),
+                rollupRepository.getTemplatesCoveredFrom(), compactedBefore), templateIds, prm.getLimit())) {
+            return statsDictionary.toTemplateDtos(counts.toList());
+        }
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void streamStat(StatsDtoGetParam prm, Consumer<StatsDto> consumer) {
+        try (Stream<StatsCount> counts = queryStat(prm)) {
+            counts.map(statsDictionary::toDto).forEach(consumer);
+        }
+    }
+
+    @Override
+    public void checkStat(StatsDtoGetParam prm) {
+        checkTime(prm.getStart(), prm.getEnd());
+        if (isExactUnique(prm)) {
+            checkNotCompacted(prm.getStart(), compactionRepository.getCompactedBefore(), "Exact unique counts");
+        }
+    }
+
+    // Точный подсчёт уникальных IP идёт по сырым строкам; колоночные сегменты считают точно и при approximate
+    private boolean isExactUnique(StatsDtoGetParam prm) {
+        return prm.isUnique() && !prm.isApproximate()
+                && storageProperties.getBackend() != StorageProperties.Backend.COLUMNAR;
+    }
+
+    private void checkTime(LocalDateTime start, LocalDateTime end) {
         if (end == null || start == null) {
             throw new BadTimeException("The start and the end date cannot be null");
         }
         if (end.isBefore(start)) {
             throw new BadTimeException("The end date cannot be earlier than the start date");
         }
+    }
 
-        if (uris.isEmpty()) {
-            if (unique) {
-                return statRepository.getStatsWithoutUriWithUniqueIp(start, end);
-            } else {
-                return statRepository.getStatsWithoutUri(start, end);
+    // Сырых строк раньше compactedBefore нет: то, что считается только по ним, за этот период недоступно
+    private void checkNotCompacted(LocalDateTime start, LocalDateTime compactedBefore, String what) {
+        if (start.isBefore(compactedBefore)) {
+            throw new BadTimeException(what + " are not available before " + compactedBefore);
+        }
+    }
+
+    private StatsCacheKey cacheKey(StatsDtoGetParam prm) {
+        return new StatsCacheKey(prm.getStart(), prm.getEnd(), prm.getUris(), prm.isUnique(), prm.isApproximate(),
+                prm.getLimit());
+    }
+
+    // Копия параметров за другой интервал и без limit
+    private StatsDtoGetParam withRange(StatsDtoGetParam prm, LocalDateTime start, LocalDateTime end) {
+        StatsDtoGetParam copy = new StatsDtoGetParam();
+        copy.setStart(start);
+        copy.setEnd(end);
+        copy.setUris(prm.getUris());
+        copy.setUnique(prm.isUnique());
+        copy.setApproximate(prm.isApproximate());
+        return copy;
+    }
+
+    private List<StatsCount> queryCounts(StatsDtoGetParam prm) {
+        try (Stream<StatsCount> counts = queryStat(prm)) {
+            return counts.toList();
+        }
+    }
+
+    private Stream<StatsCount> queryStat(StatsDtoGetParam prm) {
+        checkTime(prm.getStart(), prm.getEnd());
+        LocalDateTime start = prm.getStart();
+        LocalDateTime end = prm.getEnd();
+
+        List<Integer> uriIds = statsDictionary.resolveUris(prm.getUris());
+        if (!prm.getUris().isEmpty() && uriIds.isEmpty()) {
+            // Ни один из запрошенных uri ещё не встречался и ни один шаблон ничего не нашёл
+            return Stream.empty();
+        }
+        if (storageProperties.getBackend() == StorageProperties.Backend.COLUMNAR) {
+            // Точный подсчёт по колоночным сегментам, в том числе при approximate
+            return limit(columnarStore.getStats(start, end, uriIds, prm.isUnique()), prm.getLimit());
+        }
+        if (!prm.isUnique()) {
+            Optional<List<StatsCount>> recent = recentHitsWindow.getStats(start, end, uriIds);
+            if (recent.isPresent()) {
+                return limit(recent.get().stream(), prm.getLimit());
             }
+            List<RollupSegment> segments = rollupPlanner.plan(start, end, rollupRepository.getCoveredFrom(),
+                    compactionRepository.getCompactedBefore());
+            return rollupRepository.streamStats(segments, uriIds, prm.getLimit());
+        }
+        if (prm.isApproximate()) {
+            return limit(getApproximateUniqueStat(start, end, uriIds), prm.getLimit());
+        }
+        Optional<List<StatsCount>> visitors = visitorIndex.getStats(start, end, uriIds);
+        if (visitors.isPresent()) {
+            return limit(visitors.get().stream(), prm.getLimit());
+        }
+        // Точный подсчёт уникальных IP возможен только по сырым строкам; для сжатого периода есть лишь оценка
+        // по скетчам, которую нужно запросить явно с approximate=true
+        checkNotCompacted(start, compactionRepository.getCompactedBefore(), "Exact unique counts");
+        Limit limit = prm.getLimit() == null ? Limit.unlimited() : Limit.of(prm.getLimit());
+        if (uriIds.isEmpty()) {
+            return statRepository.getStatsWithoutUriWithUniqueIp(start, end, limit);
         } else {
-            if (unique) {
-                return statRepository.getStatWithUriWithUniqueIp(start, end, uris);
-            } else {
-                return statRepository.getStatsWithUri(start, end, uris);
-            }
+            return statRepository.getStatWithUriWithUniqueIp(start, end, uriIds, limit);
+        }
+    }
+
+    private Stream<StatsCount> limit(Stream<StatsCount> counts, Integer limit) {
+        return limit == null ? counts : counts.limit(limit);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<TimeseriesDto> getTimeseries(TimeseriesDtoGetParam prm) {
+        checkTime(prm.getStart(), prm.getEnd());
+        RollupGranularity interval = switch (prm.getInterval()) {
+            case "1m" -> RollupGranularity.MINUTE;
+            case "1d" -> RollupGranularity.DAY;
+            default -> RollupGranularity.HOUR;
+        };
+        long buckets = interval.getUnit().between(interval.floor(prm.getStart()), prm.getEnd()) + 1;
+        if (buckets > MAX_TIMESERIES_BUCKETS) {
+            throw new BadTimeException("The range contains " + buckets + " buckets of " + prm.getInterval()
+                    + ", at most " + MAX_TIMESERIES_BUCKETS + " are allowed");
+        }
+        LocalDateTime compactedBefore = compactionRepository.getCompactedBefore();
+        if (prm.isUnique()) {
+            checkNotCompacted(prm.getStart(), compactedBefore, "Unique timeseries");
+        } else if (interval == RollupGranularity.MINUTE) {
+            checkNotCompacted(prm.getStart(), compactedBefore, "Minute timeseries");
+        }
+        List<Integer> uriIds = statsDictionary.resolveUris(prm.getUris());
+        if (!prm.getUris().isEmpty() && uriIds.isEmpty()) {
+            return List.of();
+        }
+
+        Map<AppUri, List<TimeseriesPointDto>> series = new LinkedHashMap<>();
+        try (Stream<TimeseriesCount> counts = prm.isUnique()
+                ? timeseriesRepository.streamUniqueHits(prm.getStart(), prm.getEnd(), interval, uriIds)
+                : timeseriesRepository.streamHits(rollupPlanner.plan(prm.getStart(), prm.getEnd(),
+                rollupRepository.getCoveredFrom(), compactedBefore, RollupPlanner.upTo(interval)), interval,
+                uriIds)) {
+            counts.forEach(count -> series.computeIfAbsent(new AppUri(count.appId(), count.uriId()),
+                    key -> new ArrayList<>()).add(new TimeseriesPointDto(count.bucket(), count.hits())));
+        }
+        // Как и в /stats, сначала самые посещаемые uri
+        List<StatsCount> totals = series.entrySet().stream()
+                .map(entry -> new StatsCount(entry.getKey().appId(), entry.getKey().uriId(),
+                        entry.getValue().stream().mapToLong(TimeseriesPointDto::getHits).sum()))
+                .sorted(Comparator.comparing(StatsCount::hits).reversed())
+                .toList();
+        List<StatsDto> names = statsDictionary.toDtos(totals);
+        List<TimeseriesDto> result = new ArrayList<>(totals.size());
+        for (int i = 0; i < totals.size(); i++) {
+            AppUri key = new AppUri(totals.get(i).appId(), totals.get(i).uriId());
+            result.add(new TimeseriesDto(names.get(i).getApp(), names.get(i).getUri(), series.get(key)));
+        }
+        return result;
+    }
+
+    @Override
+    public List<TopUriDto> getTop(TopDtoGetParam prm) {
+        if (prm.getMinutes() > topUrisTracker.getMaxMinutes()) {
+            throw new BadTimeException("The period cannot be longer than " + topUrisTracker.getMaxMinutes()
+                    + " minutes");
+        }
+        Integer appId = statsDictionary.findAppId(prm.getApp());
+        if (appId == null) {
+            return List.of();
+        }
+        if (!topUrisTracker.isEnabled()) {
+            // Точные счётчики по минутным агрегатам всех экземпляров, ошибка оценки нулевая
+            LocalDateTime from = RollupGranularity.MINUTE.floor(LocalDateTime.now()).minusMinutes(prm.getMinutes() - 1);
+            List<StatsCount> top = rollupRepository.findTopUris(appId, from, prm.getK());
+            statsDictionary.preloadUris(top.stream().map(StatsCount::uriId).toList());
+            return top.stream()
+                    .map(count -> new TopUriDto(prm.getApp(), statsDictionary.uriName(count.uriId()), count.hits(), 0L))
+                    .toList();
+        }
+        List<SpaceSaving.Estimate> top = topUrisTracker.getTop(appId, prm.getK(), prm.getMinutes());
+        statsDictionary.preloadUris(top.stream().map(SpaceSaving.Estimate::item).toList());
+        return top.stream()
+                .map(estimate -> new TopUriDto(prm.getApp(), statsDictionary.uriName(estimate.item()),
+                        estimate.count(), estimate.error()))
+                .toList();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<StatsSketchDto> getSketches(StatsDtoGetParam prm) {
+        checkTime(prm.getStart(), prm.getEnd());
+        List<Integer> uriIds = statsDictionary.resolveUris(prm.getUris());
+        if (!prm.getUris().isEmpty() && uriIds.isEmpty()) {
+            return List.of();
         }
+        Map<AppUri, HyperLogLog> sketches = loadSketches(prm.getStart(), prm.getEnd(), uriIds);
+        List<AppUri> keys = new ArrayList<>(sketches.keySet());
+        List<StatsDto> names = statsDictionary.toDtos(keys.stream()
+                .map(key -> new StatsCount(key.appId(), key.uriId(), 0L))
+                .toList());
+        List<StatsSketchDto> result = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            result.add(new StatsSketchDto(names.get(i).getApp(), names.get(i).getUri(),
+                    sketches.get(keys.get(i)).toBytes()));
+        }
+        return result;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public CommonVisitorsDto getCommonVisitors(CommonVisitorsDtoGetParam prm) {
+        checkTime(prm.getStart(), prm.getEnd());
+        if (!visitorIndex.isEnabled()) {
+            throw new FeatureDisabledException("The visitor index is disabled");
+        }
+        if (prm.getStart().isBefore(visitorIndex.getCoveredFrom())) {
+            throw new BadTimeException("Visitor bitmaps are not available before " + visitorIndex.getCoveredFrom());
+        }
+        // Каждый элемент uris - отдельная группа: шаблон раскрывается в uri, из которых достаточно любого
+        List<List<Integer>> uriGroups = prm.getUris().stream()
+                .map(uri -> statsDictionary.resolveUris(List.of(uri)))
+                .toList();
+        return new CommonVisitorsDto(prm.getUris(), visitorIndex.countCommon(prm.getStart(), prm.getEnd(), uriGroups));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public StatsChangesDto getChanges(StatsChangesDtoGetParam prm) {
+        if (!statsDeltaLog.isEnabled()) {
+            throw new FeatureDisabledException("The changes log is disabled");
+        }
+        long position = deltaRepository.currentPosition();
+        if (prm.getCursor() == null) {
+            return StatsChangesDto.builder().cursor(DeltaCursor.encode(position)).build();
+        }
+        long from = DeltaCursor.decode(prm.getCursor());
+        if (from >= position) {
+            return StatsChangesDto.builder().cursor(prm.getCursor()).build();
+        }
+        List<Integer> uriIds = statsDictionary.resolveUris(prm.getUris());
+        List<StatsCount> changes = !prm.getUris().isEmpty() && uriIds.isEmpty()
+                ? List.of()
+                : deltaRepository.getChanges(from, position, uriIds);
+        // Проверка после чтения: удаление, прошедшее во время чтения, тоже будет замечено
+        if (deltaRepository.isPruned(from)) {
+            throw new CursorExpiredException("The cursor is older than the changes retention, reload /stats");
+        }
+        return new StatsChangesDto(DeltaCursor.encode(position), statsDictionary.toDtos(changes));
+    }
+
+    @Override
+    public LocalDateTime getEffectiveStart(StatsDtoGetParam prm, boolean byTemplate) {
+        if (prm.getStart() == null) {
+            return null;
+        }
+        // Колоночные сегменты и точный подсчёт уникальных IP работают по сырым строкам, без округления
+        boolean raw = byTemplate
+                ? prm.isUnique()
+                : storageProperties.getBackend() == StorageProperties.Backend.COLUMNAR
+                || prm.isUnique() && !prm.isApproximate();
+        return raw
+                ? prm.getStart()
+                : RollupPlanner.effectiveStart(prm.getStart(), compactionRepository.getCompactedBefore());
+    }
+
+    @Override
+    public double getApproximationError() {
+        return HyperLogLog.relativeError(sketchProperties.getHllPrecision());
+    }
+
+    private Stream<StatsCount> getApproximateUniqueStat(LocalDateTime start, LocalDateTime end, List<Integer> uriIds) {
+        return loadSketches(start, end, uriIds).entrySet().stream()
+                .map(entry -> new StatsCount(entry.getKey().appId(), entry.getKey().uriId(),
+                        entry.getValue().estimate()))
+                .sorted(Comparator.comparing(StatsCount::hits).reversed());
+    }
+
+    private Map<AppUri, HyperLogLog> loadSketches(LocalDateTime start, LocalDateTime end, List<Integer> uriIds) {
+        List<RollupSegment> segments = rollupPlanner.plan(start, end, sketchRepository.getCoveredFrom(),
+                compactionRepository.getCompactedBefore(), SketchRepository.GRANULARITIES);
+        return sketchRepository.getSketches(segments, uriIds, sketchProperties.getHllPrecision());
     }
 }
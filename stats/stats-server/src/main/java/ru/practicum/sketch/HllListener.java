@@ -0,0 +1,34 @@
+package ru.practicum.sketch;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import ru.practicum.dto.sketch.HyperLogLog;
+import ru.practicum.ingest.HitListener;
+import ru.practicum.model.Stats;
+import ru.practicum.repository.SketchRepository;
+import ru.practicum.rollup.BucketKey;
+import ru.practicum.rollup.RollupGranularity;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+@Component
+@RequiredArgsConstructor
+public class HllListener implements HitListener {
+
+    private final SketchRepository sketchRepository;
+    private final SketchProperties properties;
+
+    @Override
+    public void onHits(List<Stats> hits) {
+        for (RollupGranularity granularity : SketchRepository.GRANULARITIES) {
+            Map<BucketKey, HyperLogLog> sketches = new TreeMap<>(BucketKey.LOCK_ORDER);
+            for (Stats hit : hits) {
+                BucketKey key = new BucketKey(granularity.floor(hit.getTimestamp()), hit.getAppId(), hit.getUriId());
+                sketches.computeIfAbsent(key, k -> new HyperLogLog(properties.getHllPrecision())).addIp(hit.getIp());
+            }
+            sketchRepository.merge(granularity, sketches);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package ru.practicum.sketch;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "stats.sketch")
+public class SketchProperties {
+    // Точность скетчей HyperLogLog: 2^precision регистров. При уменьшении сохранённые скетчи сворачиваются
+    // до новой точности; увеличение действует только для корзин, скетчей которых ещё нет
+    private int hllPrecision = 12;
+}
@@ -0,0 +1,458 @@
+package ru.practicum.spool;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import ru.practicum.model.Stats;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Журнал упреждающей записи запросов статистики на локальном диске.
+ * Запросы дописываются в отображённый в память сегмент и подтверждаются сразу; фоновый разборщик
+ * переносит их в БД пакетами и после каждого записанного пакета сохраняет контрольную точку.
+ * Если БД недоступна, пакет повторяется, а журнал копится на диске и переживает перезапуск.
+ * Доставка "хотя бы один раз": пакет, записанный до падения, но после последней контрольной точки,
+ * будет записан повторно.
+ * <p>
+ * Запрос, который БД отвергает из-за его данных, иначе повторялся бы вечно и задерживал всё после него.
+ * Поэтому после isolateAfter неудач подряд пакет делится пополам до отдельных запросов: записанные части
+ * фиксируются контрольной точкой, а отвергнутый запрос дописывается в файл quarantine.log
+ * (в формате сегмента) и учитывается в счётчике stats.spool.quarantined.
+ * <p>
+ * Запись в сегменте: длина данных, CRC32 данных, данные. Длина пишется последней, поэтому
+ * недописанная при падении запись при восстановлении отбрасывается как конец сегмента.
+ */
+@Slf4j
+@Component
+public class HitSpool {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String QUARANTINE = "quarantine.log";
+    private static final int HEADER_SIZE = 8;
+
+    private final SpoolProperties properties;
+    private final NavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Counter quarantined;
+
+    // Сегмент, в который идёт запись; меняется под блокировкой this
+    private volatile Segment active;
+
+    // Позиция чтения и контрольная точка - только в потоке разборщика
+    private long readSegment;
+    private int readOffset;
+    private long checkpointSegment;
+    private int checkpointOffset;
+    // Позиции сразу после каждой записи прочитанного пакета
+    private final List<Position> batchEnds = new ArrayList<>();
+
+    private volatile boolean running;
+    private Thread drainerThread;
+
+    public HitSpool(SpoolProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.quarantined = meterRegistry.counter("stats.spool.quarantined");
+    }
+
+    /**
+     * Восстанавливает журнал с диска и запускает разборщик, передающий пакеты в sink.
+     *
+     * @param rejected отличает ошибку из-за данных запроса, которую повтор не исправит, от недоступности БД
+     */
+    public synchronized void start(int batchSize, Consumer<List<Stats>> sink, Predicate<RuntimeException> rejected) {
+        try {
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open hit spool in " + properties.getDirectory(), e);
+        }
+        running = true;
+        drainerThread = new Thread(() -> drainLoop(batchSize, sink, rejected), "stats-spool-drainer");
+        drainerThread.start();
+    }
+
+    /**
+     * Останавливает разборщик, дав ему timeout на перенос оставшегося; недоставленное остаётся на диске.
+     */
+    public void stop(Duration timeout) {
+        running = false;
+        if (drainerThread == null) {
+            return;
+        }
+        try {
+            drainerThread.join(timeout.toMillis());
+            if (drainerThread.isAlive()) {
+                drainerThread.interrupt();
+                drainerThread.join();
+                log.warn("Журнал статистики не разобран за {}, остаток будет записан после перезапуска", timeout);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        active.buffer.force();
+    }
+
+    /**
+     * Дописывает запросы в журнал.
+     *
+     * @return false, если журнал достиг maxSize и запросы не записаны
+     */
+    public synchronized boolean append(List<Stats> hits) {
+        if ((long) segments.size() * segmentSize() > properties.getMaxSize().toBytes()) {
+            return false;
+        }
+        for (Stats hit : hits) {
+            byte[] payload = encode(hit);
+            int size = HEADER_SIZE + payload.length;
+            if (size > segmentSize()) {
+                throw new IllegalArgumentException("Hit of " + payload.length + " bytes does not fit into a spool segment");
+            }
+            Segment segment = active;
+            if (segment.limit + size > segment.buffer.capacity()) {
+                segment = rotate();
+            }
+            int offset = segment.limit;
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            segment.buffer.put(offset + HEADER_SIZE, payload);
+            segment.buffer.putInt(offset + Integer.BYTES, (int) crc.getValue());
+            segment.buffer.putInt(offset, payload.length);
+            segment.limit = offset + size;
+        }
+        if (properties.isForceEachWrite()) {
+            active.buffer.force();
+        }
+        return true;
+    }
+
+    private Segment rotate() {
+        Segment previous = active;
+        previous.buffer.force();
+        Segment next;
+        try {
+            next = Segment.create(previous.id + 1, segmentPath(previous.id + 1), segmentSize());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create spool segment " + (previous.id + 1), e);
+        }
+        // Следующий сегмент появляется раньше пометки о закрытии, чтобы разборщику было куда перейти
+        segments.put(next.id, next);
+        previous.sealed = true;
+        active = next;
+        return next;
+    }
+
+    private void drainLoop(int batchSize, Consumer<List<Stats>> sink, Predicate<RuntimeException> rejected) {
+        int failures = 0;
+        while (true) {
+            boolean stopping = !running;
+            List<Stats> batch = readBatch(batchSize);
+            if (batch.isEmpty()) {
+                active.buffer.force();
+                if (stopping || !pause(properties.getPollInterval())) {
+                    return;
+                }
+                continue;
+            }
+            try {
+                sink.accept(batch);
+                commit(batchEnds.getLast());
+                failures = 0;
+                continue;
+            } catch (RuntimeException e) {
+                failures++;
+                log.error("Ошибка переноса пакета из журнала статистики ({} запросов, неудач подряд {}), " +
+                        "повтор через {}: {}", batch.size(), failures, properties.getRetryDelay(), e.getMessage(), e);
+            }
+            if (failures >= properties.getIsolateAfter()) {
+                int settled = isolate(batch, 0, batch.size(), sink, rejected);
+                if (settled > 0) {
+                    commit(batchEnds.get(settled - 1));
+                }
+                if (settled == batch.size()) {
+                    failures = 0;
+                    continue;
+                }
+            }
+            readSegment = checkpointSegment;
+            readOffset = checkpointOffset;
+            if (stopping || !pause(properties.getRetryDelay())) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Записывает пакет[from, to), который целиком не записался, по половинам.
+     *
+     * @return сколько запросов с начала отрезка записано или отложено в карантин; остальные нужно повторить
+     */
+    private int isolate(List<Stats> batch, int from, int to, Consumer<List<Stats>> sink,
+                        Predicate<RuntimeException> rejected) {
+        int middle = (from + to) >>> 1;
+        int settled = settle(batch, from, middle, sink, rejected);
+        if (settled < middle - from) {
+            return settled;
+        }
+        return settled + settle(batch, middle, to, sink, rejected);
+    }
+
+    private int settle(List<Stats> batch, int from, int to, Consumer<List<Stats>> sink,
+                       Predicate<RuntimeException> rejected) {
+        try {
+            sink.accept(batch.subList(from, to));
+            return to - from;
+        } catch (RuntimeException e) {
+            if (to - from > 1) {
+                return isolate(batch, from, to, sink, rejected);
+            }
+            if (!rejected.test(e)) {
+                return 0;
+            }
+            quarantine(batch.get(from), e);
+            return 1;
+        }
+    }
+
+    private void quarantine(Stats hit, RuntimeException e) {
+        byte[] payload = encode(hit);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length)
+                .putInt(payload.length)
+                .putInt((int) crc.getValue())
+                .put(payload);
+        try {
+            Files.write(properties.getDirectory().resolve(QUARANTINE), record.array(),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException io) {
+            log.warn("Не удалось дописать запрос в карантин журнала статистики: {}", io.getMessage());
+        }
+        quarantined.increment();
+        log.error("Запрос app={}, uri={}, timestamp={} отвергнут БД и отложен в карантин журнала статистики: {}",
+                hit.getApp(), hit.getUri(), hit.getTimestamp(), e.getMessage());
+    }
+
+    private List<Stats> readBatch(int batchSize) {
+        List<Stats> batch = new ArrayList<>(batchSize);
+        batchEnds.clear();
+        while (batch.size() < batchSize) {
+            Segment segment = segments.get(readSegment);
+            // Признак закрытия читается до границы: если сегмент закрыт, граница уже окончательная
+            boolean sealed = segment.sealed;
+            int limit = segment.limit;
+            if (readOffset < limit) {
+                int length = segment.buffer.getInt(readOffset);
+                batch.add(decode(segment.buffer.slice(readOffset + HEADER_SIZE, length)));
+                readOffset += HEADER_SIZE + length;
+                batchEnds.add(new Position(readSegment, readOffset));
+            } else if (sealed) {
+                readSegment = segments.higherKey(readSegment);
+                readOffset = 0;
+            } else {
+                break;
+            }
+        }
+        return batch;
+    }
+
+    private void commit(Position position) {
+        checkpointSegment = position.segment();
+        checkpointOffset = position.offset();
+        try {
+            writeCheckpoint();
+            for (Map.Entry<Long, Segment> entry : segments.headMap(checkpointSegment).entrySet()) {
+                segments.remove(entry.getKey());
+                Files.deleteIfExists(entry.getValue().path);
+            }
+        } catch (IOException e) {
+            // Старая контрольная точка приведёт лишь к повторной записи уже перенесённых запросов
+            log.warn("Не удалось сохранить контрольную точку журнала статистики: {}", e.getMessage());
+        }
+    }
+
+    private boolean pause(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void recover() throws IOException {
+        Path directory = properties.getDirectory();
+        Files.createDirectories(directory);
+        readCheckpoint();
+        List<Long> ids;
+        try (Stream<Path> files = Files.list(directory)) {
+            ids = files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .toList();
+        }
+        for (long id : ids) {
+            if (id < checkpointSegment) {
+                Files.deleteIfExists(segmentPath(id));
+            } else {
+                segments.put(id, Segment.recover(id, segmentPath(id)));
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.put(checkpointSegment, Segment.create(checkpointSegment, segmentPath(checkpointSegment),
+                    segmentSize()));
+        }
+        if (!segments.containsKey(checkpointSegment)) {
+            checkpointSegment = segments.firstKey();
+            checkpointOffset = 0;
+        }
+        segments.headMap(segments.lastKey()).values().forEach(segment -> segment.sealed = true);
+        active = segments.lastEntry().getValue();
+        readSegment = checkpointSegment;
+        readOffset = checkpointOffset;
+        long pending = segments.values().stream().mapToLong(segment -> segment.limit).sum() - checkpointOffset;
+        log.info("Журнал статистики открыт в {}: сегментов {}, не перенесено {} байт", directory,
+                segments.size(), pending);
+    }
+
+    private void readCheckpoint() throws IOException {
+        Path path = properties.getDirectory().resolve(CHECKPOINT);
+        if (Files.exists(path)) {
+            ByteBuffer checkpoint = ByteBuffer.wrap(Files.readAllBytes(path));
+            checkpointSegment = checkpoint.getLong();
+            checkpointOffset = checkpoint.getInt();
+        }
+    }
+
+    private void writeCheckpoint() throws IOException {
+        Path path = properties.getDirectory().resolve(CHECKPOINT);
+        Path temp = properties.getDirectory().resolve(CHECKPOINT + ".tmp");
+        byte[] checkpoint = ByteBuffer.allocate(Long.BYTES + Integer.BYTES)
+                .putLong(checkpointSegment)
+                .putInt(checkpointOffset)
+                .array();
+        Files.write(temp, checkpoint);
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Path segmentPath(long id) {
+        return properties.getDirectory().resolve(String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    private int segmentSize() {
+        return (int) properties.getSegmentSize().toBytes();
+    }
+
+    private static byte[] encode(Stats hit) {
+        byte[] app = hit.getApp().getBytes(StandardCharsets.UTF_8);
+        byte[] uri = hit.getUri().getBytes(StandardCharsets.UTF_8);
+        byte[] ip = hit.getIp().getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(Long.BYTES + 5 * Integer.BYTES + app.length + uri.length + ip.length)
+                .putLong(hit.getTimestamp().toEpochSecond(ZoneOffset.UTC))
+                .putInt(hit.getTimestamp().getNano())
+                .putInt(app.length).put(app)
+                .putInt(uri.length).put(uri)
+                .putInt(ip.length).put(ip)
+                .putInt(hit.getHits())
+                .array();
+    }
+
+    private static Stats decode(ByteBuffer payload) {
+        LocalDateTime timestamp = LocalDateTime.ofEpochSecond(payload.getLong(), payload.getInt(), ZoneOffset.UTC);
+        Stats hit = Stats.builder()
+                .app(readString(payload))
+                .uri(readString(payload))
+                .ip(readString(payload))
+                .timestamp(timestamp)
+                .build();
+        // Записи, сделанные до появления hits, заканчиваются на IP
+        hit.setHits(payload.remaining() >= Integer.BYTES ? payload.getInt() : 1);
+        return hit;
+    }
+
+    private static String readString(ByteBuffer payload) {
+        byte[] bytes = new byte[payload.getInt()];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private record Position(long segment, int offset) {
+    }
+
+    private static final class Segment {
+        private final long id;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        // Граница записанных данных; публикуется писателем после каждой записи
+        private volatile int limit;
+        private volatile boolean sealed;
+
+        private Segment(long id, Path path, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+        }
+
+        static Segment create(long id, Path path, int size) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return new Segment(id, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            }
+        }
+
+        /**
+         * Открывает существующий сегмент и находит конец целых записей.
+         */
+        static Segment recover(long id, Path path) throws IOException {
+            Segment segment;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                segment = new Segment(id, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+            }
+            MappedByteBuffer buffer = segment.buffer;
+            int offset = 0;
+            while (offset + HEADER_SIZE <= buffer.capacity()) {
+                int length = buffer.getInt(offset);
+                if (length <= 0 || offset + HEADER_SIZE + length > buffer.capacity()) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(buffer.slice(offset + HEADER_SIZE, length));
+                if ((int) crc.getValue() != buffer.getInt(offset + Integer.BYTES)) {
+                    break;
+                }
+                offset += HEADER_SIZE + length;
+            }
+            if (offset + HEADER_SIZE <= buffer.capacity()) {
+                // Хвост недописанной записи не должен читаться как продолжение после новых записей
+                buffer.putInt(offset, 0);
+            }
+            segment.limit = offset;
+            return segment;
+        }
+    }
+}
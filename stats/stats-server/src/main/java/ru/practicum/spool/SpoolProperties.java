@@ -0,0 +1,31 @@
+package ru.practicum.spool;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "stats.spool")
+public class SpoolProperties {
+    // Каталог сегментов журнала и файла контрольной точки
+    private Path directory = Path.of("spool");
+    // Размер одного сегмента; заполненный сегмент закрывается и начинается новый
+    private DataSize segmentSize = DataSize.ofMegabytes(64);
+    // Наибольший объём журнала; при превышении запросы записываются в БД синхронно
+    private DataSize maxSize = DataSize.ofGigabytes(1);
+    // Сбрасывать ли страницы на диск после каждой записи. Без этого журнал переживает падение процесса,
+    // но не ОС: страницы сбрасываются при каждом проходе разборщика
+    private boolean forceEachWrite = false;
+    // Пауза разборщика, когда журнал пуст
+    private Duration pollInterval = Duration.ofMillis(200);
+    // Пауза перед повтором пакета, который не удалось записать в БД
+    private Duration retryDelay = Duration.ofSeconds(5);
+    // После стольких неудач подряд пакет делится пополам, пока не найдётся запрос, который БД отвергает
+    // из-за его данных; такой запрос откладывается в файл карантина, остальные записываются
+    private int isolateAfter = 3;
+}
@@ -0,0 +1,17 @@
+package ru.practicum.template;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "stats.template")
+public class TemplateProperties {
+    // Шаблоны маршрутов, например /events/{id}; {имя} совпадает с одним непустым сегментом пути.
+    // Uri относится к первому подходящему шаблону
+    private List<String> patterns = new ArrayList<>();
+}
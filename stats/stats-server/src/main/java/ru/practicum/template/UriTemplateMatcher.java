@@ -0,0 +1,51 @@
+package ru.practicum.template;
+
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Сопоставляет конкретные uri с шаблонами маршрутов из stats.template.patterns.
+ */
+@Component
+public class UriTemplateMatcher {
+
+    private static final Pattern VARIABLE = Pattern.compile("\\{[^/{}]+}");
+
+    private final List<CompiledTemplate> templates;
+
+    public UriTemplateMatcher(TemplateProperties properties) {
+        this.templates = properties.getPatterns().stream()
+                .map(template -> new CompiledTemplate(template, compile(template)))
+                .toList();
+    }
+
+    /**
+     * @return шаблон, под который подходит uri, или null
+     */
+    public String match(String uri) {
+        for (CompiledTemplate template : templates) {
+            if (template.pattern().matcher(uri).matches()) {
+                return template.template();
+            }
+        }
+        return null;
+    }
+
+    private static Pattern compile(String template) {
+        StringBuilder regex = new StringBuilder();
+        Matcher variables = VARIABLE.matcher(template);
+        int literalStart = 0;
+        while (variables.find()) {
+            regex.append(Pattern.quote(template.substring(literalStart, variables.start()))).append("[^/]+");
+            literalStart = variables.end();
+        }
+        regex.append(Pattern.quote(template.substring(literalStart)));
+        return Pattern.compile(regex.toString());
+    }
+
+    private record CompiledTemplate(String template, Pattern pattern) {
+    }
+}
@@ -0,0 +1,100 @@
+package ru.practicum.top;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Скетч Space-Saving для поиска самых частых значений потока в ограниченной памяти.
+ * Отслеживается не больше capacity значений; новое значение вытесняет значение с наименьшим счётчиком
+ * и наследует этот счётчик как ошибку. Поэтому счётчик - оценка сверху, а настоящее количество
+ * не меньше count - error. Любое значение, встретившееся больше N / capacity раз, в скетче есть.
+ */
+public class SpaceSaving {
+
+    private static final Comparator<Counter> BY_COUNT = Comparator.comparingLong((Counter counter) -> counter.count)
+            .thenComparingInt(counter -> counter.item);
+
+    private final int capacity;
+    private final Map<Integer, Counter> counters = new HashMap<>();
+    private final TreeSet<Counter> byCount = new TreeSet<>(BY_COUNT);
+
+    public SpaceSaving(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Space-Saving capacity must be positive, got " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    public synchronized void add(int item, long weight) {
+        Counter counter = counters.get(item);
+        if (counter != null) {
+            byCount.remove(counter);
+            counter.count += weight;
+            byCount.add(counter);
+            return;
+        }
+        long inherited = 0;
+        if (counters.size() >= capacity) {
+            Counter min = byCount.pollFirst();
+            counters.remove(min.item);
+            inherited = min.count;
+        }
+        counter = new Counter(item, inherited + weight, inherited);
+        counters.put(item, counter);
+        byCount.add(counter);
+    }
+
+    /**
+     * Объединяет скетчи и возвращает k значений с наибольшими оценками.
+     * Значение, которого нет в заполненном скетче, могло встретиться в нём не больше минимального счётчика,
+     * поэтому этот минимум добавляется и к оценке, и к ошибке.
+     */
+    public static List<Estimate> top(Collection<SpaceSaving> sketches, int k) {
+        long minTotal = 0;
+        Map<Integer, long[]> merged = new HashMap<>();
+        for (SpaceSaving sketch : sketches) {
+            synchronized (sketch) {
+                long min = sketch.minCount();
+                minTotal += min;
+                for (Counter counter : sketch.counters.values()) {
+                    long[] sum = merged.computeIfAbsent(counter.item, item -> new long[2]);
+                    sum[0] += counter.count - min;
+                    sum[1] += counter.error - min;
+                }
+            }
+        }
+        List<Estimate> estimates = new ArrayList<>(merged.size());
+        for (Map.Entry<Integer, long[]> entry : merged.entrySet()) {
+            long[] sum = entry.getValue();
+            estimates.add(new Estimate(entry.getKey(), sum[0] + minTotal, sum[1] + minTotal));
+        }
+        return estimates.stream()
+                .sorted(Comparator.comparingLong(Estimate::count).reversed())
+                .limit(k)
+                .toList();
+    }
+
+    private long minCount() {
+        return counters.size() < capacity ? 0 : byCount.first().count;
+    }
+
+    public record Estimate(int item, long count, long error) {
+    }
+
+    private static final class Counter {
+        private final int item;
+        private long count;
+        private final long error;
+
+        private Counter(int item, long count, long error) {
+            this.item = item;
+            this.count = count;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package ru.practicum.top;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "stats.top")
+public class TopProperties {
+    // Скетчи видят только запросы, записанные этим экземпляром, поэтому включать при одном stats-server;
+    // выключенный трекер заменяют минутные агрегаты в БД
+    private boolean enabled = false;
+    // Сколько uri отслеживает скетч одной минуты приложения; ошибка оценки не больше hits / capacity
+    private int capacity = 1000;
+    // За какой период хранятся поминутные скетчи: наибольшее значение minutes в /stats/top
+    private Duration retention = Duration.ofHours(1);
+}
@@ -0,0 +1,107 @@
+package ru.practicum.top;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.practicum.ingest.HitListener;
+import ru.practicum.model.Stats;
+import ru.practicum.repository.WindowRepository;
+import ru.practicum.rollup.RollupGranularity;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Поминутные скетчи Space-Saving самых посещаемых uri каждого приложения за последние retention.
+ * Пополняются после фиксации каждого пакета; запрос /stats/top объединяет скетчи нужных минут
+ * и не обращается к БД. При старте скетчи восстанавливаются из таблицы stats.
+ * Скетчи видят только запросы своего экземпляра, поэтому с несколькими stats-server трекер выключается,
+ * и /stats/top считается по минутным агрегатам в БД.
+ */
+@Slf4j
+@Component
+public class TopUrisTracker implements HitListener, SmartInitializingSingleton {
+
+    private final TopProperties properties;
+    private final WindowRepository windowRepository;
+    private final Map<Integer, NavigableMap<LocalDateTime, SpaceSaving>> buckets = new ConcurrentHashMap<>();
+
+    public TopUrisTracker(TopProperties properties, WindowRepository windowRepository) {
+        this.properties = properties;
+        this.windowRepository = windowRepository;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        LocalDateTime from = oldestMinute();
+        windowRepository.forEachMinuteCount(from, (minute, count) ->
+                add(count.appId(), minute, count.uriId(), count.hits()));
+        log.info("Скетчи самых посещаемых uri восстановлены с {}", from);
+    }
+
+    @Override
+    public void onHits(List<Stats> hits) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                LocalDateTime oldest = oldestMinute();
+                for (Stats hit : hits) {
+                    LocalDateTime minute = RollupGranularity.MINUTE.floor(hit.getTimestamp());
+                    if (!minute.isBefore(oldest)) {
+                        add(hit.getAppId(), minute, hit.getUriId(), hit.getHits());
+                    }
+                }
+            }
+        });
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * k самых посещаемых uri приложения за последние minutes минут, включая текущую.
+     */
+    public List<SpaceSaving.Estimate> getTop(int appId, int k, int minutes) {
+        NavigableMap<LocalDateTime, SpaceSaving> appBuckets = buckets.get(appId);
+        if (appBuckets == null) {
+            return List.of();
+        }
+        LocalDateTime from = RollupGranularity.MINUTE.floor(LocalDateTime.now()).minusMinutes(minutes - 1);
+        return SpaceSaving.top(appBuckets.tailMap(from, true).values(), k);
+    }
+
+    public long getMaxMinutes() {
+        return properties.getRetention().toMinutes();
+    }
+
+    @Scheduled(fixedRate = 1, timeUnit = TimeUnit.MINUTES)
+    public void evictExpired() {
+        LocalDateTime oldest = oldestMinute();
+        buckets.values().forEach(appBuckets -> appBuckets.headMap(oldest).clear());
+    }
+
+    private void add(int appId, LocalDateTime minute, int uriId, long hits) {
+        buckets.computeIfAbsent(appId, id -> new ConcurrentSkipListMap<>())
+                .computeIfAbsent(minute, m -> new SpaceSaving(properties.getCapacity()))
+                .add(uriId, hits);
+    }
+
+    private LocalDateTime oldestMinute() {
+        return RollupGranularity.MINUTE.floor(LocalDateTime.now().minus(properties.getRetention())).plusMinutes(1);
+    }
+}
@@ -0,0 +1,257 @@
+package ru.practicum.visitor;
+
+import lombok.RequiredArgsConstructor;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.stereotype.Component;
+import ru.practicum.ingest.HitListener;
+import ru.practicum.model.AppUri;
+import ru.practicum.model.Stats;
+import ru.practicum.model.StatsCount;
+import ru.practicum.repository.CompactionRepository;
+import ru.practicum.repository.VisitorRepository;
+import ru.practicum.repository.VisitorRepository.HourBitmap;
+import ru.practicum.rollup.BucketKey;
+import ru.practicum.rollup.RollupGranularity;
+import ru.practicum.rollup.RollupPlanner;
+import ru.practicum.rollup.RollupSegment;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Индекс уникальных посетителей: IP получают плотные id, и для каждого часа и пары app/uri хранится
+ * сжатая (Roaring) битовая карта id. Точное количество уникальных IP за интервал - мощность объединения
+ * карт его часов, края интервала, не кратные часу, дочитываются из сырых строк. Пересечение карт разных uri
+ * даёт посетителей, побывавших на каждом из них.
+ * <p>
+ * Карты закрытых часов по запрошенным uri загружаются лениво и кэшируются в пределах memoryBudget,
+ * вытесняются давно не читанные. Запросы задним числом в закрытые часы может записать любой узел, поэтому
+ * перед использованием закэшированные карты сверяются с версиями строк в БД, и изменённые загружаются заново.
+ */
+@Component
+@RequiredArgsConstructor
+public class VisitorIndex implements HitListener {
+
+    private static final List<RollupGranularity> HOURLY = List.of(RollupGranularity.HOUR);
+    // Примерные накладные расходы на запись кэша сверх самих карт
+    private static final long ENTRY_OVERHEAD = 64;
+
+    private final VisitorIndexProperties properties;
+    private final VisitorRepository visitorRepository;
+    private final CompactionRepository compactionRepository;
+    private final RollupPlanner rollupPlanner;
+
+    // Карты часа по одному uri с версиями, по id приложения; LinkedHashMap в порядке доступа, защищена this
+    private final LinkedHashMap<HourUri, Map<Integer, HourBitmap>> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    public LocalDateTime getCoveredFrom() {
+        return visitorRepository.getCoveredFrom();
+    }
+
+    @Override
+    public void onHits(List<Stats> hits) {
+        if (!properties.isEnabled() || hits.isEmpty()) {
+            return;
+        }
+        Map<String, Integer> ipIds = visitorRepository.resolveIps(hits.stream().map(Stats::getIp).toList());
+        Map<BucketKey, RoaringBitmap> bitmaps = new TreeMap<>(BucketKey.LOCK_ORDER);
+        for (Stats hit : hits) {
+            BucketKey key = new BucketKey(RollupGranularity.HOUR.floor(hit.getTimestamp()), hit.getAppId(),
+                    hit.getUriId());
+            bitmaps.computeIfAbsent(key, k -> new RoaringBitmap()).add(ipIds.get(hit.getIp()));
+        }
+        visitorRepository.merge(bitmaps);
+    }
+
+    /**
+     * Точное количество уникальных IP за [start, end], если интервал покрыт картами.
+     *
+     * @param uriIds пустой список - по всем uri
+     */
+    public Optional<List<StatsCount>> getStats(LocalDateTime start, LocalDateTime end, List<Integer> uriIds) {
+        if (!properties.isEnabled() || start.isBefore(getCoveredFrom())) {
+            return Optional.empty();
+        }
+        return Optional.of(getVisitors(start, end, uriIds).entrySet().stream()
+                .map(entry -> new StatsCount(entry.getKey().appId(), entry.getKey().uriId(),
+                        entry.getValue().getLongCardinality()))
+                .sorted(Comparator.comparing(StatsCount::hits).reversed())
+                .toList());
+    }
+
+    /**
+     * Количество IP, запросивших за [start, end] хотя бы один uri из каждой группы.
+     * Вызывать для интервалов не раньше getCoveredFrom.
+     */
+    public long countCommon(LocalDateTime start, LocalDateTime end, List<List<Integer>> uriGroups) {
+        RoaringBitmap common = null;
+        for (List<Integer> group : uriGroups) {
+            if (group.isEmpty()) {
+                return 0;
+            }
+            RoaringBitmap visitors = RoaringBitmap.or(getVisitors(start, end, group).values().iterator());
+            common = common == null ? visitors : RoaringBitmap.and(common, visitors);
+        }
+        return common == null ? 0 : common.getLongCardinality();
+    }
+
+    private Map<AppUri, RoaringBitmap> getVisitors(LocalDateTime start, LocalDateTime end, List<Integer> uriIds) {
+        Map<AppUri, RoaringBitmap> result = new HashMap<>();
+        List<LocalDateTime> closed = new ArrayList<>();
+        List<LocalDateTime> open = new ArrayList<>();
+        LocalDateTime currentHour = RollupGranularity.HOUR.floor(LocalDateTime.now());
+        for (RollupSegment segment : rollupPlanner.plan(start, end, getCoveredFrom(),
+                compactionRepository.getCompactedBefore(), HOURLY)) {
+            if (segment.isRaw()) {
+                visitorRepository.forEachRawVisitor(segment, uriIds, (key, ipId) ->
+                        result.computeIfAbsent(key, k -> new RoaringBitmap()).add(ipId));
+                continue;
+            }
+            for (LocalDateTime hour = segment.from(); hour.isBefore(segment.to()); hour = hour.plusHours(1)) {
+                // По всем uri карты читаются из БД: держать в кэше полный состав часа слишком дорого
+                (hour.isBefore(currentHour) && !uriIds.isEmpty() ? closed : open).add(hour);
+            }
+        }
+        if (!open.isEmpty()) {
+            visitorRepository.forEachBitmap(open, uriIds, (key, bitmap) -> or(result, key, bitmap.visitors()));
+        }
+        if (!closed.isEmpty()) {
+            getCached(closed, uriIds).forEach((key, visitors) -> or(result, key, visitors));
+        }
+        return result;
+    }
+
+    private static void or(Map<AppUri, RoaringBitmap> result, BucketKey key, RoaringBitmap visitors) {
+        result.computeIfAbsent(new AppUri(key.appId(), key.uriId()), k -> new RoaringBitmap()).or(visitors);
+    }
+
+    /**
+     * Карты закрытых часов. Закэшированные сверяются с версиями в БД; недостающие и изменённые загружаются
+     * одним запросом. Возвращаемые карты не изменяются: кэш заменяет карту новой.
+     */
+    private Map<BucketKey, RoaringBitmap> getCached(List<LocalDateTime> hours, List<Integer> uriIds) {
+        Map<HourUri, Map<Integer, HourBitmap>> cached = new HashMap<>();
+        synchronized (this) {
+            for (LocalDateTime hour : hours) {
+                for (Integer uriId : uriIds) {
+                    HourUri key = new HourUri(hour, uriId);
+                    Map<Integer, HourBitmap> visitors = cache.get(key);
+                    if (visitors != null) {
+                        cached.put(key, visitors);
+                    }
+                }
+            }
+        }
+        if (!cached.isEmpty()) {
+            dropChanged(cached);
+        }
+        Map<BucketKey, RoaringBitmap> result = new HashMap<>();
+        Set<LocalDateTime> missingHours = new LinkedHashSet<>();
+        Set<Integer> missingUris = new LinkedHashSet<>();
+        for (LocalDateTime hour : hours) {
+            for (Integer uriId : uriIds) {
+                Map<Integer, HourBitmap> visitors = cached.get(new HourUri(hour, uriId));
+                if (visitors == null) {
+                    missingHours.add(hour);
+                    missingUris.add(uriId);
+                } else {
+                    visitors.forEach((appId, bitmap) ->
+                            result.put(new BucketKey(hour, appId, uriId), bitmap.visitors()));
+                }
+            }
+        }
+        if (missingHours.isEmpty()) {
+            return result;
+        }
+        Map<HourUri, Map<Integer, HourBitmap>> loaded = new HashMap<>();
+        for (LocalDateTime hour : missingHours) {
+            for (Integer uriId : missingUris) {
+                loaded.put(new HourUri(hour, uriId), new HashMap<>());
+            }
+        }
+        visitorRepository.forEachBitmap(missingHours, missingUris, (key, bitmap) ->
+                loaded.get(new HourUri(key.bucket(), key.uriId())).put(key.appId(), bitmap));
+        synchronized (this) {
+            loaded.forEach((key, visitors) -> {
+                if (!cached.containsKey(key)) {
+                    Map<Integer, HourBitmap> previous = cache.put(key, visitors);
+                    cachedBytes += size(visitors) - (previous == null ? 0 : size(previous));
+                }
+                visitors.forEach((appId, bitmap) -> result.put(new BucketKey(key.hour(), appId, key.uriId()),
+                        bitmap.visitors()));
+            });
+            evict();
+        }
+        return result;
+    }
+
+    /**
+     * Убирает из cached и из кэша карты, версии которых в БД изменились: туда записал запросы задним числом
+     * этот или другой узел. Новая строка приложения в том же часе тоже меняет набор версий.
+     */
+    private void dropChanged(Map<HourUri, Map<Integer, HourBitmap>> cached) {
+        Set<LocalDateTime> hours = new LinkedHashSet<>();
+        Set<Integer> uriIds = new LinkedHashSet<>();
+        cached.keySet().forEach(key -> {
+            hours.add(key.hour());
+            uriIds.add(key.uriId());
+        });
+        Map<HourUri, Map<Integer, Long>> current = new HashMap<>();
+        visitorRepository.forEachVersion(hours, uriIds, (key, version) ->
+                current.computeIfAbsent(new HourUri(key.bucket(), key.uriId()), k -> new HashMap<>())
+                        .put(key.appId(), version));
+        List<HourUri> changed = new ArrayList<>();
+        cached.forEach((key, visitors) -> {
+            Map<Integer, Long> versions = new HashMap<>();
+            visitors.forEach((appId, bitmap) -> versions.put(appId, bitmap.version()));
+            if (!versions.equals(current.getOrDefault(key, Map.of()))) {
+                changed.add(key);
+            }
+        });
+        if (changed.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            for (HourUri key : changed) {
+                Map<Integer, HourBitmap> stale = cached.remove(key);
+                if (cache.remove(key, stale)) {
+                    cachedBytes -= size(stale);
+                }
+            }
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<HourUri, Map<Integer, HourBitmap>>> eldest = cache.entrySet().iterator();
+        while (cachedBytes > properties.getMemoryBudget().toBytes() && eldest.hasNext()) {
+            cachedBytes -= size(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    private static long size(Map<Integer, HourBitmap> visitors) {
+        long size = ENTRY_OVERHEAD;
+        for (HourBitmap bitmap : visitors.values()) {
+            size += ENTRY_OVERHEAD + bitmap.visitors().getSizeInBytes();
+        }
+        return size;
+    }
+
+    private record HourUri(LocalDateTime hour, int uriId) {
+    }
+}
@@ -0,0 +1,15 @@
+package ru.practicum.visitor;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "stats.visitor-index")
+public class VisitorIndexProperties {
+    private boolean enabled = false;
+    // Предел памяти под загруженные битовые карты закрытых часов; сверх него вытесняются давно не читанные часы
+    private DataSize memoryBudget = DataSize.ofMegabytes(256);
+}
@@ -0,0 +1,202 @@
+package ru.practicum.window;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.practicum.ingest.HitListener;
+import ru.practicum.model.AppUri;
+import ru.practicum.model.Stats;
+import ru.practicum.model.StatsCount;
+import ru.practicum.repository.WindowRepository;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Кольцо посекундных счётчиков запросов по парам app/uri за последние duration.
+ * Пополняется после фиксации каждого пакета и отвечает на запросы /stats без unique,
+ * интервал которых целиком лежит внутри окна, не обращаясь к БД.
+ * При старте окно восстанавливается из таблицы stats до того, как сервис начнёт принимать запросы.
+ * Запросы, записанные другими экземплярами, в окно не попадают, поэтому оно включается только
+ * при единственном stats-server (см. WindowProperties).
+ */
+@Slf4j
+@Component
+public class RecentHitsWindow implements HitListener, SmartInitializingSingleton {
+
+    private final WindowProperties properties;
+    private final WindowRepository windowRepository;
+    private final AtomicReferenceArray<Slot> slots;
+    private final AtomicLong entries = new AtomicLong();
+
+    // Секунда, раньше которой окну нельзя доверять: до восстановления или из-за переполнения
+    private volatile long validFrom = Long.MAX_VALUE;
+
+    public RecentHitsWindow(WindowProperties properties, WindowRepository windowRepository) {
+        this.properties = properties;
+        this.windowRepository = windowRepository;
+        this.slots = new AtomicReferenceArray<>(properties.isEnabled()
+                ? (int) properties.getDuration().toSeconds()
+                : 0);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        LocalDateTime from = LocalDateTime.now().minus(properties.getDuration()).withNano(0);
+        validFrom = toSecond(from);
+        windowRepository.forEachSecondCount(from, (second, count) ->
+                add(toSecond(second), new AppUri(count.appId(), count.uriId()), count.hits()));
+        log.info("Окно последних запросов восстановлено с {}, счётчиков: {}", from, entries.get());
+    }
+
+    @Override
+    public void onHits(List<Stats> hits) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                for (Stats hit : hits) {
+                    add(toSecond(hit.getTimestamp()), new AppUri(hit.getAppId(), hit.getUriId()), hit.getHits());
+                }
+            }
+        });
+    }
+
+    /**
+     * Количество запросов за [start, end], если интервал целиком покрыт окном.
+     *
+     * @param uriIds пустой список - по всем uri
+     */
+    public Optional<List<StatsCount>> getStats(LocalDateTime start, LocalDateTime end, Collection<Integer> uriIds) {
+        if (!properties.isEnabled()) {
+            return Optional.empty();
+        }
+        long now = toSecond(LocalDateTime.now());
+        long from = toSecond(start);
+        if (from < validFrom || from <= now - slots.length()) {
+            return Optional.empty();
+        }
+        long to = Math.min(toSecond(end), now);
+        Set<Integer> filter = new HashSet<>(uriIds);
+        Map<AppUri, Long> totals = new HashMap<>();
+        for (long second = from; second <= to; second++) {
+            Slot slot = slots.get(index(second));
+            if (slot == null || slot.second != second) {
+                continue;
+            }
+            slot.counts.forEach((key, adder) -> {
+                if (filter.isEmpty() || filter.contains(key.uriId())) {
+                    totals.merge(key, adder.sum(), Long::sum);
+                }
+            });
+        }
+        return Optional.of(totals.entrySet().stream()
+                .map(entry -> new StatsCount(entry.getKey().appId(), entry.getKey().uriId(), entry.getValue()))
+                .sorted(Comparator.comparing(StatsCount::hits).reversed())
+                .toList());
+    }
+
+    private void add(long second, AppUri key, long hits) {
+        int index = index(second);
+        while (true) {
+            Slot slot = slots.get(index);
+            if (slot != null && slot.second == second) {
+                // Вытеснение слота ждёт завершения начатых в нём увеличений, поэтому увеличение либо учтено
+                // до вытеснения, либо повторяется по новому слоту
+                slot.lock.readLock().lock();
+                try {
+                    if (!slot.retired) {
+                        LongAdder adder = slot.counts.get(key);
+                        if (adder == null) {
+                            if (entries.get() >= properties.getMaxEntries()) {
+                                overflow(second);
+                                return;
+                            }
+                            adder = slot.counts.computeIfAbsent(key, k -> {
+                                entries.incrementAndGet();
+                                return new LongAdder();
+                            });
+                        }
+                        adder.add(hits);
+                        return;
+                    }
+                } finally {
+                    slot.lock.readLock().unlock();
+                }
+                continue;
+            }
+            if (slot != null && slot.second > second) {
+                // Запрос старше окна
+                return;
+            }
+            if (slots.compareAndSet(index, slot, new Slot(second)) && slot != null) {
+                entries.addAndGet(-slot.retire());
+            }
+        }
+    }
+
+    private void overflow(long second) {
+        // Эта секунда неполна: пока она не выйдет из окна, запросы с её участием идут в БД
+        if (validFrom <= second) {
+            validFrom = second + 1;
+            log.warn("Окно последних запросов переполнено ({} счётчиков), ответы из памяти приостановлены на {}",
+                    properties.getMaxEntries(), properties.getDuration());
+        }
+    }
+
+    private int index(long second) {
+        return (int) Math.floorMod(second, (long) slots.length());
+    }
+
+    private static long toSecond(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    private static final class Slot {
+        private final long second;
+        private final Map<AppUri, LongAdder> counts = new ConcurrentHashMap<>();
+        // Увеличения счётчиков (чтение) и вытеснение слота (запись)
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private boolean retired;
+
+        private Slot(long second) {
+            this.second = second;
+        }
+
+        /**
+         * Помечает вытесненный слот, дождавшись начатых в нём увеличений.
+         *
+         * @return количество счётчиков в слоте
+         */
+        private int retire() {
+            lock.writeLock().lock();
+            try {
+                retired = true;
+                return counts.size();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+}
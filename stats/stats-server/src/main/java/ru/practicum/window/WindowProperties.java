@@ -0,0 +1,19 @@
+package ru.practicum.window;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "stats.window")
+public class WindowProperties {
+    // Счётчики видят только запросы, записанные этим экземпляром, поэтому включать при одном stats-server
+    private boolean enabled = false;
+    // Глубина окна посекундных счётчиков
+    private Duration duration = Duration.ofHours(1);
+    // Предел числа счётчиков (пар app/uri в секунду) во всём окне
+    private int maxEntries = 200_000;
+}
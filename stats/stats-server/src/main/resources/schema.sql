@@ -1,8 +1,201 @@
+-- Словари приложений и uri: в таблицах статистики хранятся только их целочисленные id
+CREATE TABLE IF NOT EXISTS stats_app (
+    id INT GENERATED BY DEFAULT AS IDENTITY NOT NULL,
+    name VARCHAR(100) NOT NULL,
+    CONSTRAINT pk_stats_app PRIMARY KEY (id),
+    CONSTRAINT uq_stats_app_name UNIQUE (name)
+    );
+
+CREATE TABLE IF NOT EXISTS stats_uri (
+    id INT GENERATED BY DEFAULT AS IDENTITY NOT NULL,
+    uri VARCHAR(2048) NOT NULL,
+    CONSTRAINT pk_stats_uri PRIMARY KEY (id),
+    CONSTRAINT uq_stats_uri_uri UNIQUE (uri)
+    );
+
+-- Таблица секционирована по time_stamp; секции по периодам создаёт и удаляет PartitionManager.
+-- Таблицу stats прежнего вида (app, uri, ip строками) SchemaInitializer переносит в новую до выполнения этого скрипта
 CREATE TABLE IF NOT EXISTS stats (
     id BIGINT GENERATED BY DEFAULT AS IDENTITY NOT NULL,
-    app VARCHAR(100) NOT NULL,
-    uri VARCHAR(100) NOT NULL,
-    ip  VARCHAR(15)  NOT NULL,
+    app_id INT NOT NULL,
+    uri_id INT NOT NULL,
+    ip INET NOT NULL,
     time_stamp TIMESTAMP NOT NULL,
-    CONSTRAINT pk_stats PRIMARY KEY (id)
-    );
\ No newline at end of file
+    CONSTRAINT pk_stats PRIMARY KEY (id, time_stamp)
+    ) PARTITION BY RANGE (time_stamp);
+
+-- Запросы за периоды без своей секции. Создаётся здесь, а не в PartitionManager: без неё запись в stats
+-- невозможна при stats.partition.enabled = false и до первого обхода PartitionManager
+CREATE TABLE IF NOT EXISTS stats_default PARTITION OF stats DEFAULT;
+
+CREATE INDEX IF NOT EXISTS ix_stats_time_stamp ON stats (time_stamp);
+
+-- Число одинаковых запросов, свёрнутых клиентом в одну строку; все счётчики запросов - сумма hits, а не число строк
+ALTER TABLE stats ADD COLUMN IF NOT EXISTS hits INT NOT NULL DEFAULT 1;
+
+CREATE TABLE IF NOT EXISTS stats_rollup_minute (
+    bucket_start TIMESTAMP NOT NULL,
+    app_id INT NOT NULL,
+    uri_id INT NOT NULL,
+    hits BIGINT NOT NULL,
+    CONSTRAINT pk_stats_rollup_minute PRIMARY KEY (bucket_start, app_id, uri_id)
+    );
+
+CREATE TABLE IF NOT EXISTS stats_rollup_hour (
+    bucket_start TIMESTAMP NOT NULL,
+    app_id INT NOT NULL,
+    uri_id INT NOT NULL,
+    hits BIGINT NOT NULL,
+    CONSTRAINT pk_stats_rollup_hour PRIMARY KEY (bucket_start, app_id, uri_id)
+    );
+
+CREATE TABLE IF NOT EXISTS stats_rollup_day (
+    bucket_start TIMESTAMP NOT NULL,
+    app_id INT NOT NULL,
+    uri_id INT NOT NULL,
+    hits BIGINT NOT NULL,
+    CONSTRAINT pk_stats_rollup_day PRIMARY KEY (bucket_start, app_id, uri_id)
+    );
+
+-- Агрегаты полны начиная со следующей минуты после первого запуска с ними; id = 1: количество запросов
+CREATE TABLE IF NOT EXISTS stats_rollup_state (
+    id INT NOT NULL,
+    covered_from TIMESTAMP NOT NULL,
+    CONSTRAINT pk_stats_rollup_state PRIMARY KEY (id)
+    );
+
+INSERT INTO stats_rollup_state (id, covered_from)
+VALUES (1, date_trunc('minute', localtimestamp) + INTERVAL '1 minute')
+ON CONFLICT (id) DO NOTHING;
+
+CREATE TABLE IF NOT EXISTS stats_hll_hour (
+    bucket_start TIMESTAMP NOT NULL,
+    app_id INT NOT NULL,
+    uri_id INT NOT NULL,
+    registers BYTEA NOT NULL,
+    CONSTRAINT pk_stats_hll_hour PRIMARY KEY (bucket_start, app_id, uri_id)
+    );
+
+CREATE TABLE IF NOT EXISTS stats_hll_day (
+    bucket_start TIMESTAMP NOT NULL,
+    app_id INT NOT NULL,
+    uri_id INT NOT NULL,
+    registers BYTEA NOT NULL,
+    CONSTRAINT pk_stats_hll_day PRIMARY KEY (bucket_start, app_id, uri_id)
+    );
+
+-- id = 2: скетчи уникальных IP
+INSERT INTO stats_rollup_state (id, covered_from)
+VALUES (2, date_trunc('minute', localtimestamp) + INTERVAL '1 minute')
+ON CONFLICT (id) DO NOTHING;
+
+-- Шаблоны uri (например, /events/{id}); uri, подходящий под шаблон, ссылается на него из stats_uri
+CREATE TABLE IF NOT EXISTS stats_uri_template (
+    id INT GENERATED BY DEFAULT AS IDENTITY NOT NULL,
+    template VARCHAR(2048) NOT NULL,
+    CONSTRAINT pk_stats_uri_template PRIMARY KEY (id),
+    CONSTRAINT uq_stats_uri_template_template UNIQUE (template)
+    );
+
+ALTER TABLE stats_uri ADD COLUMN IF NOT EXISTS template_id INT;
+
+CREATE INDEX IF NOT EXISTS ix_stats_uri_template_id ON stats_uri (template_id);
+
+CREATE TABLE IF NOT EXISTS stats_template_rollup_minute (
+    bucket_start TIMESTAMP NOT NULL,
+    app_id INT NOT NULL,
+    template_id INT NOT NULL,
+    hits BIGINT NOT NULL,
+    CONSTRAINT pk_stats_template_rollup_minute PRIMARY KEY (bucket_start, app_id, template_id)
+    );
+
+CREATE TABLE IF NOT EXISTS stats_template_rollup_hour (
+    bucket_start TIMESTAMP NOT NULL,
+    app_id INT NOT NULL,
+    template_id INT NOT NULL,
+    hits BIGINT NOT NULL,
+    CONSTRAINT pk_stats_template_rollup_hour PRIMARY KEY (bucket_start, app_id, template_id)
+    );
+
+CREATE TABLE IF NOT EXISTS stats_template_rollup_day (
+    bucket_start TIMESTAMP NOT NULL,
+    app_id INT NOT NULL,
+    template_id INT NOT NULL,
+    hits BIGINT NOT NULL,
+    CONSTRAINT pk_stats_template_rollup_day PRIMARY KEY (bucket_start, app_id, template_id)
+    );
+
+-- id = 3: количество запросов по шаблонам uri
+INSERT INTO stats_rollup_state (id, covered_from)
+VALUES (3, date_trunc('minute', localtimestamp) + INTERVAL '1 minute')
+ON CONFLICT (id) DO NOTHING;
+
+-- Сжатие сырых данных: строки stats раньше compacted_before удалены, этот период отвечают часовые и дневные агрегаты.
+-- purge_before - прежняя граница, advanced_at - когда граница сдвинута (удалять до новой можно, когда её увидят все узлы)
+CREATE TABLE IF NOT EXISTS stats_compaction_state (
+    id INT NOT NULL,
+    compacted_before TIMESTAMP NOT NULL,
+    purge_before TIMESTAMP NOT NULL,
+    advanced_at TIMESTAMP NOT NULL,
+    CONSTRAINT pk_stats_compaction_state PRIMARY KEY (id)
+    );
+
+INSERT INTO stats_compaction_state (id, compacted_before, purge_before, advanced_at)
+VALUES (1, TIMESTAMP '1970-01-01 00:00:00', TIMESTAMP '1970-01-01 00:00:00', TIMESTAMP '1970-01-01 00:00:00')
+ON CONFLICT (id) DO NOTHING;
+
+-- Словарь IP: плотные целочисленные id для битовых карт посетителей
+CREATE TABLE IF NOT EXISTS stats_ip (
+    id INT GENERATED BY DEFAULT AS IDENTITY NOT NULL,
+    ip INET NOT NULL,
+    CONSTRAINT pk_stats_ip PRIMARY KEY (id),
+    CONSTRAINT uq_stats_ip_ip UNIQUE (ip)
+    );
+
+-- Сжатые (Roaring) битовые карты id IP, запросивших uri за час
+CREATE TABLE IF NOT EXISTS stats_visitor_hour (
+    bucket_start TIMESTAMP NOT NULL,
+    app_id INT NOT NULL,
+    uri_id INT NOT NULL,
+    visitors BYTEA NOT NULL,
+    CONSTRAINT pk_stats_visitor_hour PRIMARY KEY (bucket_start, app_id, uri_id)
+    );
+
+-- Увеличивается при каждом изменении карты: узлы сверяют по нему закэшированные карты закрытых часов
+ALTER TABLE stats_visitor_hour ADD COLUMN IF NOT EXISTS version BIGINT NOT NULL DEFAULT 0;
+
+-- id = 5: битовые карты посетителей
+INSERT INTO stats_rollup_state (id, covered_from)
+VALUES (5, date_trunc('minute', localtimestamp) + INTERVAL '1 minute')
+ON CONFLICT (id) DO NOTHING;
+
+-- Прирост количества запросов по транзакциям записи для /stats/changes; tx_id - id транзакции, записавшей пакет
+CREATE TABLE IF NOT EXISTS stats_delta (
+    tx_id XID8 NOT NULL DEFAULT pg_current_xact_id(),
+    app_id INT NOT NULL,
+    uri_id INT NOT NULL,
+    hits BIGINT NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT localtimestamp
+    );
+
+CREATE INDEX IF NOT EXISTS ix_stats_delta_tx_id ON stats_delta (tx_id);
+
+CREATE INDEX IF NOT EXISTS ix_stats_delta_created_at ON stats_delta (created_at);
+
+-- Курсоры не больше pruned_through указывают на удалённый прирост
+CREATE TABLE IF NOT EXISTS stats_delta_state (
+    id INT NOT NULL,
+    pruned_through XID8 NOT NULL,
+    CONSTRAINT pk_stats_delta_state PRIMARY KEY (id)
+    );
+
+INSERT INTO stats_delta_state (id, pruned_through)
+VALUES (1, '0')
+ON CONFLICT (id) DO NOTHING;
+
+-- Шард, которому принадлежит эта БД: у каждого шарда своя БД, экземпляр с другим stats.shard.id не запустится
+CREATE TABLE IF NOT EXISTS stats_shard (
+    id INT NOT NULL,
+    shard_id VARCHAR(100) NOT NULL,
+    CONSTRAINT pk_stats_shard PRIMARY KEY (id)
+    );
@@ -0,0 +1,103 @@
+package ru.practicum.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import ru.practicum.dto.BulkHitResultDto;
+import ru.practicum.dto.HitRejectionDto;
+import ru.practicum.ingest.HitIngestor;
+import ru.practicum.mapper.StatsMapper;
+import ru.practicum.mapper.StatsMapperImpl;
+import ru.practicum.model.Stats;
+import ru.practicum.service.StatsServiceImpl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class StatsServerControllerTest {
+
+    private static final String HIT = "{\"app\":\"ewm-main-service\",\"uri\":\"/events/%d\",\"ip\":\"192.168.0.1\"," +
+            "\"timestamp\":\"2024-01-01 12:00:00\"}\n";
+
+    @Spy
+    private StatsMapper statsMapper = new StatsMapperImpl();
+    @Spy
+    private Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
+    @Mock
+    private HitIngestor hitIngestor;
+
+    @InjectMocks
+    private StatsServiceImpl statsService;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+
+    @Test
+    public void testSyntaxErrorInNdjsonReturnsBadRequestWithProgress() throws IOException {
+        when(hitIngestor.getBatchSize()).thenReturn(2);
+        String body = HIT.formatted(1) + HIT.formatted(2) + HIT.formatted(3) + "{\"app\": oops}\n" + HIT.formatted(5);
+
+        ResponseEntity<BulkHitResultDto> response = post(body);
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertEquals(3, response.getBody().getAccepted());
+        HitRejectionDto rejection = response.getBody().getRejected().getFirst();
+        assertEquals(3, rejection.getIndex());
+        assertTrue(rejection.getErrors().getFirst().startsWith("некорректный JSON в строке 4"),
+                rejection.getErrors().getFirst());
+        // Три запроса до нечитаемой строки записаны, строка после неё не читалась
+        assertEquals(List.of("/events/1", "/events/2", "/events/3"), written());
+    }
+
+    @Test
+    public void testMalformedFirstLineReturnsBadRequest() throws IOException {
+        ResponseEntity<BulkHitResultDto> response = post("not json\n" + HIT.formatted(1));
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertEquals(0, response.getBody().getAccepted());
+        assertEquals(0, response.getBody().getRejected().getFirst().getIndex());
+    }
+
+    @Test
+    public void testWellFormedNdjsonIsAccepted() throws IOException {
+        when(hitIngestor.getBatchSize()).thenReturn(500);
+
+        ResponseEntity<BulkHitResultDto> response = post(HIT.formatted(1) + HIT.formatted(2));
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(2, response.getBody().getAccepted());
+    }
+
+    private ResponseEntity<BulkHitResultDto> post(String body) throws IOException {
+        StatsServerController controller = new StatsServerController(statsService, objectMapper);
+        return controller.saveHitRequestsStream(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private List<String> written() {
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Stats>> captor = ArgumentCaptor.forClass(List.class);
+        verify(hitIngestor, atLeastOnce()).ingestAll(captor.capture());
+        return captor.getAllValues().stream()
+                .flatMap(List::stream)
+                .map(Stats::getUri)
+                .toList();
+    }
+}
@@ -0,0 +1,31 @@
+package ru.practicum.delta;
+
+import org.junit.jupiter.api.Test;
+import ru.practicum.exception.BadCursorException;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DeltaCursorTest {
+
+    @Test
+    public void testRoundTrip() {
+        for (long position : List.of(0L, 1L, 255L, 1L << 40, Long.MAX_VALUE, -1L)) {
+            String cursor = DeltaCursor.encode(position);
+
+            assertEquals(position, DeltaCursor.decode(cursor));
+            // Курсор передаётся в параметре запроса и не должен требовать экранирования
+            assertTrue(cursor.matches("[A-Za-z0-9_-]+"), cursor);
+        }
+    }
+
+    @Test
+    public void testMalformedCursor() {
+        for (String cursor : List.of("", "not a cursor", "AAAA", "AAAAAAAAAAAAAAAA", "+/+/+/+/+/8")) {
+            assertThrows(BadCursorException.class, () -> DeltaCursor.decode(cursor), cursor);
+        }
+    }
+}
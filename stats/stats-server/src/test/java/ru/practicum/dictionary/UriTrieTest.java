@@ -0,0 +1,100 @@
+package ru.practicum.dictionary;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class UriTrieTest {
+
+    private static final List<String> URIS = List.of(
+            "/events",
+            "/events/1",
+            "/events/2",
+            "/events/1/comments",
+            "/events/1/comments/5",
+            "/users/1/events/1",
+            "/compilations",
+            "/events.json",
+            "/a.b/c"
+    );
+
+    private UriTrie trie;
+
+    @BeforeEach
+    public void setUp() {
+        trie = new UriTrie();
+        for (int i = 0; i < URIS.size(); i++) {
+            trie.add(URIS.get(i), i);
+        }
+    }
+
+    @Test
+    public void testSingleSegmentWildcard() {
+        assertEquals(Set.of("/events/1", "/events/2"), match("/events/*"));
+        assertEquals(Set.of("/events/1/comments"), match("/events/*/comments"));
+        assertEquals(Set.of("/events", "/events.json"), match("/event*"));
+    }
+
+    @Test
+    public void testAnySegments() {
+        assertEquals(Set.of("/events", "/events/1", "/events/2", "/events/1/comments", "/events/1/comments/5"),
+                match("/events/**"));
+        assertEquals(Set.of("/events/1", "/users/1/events/1"), match("/**/events/1"));
+        assertEquals(Set.of("/events/1/comments", "/events/1/comments/5"), match("/events/**/comments/**"));
+        assertEquals(Set.copyOf(URIS), match("**"));
+    }
+
+    @Test
+    public void testExactUriAndNoMatch() {
+        assertEquals(Set.of("/events/1"), match("/events/1"));
+        assertTrue(match("/places/*").isEmpty());
+        assertFalse(UriTrie.isPattern("/events/1"));
+        assertTrue(UriTrie.isPattern("/events/*"));
+    }
+
+    @Test
+    public void testMatchStopsAfterLimit() {
+        UriTrie large = new UriTrie();
+        IntStream.range(0, 1000).forEach(i -> large.add("/events/" + i, i));
+
+        Set<Integer> matched = large.match("/events/*", 10);
+
+        assertEquals(11, matched.size());
+        assertEquals(1000, large.size());
+    }
+
+    @Test
+    public void testRegexMatchesSameUris() {
+        for (String pattern : List.of("/events/*", "/events/*/comments", "/event*", "/events/**", "/**/events/1",
+                "/events/**/comments/**", "**", "/a.b/*", "/events/1")) {
+            Pattern regex = Pattern.compile(UriTrie.toRegex(pattern));
+            Set<String> expected = URIS.stream()
+                    .filter(uri -> regex.matcher(uri).matches())
+                    .collect(Collectors.toSet());
+            assertEquals(expected, match(pattern), pattern);
+        }
+    }
+
+    @Test
+    public void testClear() {
+        trie.clear();
+
+        assertEquals(0, trie.size());
+        assertTrue(match("**").isEmpty());
+    }
+
+    private Set<String> match(String pattern) {
+        return trie.match(pattern, Integer.MAX_VALUE - 1).stream()
+                .map(URIS::get)
+                .collect(Collectors.toSet());
+    }
+}
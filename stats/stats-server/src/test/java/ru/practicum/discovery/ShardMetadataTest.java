@@ -0,0 +1,53 @@
+package ru.practicum.discovery;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ShardMetadataTest {
+
+    private static EmbeddedPostgres postgres;
+    private static JdbcTemplate jdbcTemplate;
+
+    private final ShardMetadata shardMetadata = new ShardMetadata(null, new ShardProperties(), jdbcTemplate);
+
+    @BeforeAll
+    public static void startPostgres() throws IOException {
+        postgres = EmbeddedPostgres.start();
+        jdbcTemplate = new JdbcTemplate(postgres.getPostgresDatabase());
+    }
+
+    @AfterAll
+    public static void stopPostgres() throws IOException {
+        postgres.close();
+    }
+
+    @BeforeEach
+    public void createTable() {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS stats_shard");
+        jdbcTemplate.execute("CREATE TABLE stats_shard (id INT NOT NULL, shard_id VARCHAR(100) NOT NULL, " +
+                "CONSTRAINT pk_stats_shard PRIMARY KEY (id))");
+    }
+
+    @Test
+    public void testInstancesOfOneShardShareDatabase() {
+        shardMetadata.bindDatabase("shard-1");
+
+        assertDoesNotThrow(() -> shardMetadata.bindDatabase("shard-1"));
+    }
+
+    @Test
+    public void testOtherShardCannotUseBoundDatabase() {
+        shardMetadata.bindDatabase("shard-1");
+
+        assertThrows(IllegalStateException.class, () -> shardMetadata.bindDatabase("shard-2"));
+    }
+}
@@ -0,0 +1,121 @@
+package ru.practicum.ingest;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.dictionary.StatsDictionary;
+import ru.practicum.model.Stats;
+import ru.practicum.spool.HitSpool;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+
+@ExtendWith(MockitoExtension.class)
+public class HitIngestorTest {
+
+    private static final LocalDateTime TIME = LocalDateTime.of(2024, 1, 1, 12, 0);
+
+    @Mock
+    private StatsDictionary statsDictionary;
+    @Mock
+    private TransactionTemplate transactionTemplate;
+    @Mock
+    private HitSpool hitSpool;
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private final IngestProperties properties = new IngestProperties();
+    private final List<String> written = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeEach
+    public void setUp() {
+        properties.setMode(IngestProperties.IngestMode.ASYNC);
+        properties.setBatchSize(10);
+        properties.setFlushInterval(Duration.ofSeconds(1));
+        properties.setRetryAttempts(2);
+        properties.setRetryDelay(Duration.ofMillis(1));
+    }
+
+    @Test
+    public void testRejectedHitDoesNotDropRestOfBatch() {
+        HitIngestor ingestor = ingestor(hits -> {
+            if (hits.stream().anyMatch(hit -> hit.getUri().equals("/events/3"))) {
+                throw new DataIntegrityViolationException("value too long for type character varying(2048)");
+            }
+            hits.forEach(hit -> written.add(hit.getUri()));
+        });
+
+        ingestAndStop(ingestor, 10);
+
+        List<String> expected = new ArrayList<>(IntStream.range(0, 10).mapToObj(i -> "/events/" + i).toList());
+        expected.remove("/events/3");
+        assertEquals(expected, written.stream().sorted().toList());
+        assertEquals(1.0, registry.counter("stats.ingest.rejected").count());
+        assertEquals(0.0, registry.counter("stats.ingest.dropped").count());
+    }
+
+    @Test
+    public void testUnavailableDatabaseDropsBatchWithoutBisectingToSingleHits() {
+        List<Integer> attempts = Collections.synchronizedList(new ArrayList<>());
+        HitIngestor ingestor = ingestor(hits -> {
+            attempts.add(hits.size());
+            throw new IllegalStateException("connection refused", new SQLException("refused", "08001"));
+        });
+
+        ingestAndStop(ingestor, 10);
+
+        assertTrue(written.isEmpty());
+        assertEquals(10.0, registry.counter("stats.ingest.dropped").count());
+        assertEquals(0.0, registry.counter("stats.ingest.rejected").count());
+        // Три попытки целым пакетом и по одной на каждую половину
+        assertEquals(List.of(10, 10, 10, 5, 5), attempts);
+    }
+
+    @Test
+    public void testClassifiesDataErrorsBySqlState() {
+        assertTrue(HitIngestor.isRejectedByDatabase(new RuntimeException(new SQLException("too long", "22001"))));
+        assertTrue(HitIngestor.isRejectedByDatabase(new RuntimeException(new SQLException("not null", "23502"))));
+        assertFalse(HitIngestor.isRejectedByDatabase(new RuntimeException(new SQLException("refused", "08001"))));
+        assertFalse(HitIngestor.isRejectedByDatabase(new IllegalStateException("БД недоступна")));
+    }
+
+    private HitIngestor ingestor(HitWriter writer) {
+        doAnswer(invocation -> {
+            invocation.<Consumer<TransactionStatus>>getArgument(0).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+        return new HitIngestor(writer, List.of(), statsDictionary, transactionTemplate, properties, hitSpool,
+                registry);
+    }
+
+    private void ingestAndStop(HitIngestor ingestor, int count) {
+        ingestor.start();
+        for (int i = 0; i < count; i++) {
+            ingestor.ingest(Stats.builder()
+                    .app("ewm-main-service")
+                    .uri("/events/" + i)
+                    .ip("192.168.0.1")
+                    .timestamp(TIME)
+                    .build());
+        }
+        ingestor.stop();
+    }
+}
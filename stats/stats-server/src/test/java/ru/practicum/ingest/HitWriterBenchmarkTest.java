@@ -0,0 +1,109 @@
+package ru.practicum.ingest;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.practicum.model.Stats;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Сравнение скорости записи статистики во встроенный PostgreSQL:
+ * построчный INSERT (как StatRepository.save), пакетный INSERT и COPY.
+ * Запуск: mvn test -pl stats/stats-server -Dstats.benchmark=true -Dtest=HitWriterBenchmarkTest
+ */
+@Slf4j
+@EnabledIfSystemProperty(named = "stats.benchmark", matches = "true")
+public class HitWriterBenchmarkTest {
+
+    private static final int ROWS = 200_000;
+    private static final int SINGLE_ROWS = 20_000;
+    private static final int BATCH_SIZE = 500;
+
+    private static EmbeddedPostgres postgres;
+    private static DataSource dataSource;
+    private static JdbcTemplate jdbcTemplate;
+
+    @BeforeAll
+    public static void startPostgres() throws IOException {
+        postgres = EmbeddedPostgres.start();
+        dataSource = postgres.getPostgresDatabase();
+        jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @AfterAll
+    public static void stopPostgres() throws IOException {
+        postgres.close();
+    }
+
+    @BeforeEach
+    public void createTable() {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS stats");
+        jdbcTemplate.execute("CREATE TABLE stats (id BIGINT GENERATED BY DEFAULT AS IDENTITY, app_id INTEGER, " +
+                "uri_id INTEGER, ip INET, time_stamp TIMESTAMP WITHOUT TIME ZONE, hits INTEGER NOT NULL DEFAULT 1)");
+    }
+
+    @Test
+    public void singleRowInsert() {
+        List<Stats> hits = hits(SINGLE_ROWS);
+        long started = System.nanoTime();
+        for (Stats hit : hits) {
+            jdbcTemplate.update("INSERT INTO stats (app_id, uri_id, ip, time_stamp) VALUES (?, ?, ?::inet, ?)",
+                    hit.getAppId(), hit.getUriId(), hit.getIp(), Timestamp.valueOf(hit.getTimestamp()));
+        }
+        report("INSERT по одной строке", SINGLE_ROWS, started);
+    }
+
+    @Test
+    public void jdbcBatchInsert() {
+        run("Пакетный INSERT", new JdbcHitWriter(jdbcTemplate));
+    }
+
+    @Test
+    public void copy() {
+        run("COPY", new CopyHitWriter(dataSource));
+    }
+
+    private void run(String name, HitWriter writer) {
+        List<Stats> hits = hits(ROWS);
+        long started = System.nanoTime();
+        for (int from = 0; from < ROWS; from += BATCH_SIZE) {
+            writer.write(hits.subList(from, Math.min(from + BATCH_SIZE, ROWS)));
+        }
+        report(name, ROWS, started);
+    }
+
+    private void report(String name, int rows, long started) {
+        double seconds = (System.nanoTime() - started) / 1e9;
+        log.info("{}: {} строк за {} с, {} строк/с", name, rows, String.format("%.2f", seconds),
+                Math.round(rows / seconds));
+        assertEquals(rows, jdbcTemplate.queryForObject("SELECT count(*) FROM stats", Integer.class));
+    }
+
+    private static List<Stats> hits(int count) {
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+        List<Stats> hits = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            hits.add(Stats.builder()
+                    .appId(1)
+                    .uriId(i % 1000)
+                    .ip("10." + (i >> 16 & 0xff) + "." + (i >> 8 & 0xff) + "." + (i & 0xff))
+                    .timestamp(start.plusSeconds(i))
+                    .hits(1)
+                    .build());
+        }
+        return hits;
+    }
+}
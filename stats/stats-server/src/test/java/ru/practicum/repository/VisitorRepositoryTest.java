@@ -0,0 +1,102 @@
+package ru.practicum.repository;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import ru.practicum.rollup.BucketKey;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class VisitorRepositoryTest {
+
+    private static final LocalDateTime HOUR = LocalDateTime.of(2024, 1, 1, 12, 0);
+
+    private static EmbeddedPostgres postgres;
+    private static NamedParameterJdbcTemplate jdbcTemplate;
+
+    private VisitorRepository visitorRepository;
+
+    @BeforeAll
+    public static void startPostgres() throws IOException {
+        postgres = EmbeddedPostgres.start();
+        jdbcTemplate = new NamedParameterJdbcTemplate(postgres.getPostgresDatabase());
+    }
+
+    @AfterAll
+    public static void stopPostgres() throws IOException {
+        postgres.close();
+    }
+
+    @BeforeEach
+    public void createTables() {
+        jdbcTemplate.getJdbcTemplate().execute("DROP TABLE IF EXISTS stats_ip");
+        jdbcTemplate.getJdbcTemplate().execute("CREATE TABLE stats_ip (id INT GENERATED BY DEFAULT AS IDENTITY " +
+                "NOT NULL, ip INET NOT NULL, CONSTRAINT pk_stats_ip PRIMARY KEY (id), " +
+                "CONSTRAINT uq_stats_ip_ip UNIQUE (ip))");
+        jdbcTemplate.getJdbcTemplate().execute("DROP TABLE IF EXISTS stats_visitor_hour");
+        jdbcTemplate.getJdbcTemplate().execute("CREATE TABLE stats_visitor_hour (bucket_start TIMESTAMP NOT NULL, " +
+                "app_id INT NOT NULL, uri_id INT NOT NULL, visitors BYTEA NOT NULL, " +
+                "version BIGINT NOT NULL DEFAULT 0, " +
+                "CONSTRAINT pk_stats_visitor_hour PRIMARY KEY (bucket_start, app_id, uri_id))");
+        visitorRepository = new VisitorRepository(jdbcTemplate);
+    }
+
+    @Test
+    public void testKnownIpsDoNotConsumeIds() {
+        Map<String, Integer> first = visitorRepository.resolveIps(List.of("10.0.0.2", "10.0.0.1", "10.0.0.2"));
+        Map<String, Integer> again = visitorRepository.resolveIps(List.of("10.0.0.1", "10.0.0.2"));
+        Map<String, Integer> mixed = visitorRepository.resolveIps(List.of("10.0.0.1", "10.0.0.3"));
+
+        assertEquals(Map.of("10.0.0.1", 1, "10.0.0.2", 2), first);
+        assertEquals(first, again);
+        // Новый IP получает следующий id без пропусков
+        assertEquals(Map.of("10.0.0.1", 1, "10.0.0.3", 3), mixed);
+    }
+
+    @Test
+    public void testVersionChangesOnlyWithBitmap() {
+        BucketKey key = new BucketKey(HOUR, 1, 10);
+
+        visitorRepository.merge(Map.of(key, RoaringBitmap.bitmapOf(1, 2)));
+        assertEquals(Map.of(key, 0L), versions());
+
+        // Уже учтённые посетители карту не меняют
+        visitorRepository.merge(Map.of(key, RoaringBitmap.bitmapOf(2)));
+        assertEquals(Map.of(key, 0L), versions());
+
+        visitorRepository.merge(Map.of(key, RoaringBitmap.bitmapOf(3)));
+        assertEquals(Map.of(key, 1L), versions());
+
+        Map<BucketKey, VisitorRepository.HourBitmap> bitmaps = new HashMap<>();
+        visitorRepository.forEachBitmap(List.of(HOUR), List.of(10), bitmaps::put);
+        assertEquals(RoaringBitmap.bitmapOf(1, 2, 3), bitmaps.get(key).visitors());
+        assertEquals(1L, bitmaps.get(key).version());
+    }
+
+    @Test
+    public void testIpsAreKeyedAsPassed() {
+        Map<String, Integer> ids = visitorRepository.resolveIps(List.of("::1", "0:0:0:0:0:0:0:1", "192.168.0.1"));
+
+        assertEquals(Set.of("::1", "0:0:0:0:0:0:0:1", "192.168.0.1"), ids.keySet());
+        assertEquals(ids.get("::1"), ids.get("0:0:0:0:0:0:0:1"));
+        assertEquals(List.of(1, 2), jdbcTemplate.getJdbcTemplate()
+                .queryForList("SELECT id FROM stats_ip ORDER BY id", Integer.class));
+    }
+
+    private Map<BucketKey, Long> versions() {
+        Map<BucketKey, Long> versions = new HashMap<>();
+        visitorRepository.forEachVersion(List.of(HOUR), List.of(), versions::put);
+        return versions;
+    }
+}
@@ -0,0 +1,161 @@
+package ru.practicum.rollup;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RollupPlannerTest {
+
+    private static final LocalDateTime NOT_COMPACTED = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    private final RollupPlanner planner = new RollupPlanner(keepingMinutes());
+
+    @Test
+    public void testAlignedRangeUsesCoarsestBuckets() {
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+        LocalDateTime end = LocalDateTime.of(2024, 1, 3, 0, 0);
+
+        List<RollupSegment> segments = planner.plan(start, end, NOT_COMPACTED, NOT_COMPACTED);
+
+        assertEquals(List.of(
+                new RollupSegment(RollupGranularity.DAY, start, end, false),
+                RollupSegment.raw(end, end, true)
+        ), segments);
+    }
+
+    @Test
+    public void testUnalignedEdgesUseFinerBuckets() {
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 22, 30, 15);
+        LocalDateTime end = LocalDateTime.of(2024, 1, 3, 1, 20, 5);
+
+        List<RollupSegment> segments = planner.plan(start, end, NOT_COMPACTED, NOT_COMPACTED);
+
+        assertEquals(List.of(
+                RollupSegment.raw(start, LocalDateTime.of(2024, 1, 1, 22, 31), false),
+                new RollupSegment(RollupGranularity.MINUTE, LocalDateTime.of(2024, 1, 1, 22, 31),
+                        LocalDateTime.of(2024, 1, 1, 23, 0), false),
+                new RollupSegment(RollupGranularity.HOUR, LocalDateTime.of(2024, 1, 1, 23, 0),
+                        LocalDateTime.of(2024, 1, 2, 0, 0), false),
+                new RollupSegment(RollupGranularity.DAY, LocalDateTime.of(2024, 1, 2, 0, 0),
+                        LocalDateTime.of(2024, 1, 3, 0, 0), false),
+                new RollupSegment(RollupGranularity.HOUR, LocalDateTime.of(2024, 1, 3, 0, 0),
+                        LocalDateTime.of(2024, 1, 3, 1, 0), false),
+                new RollupSegment(RollupGranularity.MINUTE, LocalDateTime.of(2024, 1, 3, 1, 0),
+                        LocalDateTime.of(2024, 1, 3, 1, 20), false),
+                RollupSegment.raw(LocalDateTime.of(2024, 1, 3, 1, 20), end, true)
+        ), segments);
+        assertContiguous(start, segments);
+    }
+
+    @Test
+    public void testRangeBeforeRollupsIsRaw() {
+        LocalDateTime coveredFrom = LocalDateTime.of(2024, 1, 2, 0, 0);
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+        LocalDateTime end = LocalDateTime.of(2024, 1, 2, 1, 0);
+
+        List<RollupSegment> segments = planner.plan(start, end, coveredFrom, NOT_COMPACTED);
+
+        assertEquals(RollupSegment.raw(start, coveredFrom, false), segments.getFirst());
+        assertEquals(new RollupSegment(RollupGranularity.HOUR, coveredFrom, end, false), segments.get(1));
+        assertContiguous(start, segments);
+    }
+
+    @Test
+    public void testCompactedPeriodRoundedToWholeHours() {
+        LocalDateTime compactedBefore = LocalDateTime.of(2024, 1, 2, 0, 0);
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 22, 30);
+        LocalDateTime end = LocalDateTime.of(2024, 1, 2, 0, 10);
+
+        List<RollupSegment> segments = planner.plan(start, end, NOT_COMPACTED, compactedBefore);
+
+        // Неполный первый час не теряется: сырых строк за него уже нет, поэтому он берётся целиком
+        assertEquals(LocalDateTime.of(2024, 1, 1, 22, 0), RollupPlanner.effectiveStart(start, compactedBefore));
+        assertEquals(new RollupSegment(RollupGranularity.HOUR, LocalDateTime.of(2024, 1, 1, 22, 0),
+                compactedBefore, false), segments.getFirst());
+        assertTrue(segments.stream().noneMatch(segment -> segment.isRaw() && segment.from().isBefore(compactedBefore)));
+        assertEquals(end, segments.getLast().to());
+    }
+
+    @Test
+    public void testRangeInsideCompactedPeriodCoversHourOfEnd() {
+        LocalDateTime compactedBefore = LocalDateTime.of(2024, 1, 5, 0, 0);
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 10, 15);
+        LocalDateTime end = LocalDateTime.of(2024, 1, 1, 12, 45);
+
+        List<RollupSegment> segments = planner.plan(start, end, NOT_COMPACTED, compactedBefore);
+
+        assertEquals(List.of(new RollupSegment(RollupGranularity.HOUR, LocalDateTime.of(2024, 1, 1, 10, 0),
+                LocalDateTime.of(2024, 1, 1, 13, 0), false)), segments);
+    }
+
+    @Test
+    public void testEffectiveStartOutsideCompactedPeriod() {
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 10, 15);
+
+        assertEquals(start, RollupPlanner.effectiveStart(start, NOT_COMPACTED));
+    }
+
+    @Test
+    public void testUpToExcludesCoarserBuckets() {
+        assertEquals(List.of(RollupGranularity.DAY, RollupGranularity.HOUR, RollupGranularity.MINUTE),
+                RollupPlanner.upTo(RollupGranularity.DAY));
+        assertEquals(List.of(RollupGranularity.HOUR, RollupGranularity.MINUTE),
+                RollupPlanner.upTo(RollupGranularity.HOUR));
+        assertEquals(List.of(RollupGranularity.MINUTE), RollupPlanner.upTo(RollupGranularity.MINUTE));
+    }
+
+    @Test
+    public void testTimeseriesPlanUsesBucketsNoCoarserThanInterval() {
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 22, 30);
+        LocalDateTime end = LocalDateTime.of(2024, 1, 4, 1, 0);
+
+        List<RollupSegment> segments = planner.plan(start, end, NOT_COMPACTED, NOT_COMPACTED,
+                RollupPlanner.upTo(RollupGranularity.HOUR));
+
+        // Каждая корзина сегмента целиком лежит в одной часовой корзине ряда
+        assertTrue(segments.stream().noneMatch(segment -> segment.granularity() == RollupGranularity.DAY));
+        assertEquals(new RollupSegment(RollupGranularity.HOUR, LocalDateTime.of(2024, 1, 1, 23, 0), end, false),
+                segments.get(1));
+        assertContiguous(start, segments);
+    }
+
+    private static void assertContiguous(LocalDateTime start, List<RollupSegment> segments) {
+        LocalDateTime expected = start;
+        for (RollupSegment segment : segments) {
+            assertEquals(expected, segment.from());
+            expected = segment.to();
+        }
+    }
+
+    @Test
+    public void testNoMinuteBucketsBeforeMinuteRetention() {
+        RollupProperties properties = new RollupProperties();
+        properties.setMinuteRetention(Duration.ofDays(1));
+        LocalDateTime hour = RollupGranularity.HOUR.floor(LocalDateTime.now());
+        LocalDateTime start = hour.minusHours(48).plusMinutes(30);
+        LocalDateTime end = hour.minusHours(1).plusMinutes(30);
+
+        List<RollupSegment> segments = new RollupPlanner(properties).plan(start, end, NOT_COMPACTED, NOT_COMPACTED,
+                RollupPlanner.upTo(RollupGranularity.HOUR));
+
+        // Край раньше границы хранения минутных агрегатов считается по сырым данным
+        assertEquals(List.of(
+                RollupSegment.raw(start, hour.minusHours(47), false),
+                new RollupSegment(RollupGranularity.HOUR, hour.minusHours(47), hour.minusHours(24), false),
+                new RollupSegment(RollupGranularity.HOUR, hour.minusHours(24), hour.minusHours(1), false),
+                new RollupSegment(RollupGranularity.MINUTE, hour.minusHours(1), end, false),
+                RollupSegment.raw(end, end, true)
+        ), segments);
+    }
+
+    private static RollupProperties keepingMinutes() {
+        RollupProperties properties = new RollupProperties();
+        properties.setMinuteRetention(null);
+        return properties;
+    }
+}
@@ -0,0 +1,98 @@
+package ru.practicum.schema;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.sql.init.SqlInitializationProperties;
+import org.springframework.boot.sql.init.DatabaseInitializationMode;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.practicum.partition.PartitionProperties;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public class SchemaInitializerTest {
+
+    private EmbeddedPostgres postgres;
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    public void startPostgres() throws IOException {
+        postgres = EmbeddedPostgres.start();
+        jdbcTemplate = new JdbcTemplate(postgres.getPostgresDatabase());
+        jdbcTemplate.execute("CREATE TABLE stats (id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, " +
+                "app VARCHAR(100) NOT NULL, uri VARCHAR(2048) NOT NULL, ip VARCHAR(15) NOT NULL, " +
+                "time_stamp TIMESTAMP NOT NULL)");
+    }
+
+    @AfterEach
+    public void stopPostgres() throws IOException {
+        postgres.close();
+    }
+
+    @Test
+    public void testLegacyRowsLandInTheirOwnPartitions() {
+        LocalDateTime now = LocalDateTime.now();
+        insertLegacy("/events/1", "10.0.0.1", now.minusDays(3));
+        insertLegacy("/events/2", "10.0.0.2", now.minusDays(1));
+        insertLegacy("/events/3", "10.0.0.3", now);
+
+        initializer(new PartitionProperties()).initializeDatabase();
+
+        assertEquals(3L, count("stats"));
+        assertEquals(0L, count("stats_default"));
+        assertEquals(List.of(partition(now.minusDays(3)), partition(now.minusDays(2)), partition(now.minusDays(1)),
+                partition(now)), partitions());
+    }
+
+    @Test
+    public void testRowsOlderThanRetentionGetNoPartitions() {
+        LocalDateTime now = LocalDateTime.now();
+        insertLegacy("/events/1", "10.0.0.1", now.minusDays(30));
+        insertLegacy("/events/2", "10.0.0.2", now);
+        PartitionProperties properties = new PartitionProperties();
+        properties.setRetention(Duration.ofDays(7));
+
+        initializer(properties).initializeDatabase();
+
+        // Строка старше срока хранения остаётся в секции по умолчанию до первого обслуживания секций
+        assertEquals(1L, count("stats_default"));
+        assertFalse(partitions().contains(partition(now.minusDays(30))));
+        assertEquals(partition(now), partitions().getLast());
+    }
+
+    private SchemaInitializer initializer(PartitionProperties partitionProperties) {
+        SqlInitializationProperties properties = new SqlInitializationProperties();
+        properties.setSchemaLocations(List.of("classpath:schema.sql"));
+        properties.setMode(DatabaseInitializationMode.ALWAYS);
+        return new SchemaInitializer(postgres.getPostgresDatabase(), properties, partitionProperties);
+    }
+
+    private void insertLegacy(String uri, String ip, LocalDateTime timestamp) {
+        jdbcTemplate.update("INSERT INTO stats (app, uri, ip, time_stamp) VALUES ('ewm-main-service', ?, ?, ?)",
+                uri, ip, Timestamp.valueOf(timestamp));
+    }
+
+    private long count(String table) {
+        return jdbcTemplate.queryForObject("SELECT count(*) FROM " + table, Long.class);
+    }
+
+    private List<String> partitions() {
+        return jdbcTemplate.queryForList("SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+                "WHERE i.inhparent = 'stats'::regclass AND c.relname <> 'stats_default' ORDER BY c.relname",
+                String.class);
+    }
+
+    private static String partition(LocalDateTime day) {
+        LocalDate date = day.toLocalDate();
+        return "stats_p" + date.toString().replace("-", "");
+    }
+}
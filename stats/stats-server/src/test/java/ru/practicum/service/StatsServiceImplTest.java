@@ -0,0 +1,159 @@
+package ru.practicum.service;
+
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.practicum.dto.BulkHitResultDto;
+import ru.practicum.cache.StatsResultCache;
+import ru.practicum.columnar.StorageProperties;
+import ru.practicum.dictionary.StatsDictionary;
+import ru.practicum.dto.HitDto;
+import ru.practicum.dto.StatsDtoGetParam;
+import ru.practicum.dto.TopDtoGetParam;
+import ru.practicum.dto.TopUriDto;
+import ru.practicum.exception.BadTimeException;
+import ru.practicum.ingest.HitIngestor;
+import ru.practicum.mapper.StatsMapper;
+import ru.practicum.mapper.StatsMapperImpl;
+import ru.practicum.model.Stats;
+import ru.practicum.model.StatsCount;
+import ru.practicum.repository.CompactionRepository;
+import ru.practicum.repository.RollupRepository;
+import ru.practicum.top.TopUrisTracker;
+import ru.practicum.visitor.VisitorIndex;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class StatsServiceImplTest {
+
+    private static final LocalDateTime TIME = LocalDateTime.of(2024, 1, 1, 12, 0);
+
+    @Spy
+    private StatsMapper statsMapper = new StatsMapperImpl();
+    @Spy
+    private Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
+    @Spy
+    private StorageProperties storageProperties = new StorageProperties();
+    @Mock
+    private HitIngestor hitIngestor;
+    @Mock
+    private CompactionRepository compactionRepository;
+    @Mock
+    private StatsResultCache statsResultCache;
+    @Mock
+    private StatsDictionary statsDictionary;
+    @Mock
+    private VisitorIndex visitorIndex;
+    @Mock
+    private TopUrisTracker topUrisTracker;
+    @Mock
+    private RollupRepository rollupRepository;
+
+    @InjectMocks
+    private StatsServiceImpl statsService;
+
+    @Test
+    public void testSaveRequestsWritesValidHitsInBatches() {
+        when(hitIngestor.getBatchSize()).thenReturn(2);
+
+        BulkHitResultDto result = statsService.saveRequests(List.of(
+                hit("/events/1"), hit("/events/2"), hit("/events/3"), hit("/events/4"), hit("/events/5")).iterator());
+
+        assertEquals(5, result.getAccepted());
+        assertEquals(List.of(), result.getRejected());
+        assertEquals(List.of(List.of("/events/1", "/events/2"), List.of("/events/3", "/events/4"),
+                List.of("/events/5")), writtenBatches());
+    }
+
+    @Test
+    public void testSaveRequestsReportsInvalidHitsByIndex() {
+        when(hitIngestor.getBatchSize()).thenReturn(100);
+        HitDto noIp = hit("/events/2");
+        noIp.setIp("");
+        HitDto future = hit("/events/3");
+        future.setTimestamp(LocalDateTime.now().plusDays(1));
+
+        BulkHitResultDto result = statsService.saveRequests(Arrays.asList(
+                hit("/events/1"), noIp, future, null, hit("/events/5")).iterator());
+
+        assertEquals(2, result.getAccepted());
+        assertEquals(List.of(
+                "1: [ip не должен быть пустым]",
+                "2: [timestamp не должен быть в будущем]",
+                "3: [запрос не должен быть null]"), result.getRejected().stream()
+                .map(rejection -> rejection.getIndex() + ": " + rejection.getErrors())
+                .toList());
+        assertEquals(List.of(List.of("/events/1", "/events/5")), writtenBatches());
+    }
+
+    @Test
+    public void testExactUniqueStatBeforeCompactedPeriodIsRejected() {
+        when(compactionRepository.getCompactedBefore()).thenReturn(TIME);
+        StatsDtoGetParam prm = new StatsDtoGetParam();
+        prm.setStart(TIME.minusHours(1));
+        prm.setEnd(TIME.plusHours(1));
+        prm.setUnique(true);
+
+        BadTimeException e = assertThrows(BadTimeException.class, () -> statsService.getStat(prm));
+        assertEquals("Exact unique counts are not available before " + TIME, e.getMessage());
+        assertThrows(BadTimeException.class, () -> statsService.checkStat(prm));
+    }
+
+    @Test
+    public void testTopFromRollupsWhenTrackerDisabled() {
+        when(topUrisTracker.getMaxMinutes()).thenReturn(60L);
+        when(statsDictionary.findAppId("ewm-main-service")).thenReturn(1);
+        when(rollupRepository.findTopUris(eq(1), any(), eq(2))).thenReturn(List.of(
+                new StatsCount(1, 10, 7L), new StatsCount(1, 11, 3L)));
+        when(statsDictionary.uriName(10)).thenReturn("/events/1");
+        when(statsDictionary.uriName(11)).thenReturn("/events/2");
+        TopDtoGetParam prm = new TopDtoGetParam();
+        prm.setApp("ewm-main-service");
+        prm.setK(2);
+        prm.setMinutes(5);
+
+        List<TopUriDto> top = statsService.getTop(prm);
+
+        assertEquals(List.of("/events/1: 7 ± 0", "/events/2: 3 ± 0"), top.stream()
+                .map(dto -> dto.getUri() + ": " + dto.getHits() + " ± " + dto.getError())
+                .toList());
+        verify(topUrisTracker, never()).getTop(anyInt(), anyInt(), anyInt());
+    }
+
+    private List<List<String>> writtenBatches() {
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Stats>> captor = ArgumentCaptor.forClass(List.class);
+        verify(hitIngestor, atLeastOnce()).ingestAll(captor.capture());
+        List<List<String>> batches = new ArrayList<>();
+        for (List<Stats> batch : captor.getAllValues()) {
+            if (!batch.isEmpty()) {
+                batches.add(batch.stream().map(Stats::getUri).toList());
+            }
+        }
+        return batches;
+    }
+
+    private static HitDto hit(String uri) {
+        return new HitDto("ewm-main-service", uri, "192.168.0.1", TIME);
+    }
+}
@@ -0,0 +1,222 @@
+package ru.practicum.spool;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.util.unit.DataSize;
+import ru.practicum.ingest.HitIngestor;
+import ru.practicum.model.Stats;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HitSpoolTest {
+
+    private static final int BATCH_SIZE = 10;
+    private static final Duration STOP_TIMEOUT = Duration.ofSeconds(5);
+    private static final LocalDateTime TIME = LocalDateTime.of(2024, 1, 1, 12, 0, 0, 123_000_000);
+
+    @TempDir
+    private Path directory;
+
+    private SpoolProperties properties;
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    public void setUp() {
+        properties = new SpoolProperties();
+        properties.setDirectory(directory);
+        properties.setSegmentSize(DataSize.ofBytes(512));
+        properties.setPollInterval(Duration.ofMillis(10));
+        properties.setRetryDelay(Duration.ofMillis(10));
+    }
+
+    @Test
+    public void testDrainsAcrossSegmentsAndDoesNotRedeliverAfterRestart() throws Exception {
+        List<Stats> delivered = Collections.synchronizedList(new ArrayList<>());
+        HitSpool spool = new HitSpool(properties, registry);
+        spool.start(BATCH_SIZE, delivered::addAll, HitIngestor::isRejectedByDatabase);
+        assertTrue(spool.append(hits(0, 50)));
+        awaitSize(delivered, 50);
+        spool.stop(STOP_TIMEOUT);
+
+        assertEquals(uris(0, 50), delivered.stream().map(Stats::getUri).toList());
+        assertEquals(TIME, delivered.getFirst().getTimestamp());
+        assertEquals(2, delivered.getFirst().getHits());
+        // Перенесённые сегменты, кроме текущего, удалены
+        assertEquals(1, segmentFiles().size());
+
+        List<Stats> redelivered = Collections.synchronizedList(new ArrayList<>());
+        HitSpool restarted = new HitSpool(properties, registry);
+        restarted.start(BATCH_SIZE, redelivered::addAll, HitIngestor::isRejectedByDatabase);
+        restarted.stop(STOP_TIMEOUT);
+
+        assertTrue(redelivered.isEmpty());
+    }
+
+    @Test
+    public void testRecoversUndeliveredHitsAfterCrash() throws Exception {
+        HitSpool spool = new HitSpool(properties, registry);
+        spool.start(BATCH_SIZE, failing(), HitIngestor::isRejectedByDatabase);
+        assertTrue(spool.append(hits(0, 30)));
+        spool.stop(STOP_TIMEOUT);
+        assertTrue(segmentFiles().size() > 1);
+
+        List<Stats> delivered = Collections.synchronizedList(new ArrayList<>());
+        HitSpool restarted = new HitSpool(properties, registry);
+        restarted.start(BATCH_SIZE, delivered::addAll, HitIngestor::isRejectedByDatabase);
+        awaitSize(delivered, 30);
+        restarted.stop(STOP_TIMEOUT);
+
+        assertEquals(uris(0, 30), delivered.stream().map(Stats::getUri).toList());
+    }
+
+    @Test
+    public void testTruncatesSegmentAtCorruptedRecord() throws Exception {
+        HitSpool spool = new HitSpool(properties, registry);
+        spool.start(BATCH_SIZE, failing(), HitIngestor::isRejectedByDatabase);
+        assertTrue(spool.append(hits(0, 3)));
+        spool.stop(STOP_TIMEOUT);
+        corruptSecondRecord(segmentFiles().getFirst());
+
+        List<Stats> delivered = Collections.synchronizedList(new ArrayList<>());
+        HitSpool restarted = new HitSpool(properties, registry);
+        restarted.start(BATCH_SIZE, delivered::addAll, HitIngestor::isRejectedByDatabase);
+        assertTrue(restarted.append(hits(3, 5)));
+        awaitSize(delivered, 3);
+        restarted.stop(STOP_TIMEOUT);
+
+        // Запись с неверной CRC и всё после неё отброшены, новые записи пишутся на их место
+        assertEquals(List.of("/events/0", "/events/3", "/events/4"),
+                delivered.stream().map(Stats::getUri).toList());
+    }
+
+    @Test
+    public void testRejectsAppendOverMaxSize() {
+        properties.setMaxSize(DataSize.ofBytes(1024));
+        HitSpool spool = new HitSpool(properties, registry);
+        spool.start(BATCH_SIZE, failing(), HitIngestor::isRejectedByDatabase);
+        try {
+            assertTrue(spool.append(hits(0, 30)));
+            assertFalse(spool.append(hits(30, 31)));
+        } finally {
+            spool.stop(STOP_TIMEOUT);
+        }
+    }
+
+    @Test
+    public void testQuarantinesHitRejectedByDatabase() throws Exception {
+        properties.setIsolateAfter(2);
+        List<Stats> delivered = Collections.synchronizedList(new ArrayList<>());
+        HitSpool spool = new HitSpool(properties, registry);
+        // БД отвергает пакет, в котором есть /events/3
+        spool.start(BATCH_SIZE, batch -> {
+            if (batch.stream().anyMatch(hit -> hit.getUri().equals("/events/3"))) {
+                throw new DataIntegrityViolationException("value too long for type character varying(2048)");
+            }
+            delivered.addAll(batch);
+        }, HitIngestor::isRejectedByDatabase);
+        assertTrue(spool.append(hits(0, 15)));
+        awaitSize(delivered, 14);
+        spool.stop(STOP_TIMEOUT);
+
+        List<String> expected = new ArrayList<>(uris(0, 15));
+        expected.remove("/events/3");
+        assertEquals(expected, delivered.stream().map(Stats::getUri).toList());
+        assertEquals(1.0, registry.counter("stats.spool.quarantined").count());
+        assertTrue(Files.size(directory.resolve("quarantine.log")) > 0);
+
+        // Контрольная точка прошла отвергнутый запрос: после перезапуска он не повторяется
+        List<Stats> redelivered = Collections.synchronizedList(new ArrayList<>());
+        HitSpool restarted = new HitSpool(properties, registry);
+        restarted.start(BATCH_SIZE, redelivered::addAll, HitIngestor::isRejectedByDatabase);
+        restarted.stop(STOP_TIMEOUT);
+        assertTrue(redelivered.isEmpty());
+    }
+
+    @Test
+    public void testDoesNotQuarantineWhileDatabaseIsUnavailable() throws Exception {
+        properties.setIsolateAfter(1);
+        HitSpool spool = new HitSpool(properties, registry);
+        spool.start(BATCH_SIZE, failing(), HitIngestor::isRejectedByDatabase);
+        assertTrue(spool.append(hits(0, 5)));
+        Thread.sleep(100);
+        spool.stop(STOP_TIMEOUT);
+
+        assertEquals(0.0, registry.counter("stats.spool.quarantined").count());
+        List<Stats> delivered = Collections.synchronizedList(new ArrayList<>());
+        HitSpool restarted = new HitSpool(properties, registry);
+        restarted.start(BATCH_SIZE, delivered::addAll, HitIngestor::isRejectedByDatabase);
+        awaitSize(delivered, 5);
+        restarted.stop(STOP_TIMEOUT);
+    }
+
+    private static Consumer<List<Stats>> failing() {
+        return batch -> {
+            throw new IllegalStateException("БД недоступна");
+        };
+    }
+
+    private static void corruptSecondRecord(Path segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+            channel.read(length, 0);
+            long second = Integer.BYTES * 2L + length.flip().getInt();
+            ByteBuffer payloadByte = ByteBuffer.allocate(1);
+            channel.read(payloadByte, second + Integer.BYTES * 2L + 1);
+            payloadByte.put(0, (byte) (payloadByte.get(0) ^ 0xFF));
+            channel.write(payloadByte.rewind(), second + Integer.BYTES * 2L + 1);
+        }
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith("segment-"))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static void awaitSize(List<Stats> delivered, int size) throws InterruptedException {
+        long deadline = System.nanoTime() + STOP_TIMEOUT.toNanos();
+        while (delivered.size() < size && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(size, delivered.size());
+    }
+
+    private static List<Stats> hits(int from, int to) {
+        return IntStream.range(from, to)
+                .mapToObj(i -> Stats.builder()
+                        .app("ewm-main-service")
+                        .uri("/events/" + i)
+                        .ip("192.168.0." + i)
+                        .timestamp(TIME)
+                        .hits(2)
+                        .build())
+                .toList();
+    }
+
+    private static List<String> uris(int from, int to) {
+        return IntStream.range(from, to).mapToObj(i -> "/events/" + i).toList();
+    }
+}
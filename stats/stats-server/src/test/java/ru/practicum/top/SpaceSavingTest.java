@@ -0,0 +1,83 @@
+package ru.practicum.top;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SpaceSavingTest {
+
+    private static final int CAPACITY = 50;
+
+    @Test
+    public void testExactWhileUnderCapacity() {
+        SpaceSaving sketch = new SpaceSaving(CAPACITY);
+        sketch.add(1, 5);
+        sketch.add(2, 3);
+        sketch.add(1, 2);
+
+        List<SpaceSaving.Estimate> top = SpaceSaving.top(List.of(sketch), 10);
+
+        assertEquals(List.of(new SpaceSaving.Estimate(1, 7, 0), new SpaceSaving.Estimate(2, 3, 0)), top);
+    }
+
+    @Test
+    public void testErrorBounds() {
+        SpaceSaving sketch = new SpaceSaving(CAPACITY);
+        Map<Integer, Long> exact = new HashMap<>();
+        long total = feed(sketch, exact, new Random(1), 100_000);
+
+        assertBounds(SpaceSaving.top(List.of(sketch), CAPACITY), exact, total);
+    }
+
+    @Test
+    public void testMergedErrorBounds() {
+        SpaceSaving first = new SpaceSaving(CAPACITY);
+        SpaceSaving second = new SpaceSaving(CAPACITY);
+        Map<Integer, Long> exact = new HashMap<>();
+        long total = feed(first, exact, new Random(2), 60_000) + feed(second, exact, new Random(3), 40_000);
+
+        assertBounds(SpaceSaving.top(List.of(first, second), 2 * CAPACITY), exact, total);
+    }
+
+    @Test
+    public void testNonPositiveCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new SpaceSaving(0));
+    }
+
+    /**
+     * Поток с распределением, близким к Ципфу: несколько частых значений и длинный хвост редких.
+     */
+    private static long feed(SpaceSaving sketch, Map<Integer, Long> exact, Random random, int size) {
+        for (int i = 0; i < size; i++) {
+            int item = (int) Math.floor(Math.pow(10_000, random.nextDouble()));
+            sketch.add(item, 1);
+            exact.merge(item, 1L, Long::sum);
+        }
+        return size;
+    }
+
+    private static void assertBounds(List<SpaceSaving.Estimate> top, Map<Integer, Long> exact, long total) {
+        long maxError = total / CAPACITY;
+        for (SpaceSaving.Estimate estimate : top) {
+            long actual = exact.getOrDefault(estimate.item(), 0L);
+            assertTrue(estimate.count() >= actual, "оценка ниже настоящего количества: " + estimate);
+            assertTrue(estimate.count() - estimate.error() <= actual, "ошибка занижена: " + estimate);
+            assertTrue(estimate.error() <= maxError, "ошибка больше N / capacity: " + estimate);
+        }
+        Set<Integer> found = top.stream().map(SpaceSaving.Estimate::item).collect(Collectors.toSet());
+        exact.forEach((item, count) -> {
+            if (count > maxError) {
+                assertTrue(found.contains(item), "частое значение " + item + " (" + count + ") не найдено");
+            }
+        });
+    }
+}
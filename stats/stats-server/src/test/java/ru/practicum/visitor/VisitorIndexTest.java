@@ -0,0 +1,84 @@
+package ru.practicum.visitor;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.roaringbitmap.RoaringBitmap;
+import ru.practicum.model.StatsCount;
+import ru.practicum.repository.CompactionRepository;
+import ru.practicum.repository.VisitorRepository;
+import ru.practicum.rollup.BucketKey;
+import ru.practicum.rollup.RollupPlanner;
+import ru.practicum.rollup.RollupProperties;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class VisitorIndexTest {
+
+    private static final LocalDateTime NOT_COMPACTED = LocalDateTime.of(1970, 1, 1, 0, 0);
+    private static final LocalDateTime HOUR = LocalDateTime.of(2024, 1, 1, 12, 0);
+    private static final BucketKey KEY = new BucketKey(HOUR, 1, 10);
+
+    @Mock
+    private VisitorRepository visitorRepository;
+    @Mock
+    private CompactionRepository compactionRepository;
+
+    private VisitorIndex visitorIndex;
+    // Строка stats_visitor_hour, которую видит репозиторий
+    private VisitorRepository.HourBitmap stored = new VisitorRepository.HourBitmap(RoaringBitmap.bitmapOf(1, 2), 0);
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        VisitorIndexProperties properties = new VisitorIndexProperties();
+        properties.setEnabled(true);
+        visitorIndex = new VisitorIndex(properties, visitorRepository, compactionRepository, new RollupPlanner(new RollupProperties()));
+        when(visitorRepository.getCoveredFrom()).thenReturn(NOT_COMPACTED);
+        when(compactionRepository.getCompactedBefore()).thenReturn(NOT_COMPACTED);
+        doAnswer(invocation -> {
+            invocation.<BiConsumer<BucketKey, VisitorRepository.HourBitmap>>getArgument(2).accept(KEY, stored);
+            return null;
+        }).when(visitorRepository).forEachBitmap(any(), any(), any());
+        doAnswer(invocation -> {
+            invocation.<BiConsumer<BucketKey, Long>>getArgument(2).accept(KEY, stored.version());
+            return null;
+        }).when(visitorRepository).forEachVersion(any(), any(), any());
+    }
+
+    @Test
+    public void testCachedHourIsReused() {
+        assertEquals(2L, uniqueVisitors());
+        assertEquals(2L, uniqueVisitors());
+
+        verify(visitorRepository, times(1)).forEachBitmap(any(), any(), any());
+    }
+
+    @Test
+    public void testCachedHourIsReloadedAfterWriteByAnotherNode() {
+        assertEquals(2L, uniqueVisitors());
+
+        // Другой узел дописал в закрытый час запрос задним числом
+        stored = new VisitorRepository.HourBitmap(RoaringBitmap.bitmapOf(1, 2, 3), 1);
+
+        assertEquals(3L, uniqueVisitors());
+        verify(visitorRepository, times(2)).forEachBitmap(any(), any(), any());
+    }
+
+    private long uniqueVisitors() {
+        List<StatsCount> stats = visitorIndex.getStats(HOUR, HOUR.plusHours(1), List.of(10)).orElseThrow();
+        return stats.getFirst().hits();
+    }
+}